@@ -0,0 +1,69 @@
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mapToServiceNow() for every credential type the resolver knows, with plain-string and JSON
+ * secrets of realistic shape. {@code parseAndMap} includes parsing the raw secret text;
+ * {@code mapParsed} is the cached-value path, applying a precompiled plan to a parsed value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"windows", "basic", "ssh_password", "vmware", "jdbc", "jms", "ssh_private_key", "snmpv3", "custom_type"})
+    public String type;
+
+    @Param({"plain", "json", "large_private_key"})
+    public String shape;
+
+    private final CredentialResolver resolver = new CredentialResolver();
+    private final MappingPlan.Cache plans = new MappingPlan.Cache("username", "password", "private_key", "passphrase");
+    private String raw;
+    private SecretValue parsed;
+
+    @Setup
+    public void setUp() {
+        InMemoryGateway gw = new InMemoryGateway(0);
+        switch (shape) {
+            case "plain":
+                raw = gw.raw(InMemoryGateway.PLAIN);
+                break;
+            case "large_private_key":
+                raw = gw.raw(InMemoryGateway.LARGE_SSH_KEY);
+                break;
+            default:
+                raw = gw.raw("snmpv3".equals(type) ? InMemoryGateway.SNMPV3
+                        : "ssh_private_key".equals(type) ? InMemoryGateway.SSH_KEY
+                        : InMemoryGateway.BASIC);
+        }
+        parsed = SecretValue.parse(raw);
+    }
+
+    @Benchmark
+    public Map<String, String> parseAndMap() throws Exception {
+        return resolver.mapToServiceNow(type, raw, "username", "password", "private_key", "passphrase");
+    }
+
+    @Benchmark
+    public Map<String, String> mapParsed() {
+        return plans.forType(type).apply(parsed);
+    }
+}
@@ -0,0 +1,115 @@
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end resolve() against the canned {@link InMemoryGateway}, installed through the
+ * HttpTransport seam. Its responses are parsed from JSON bytes on every call, as over HTTP. Covers plain and JSON secrets, large private keys, the secret cache on and
+ * off, simulated gateway latency and contention from many MID worker threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Keeps log output and log level checks out of the measurement
+@Fork(value = 1, jvmArgsAppend = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog")
+public class ResolveBenchmark {
+
+    @Param({"plain", "basic", "ssh_private_key", "large_private_key", "snmpv3"})
+    public String secret;
+
+    @Param({"false", "true"})
+    public String cache;
+
+    // Simulated gateway round-trip per HTTP call
+    @Param({"0"})
+    public long gatewayDelayMicros;
+
+    private CredentialResolver resolver;
+    private Map<String, String> args;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://bench.invalid");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "p-bench");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.cache.enabled", cache);
+        CredentialResolver.setHttpTransport(new InMemoryGateway(gatewayDelayMicros));
+
+        resolver = new CredentialResolver();
+        args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, path(secret));
+        args.put(CredentialResolver.ARG_TYPE, type(secret));
+        args.put(CredentialResolver.ARG_IP, "10.22.231.12");
+        args.put(CredentialResolver.ARG_MID, "mid-bench");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+    }
+
+    @Benchmark
+    public Map<String, String> resolve() throws Exception {
+        return resolver.resolve(args);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<String, String> resolveLatency() throws Exception {
+        return resolver.resolve(args);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Map<String, String> resolveContended() throws Exception {
+        return resolver.resolve(args);
+    }
+
+    static String path(String secret) {
+        switch (secret) {
+            case "plain": return InMemoryGateway.PLAIN;
+            case "basic": return InMemoryGateway.BASIC;
+            case "ssh_private_key": return InMemoryGateway.SSH_KEY;
+            case "large_private_key": return InMemoryGateway.LARGE_SSH_KEY;
+            case "snmpv3": return InMemoryGateway.SNMPV3;
+            default: throw new IllegalArgumentException(secret);
+        }
+    }
+
+    static String type(String secret) {
+        switch (secret) {
+            case "plain": return "ssh_password";
+            case "basic": return "windows";
+            case "ssh_private_key":
+            case "large_private_key": return "ssh_private_key";
+            case "snmpv3": return "snmpv3";
+            default: throw new IllegalArgumentException(secret);
+        }
+    }
+}
@@ -1,16 +1,31 @@
 package com.snc.discovery;
 
 public class AkeylessCredentialResolverException extends Exception {
+    private final int httpStatus;
+
     public AkeylessCredentialResolverException(String message) {
+        this(message, 0);
+    }
+    /** For a gateway response with a non-2xx {@code httpStatus}. */
+    public AkeylessCredentialResolverException(String message, int httpStatus) {
         super(message);
+        this.httpStatus = httpStatus;
     }
     public AkeylessCredentialResolverException(String message, Throwable cause) {
         super(message, cause);
+        this.httpStatus = 0;
     }
     public AkeylessCredentialResolverException(Throwable cause) {
         super(cause);
+        this.httpStatus = 0;
     }
     public AkeylessCredentialResolverException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
+        this.httpStatus = 0;
+    }
+
+    /** The HTTP status the gateway answered with, or 0 when the error did not come from an HTTP response. */
+    public int getHttpStatus() {
+        return httpStatus;
     }
 }
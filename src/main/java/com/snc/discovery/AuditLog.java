@@ -0,0 +1,293 @@
+package com.snc.discovery;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Audit events for resolve calls, written to the log by a background thread so the resolving
+ * thread never formats a message or waits on the MID logger.
+ *
+ * Each event records the secret path, credential type, MID, outcome and how long the resolve and
+ * its cloud_id, auth, fetch and mapping phases took. Values never reach it. Events go into a
+ * bounded ring of preallocated slots: producers claim a slot with one compare-and-set and fill
+ * it in place, and an event is dropped rather than waited for when the ring is full. Successful
+ * resolves can be sampled and all events rate limited per second; failures are never sampled
+ * out. The drop counters say how much was left out.
+ */
+final class AuditLog implements AutoCloseable {
+  private static final Log LOG = LogFactory.getLog(AuditLog.class);
+
+  static final String OK = "ok";
+  static final String ERROR = "error";
+
+  interface Sink {
+    void write(String line);
+  }
+
+  /** Phase timings of one resolve, filled in on the resolving thread. */
+  static final class Trace {
+    final long startNanos = System.nanoTime();
+    final String type;
+    final String mid;
+    String path;
+    long cloudIdNanos;
+    long authNanos;
+    long fetchNanos;
+    long mappingNanos;
+
+    Trace(String path, String type, String mid) {
+      this.path = path;
+      this.type = type;
+      this.mid = mid;
+    }
+
+    void add(String phase, long nanos) {
+      switch (phase) {
+        case ResolverMetrics.PHASE_CLOUD_ID:
+          cloudIdNanos += nanos;
+          break;
+        case ResolverMetrics.PHASE_AUTH:
+          authNanos += nanos;
+          break;
+        case ResolverMetrics.PHASE_FETCH:
+          fetchNanos += nanos;
+          break;
+        case ResolverMetrics.PHASE_MAPPING:
+          mappingNanos += nanos;
+          break;
+        default:
+      }
+    }
+  }
+
+  // A ring slot, reused for every event that passes through it
+  private static final class Event {
+    long epochMillis;
+    String path;
+    String type;
+    String mid;
+    String outcome;
+    String error;
+    int status;
+    long totalNanos;
+    long cloudIdNanos;
+    long authNanos;
+    long fetchNanos;
+    long mappingNanos;
+  }
+
+  private final Event[] slots;
+  // Per slot: the position a producer may claim it at, or that position + 1 once it is filled
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private long head; // writer thread only
+
+  private final Sink sink;
+  private final LongSupplier clock;
+  private volatile int samplePercent;
+  private volatile int maxPerSecond;
+  private final AtomicLong window = new AtomicLong(); // (second << 32) | events recorded in it
+
+  private final LongAdder recorded = new LongAdder();
+  private final LongAdder sampledOut = new LongAdder();
+  private final LongAdder rateLimited = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  private final StringBuilder line = new StringBuilder(256); // writer thread only
+  private volatile Thread writer;
+  private volatile boolean closed;
+
+  AuditLog(int capacity, int samplePercent, int maxPerSecond) {
+    this(capacity, samplePercent, maxPerSecond, LOG::info, System::currentTimeMillis);
+  }
+
+  AuditLog(int capacity, int samplePercent, int maxPerSecond, Sink sink, LongSupplier clock) {
+    int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 20)) * 2 - 1);
+    slots = new Event[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Event();
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+    this.sink = sink;
+    this.clock = clock;
+    configure(samplePercent, maxPerSecond);
+  }
+
+  /** Applies new sampling and rate settings; the ring keeps its size. */
+  void configure(int samplePercent, int maxPerSecond) {
+    if (this.samplePercent != samplePercent) this.samplePercent = samplePercent;
+    if (this.maxPerSecond != maxPerSecond) this.maxPerSecond = maxPerSecond;
+  }
+
+  /** Starts the daemon thread that writes events to the sink every {@code flushMillis} or sooner. */
+  synchronized void start(long flushMillis) {
+    if (writer != null || closed) {
+      return;
+    }
+    long parkNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, flushMillis));
+    Thread t = new Thread(() -> {
+      while (!closed) {
+        if (drain() == 0) {
+          LockSupport.parkNanos(this, parkNanos);
+        }
+      }
+      drain();
+    }, "akeyless-audit");
+    t.setDaemon(true);
+    writer = t;
+    t.start();
+  }
+
+  /**
+   * Records the end of the resolve traced by {@code trace}; {@code failure} is null when it
+   * succeeded. Never blocks: returns false when the event was sampled out, rate limited or the
+   * ring was full.
+   */
+  boolean record(Trace trace, Throwable failure) {
+    if (failure == null) {
+      int percent = samplePercent;
+      if (percent < 100 && (percent <= 0 || ThreadLocalRandom.current().nextInt(100) >= percent)) {
+        sampledOut.increment();
+        return false;
+      }
+    }
+    long now = clock.getAsLong();
+    if (!withinRate(now)) {
+      rateLimited.increment();
+      return false;
+    }
+    long pos;
+    for (;;) {
+      pos = tail.get();
+      long diff = sequences.get((int) pos & mask) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) break;
+      } else if (diff < 0) {
+        dropped.increment();
+        return false;
+      }
+    }
+    Event e = slots[(int) pos & mask];
+    e.epochMillis = now;
+    e.path = trace.path;
+    e.type = trace.type;
+    e.mid = trace.mid;
+    e.outcome = failure == null ? OK : ERROR;
+    e.error = failure == null ? null : failure.getClass().getSimpleName();
+    e.status = failure instanceof AkeylessCredentialResolverException
+        ? ((AkeylessCredentialResolverException) failure).getHttpStatus() : 0;
+    e.totalNanos = System.nanoTime() - trace.startNanos;
+    e.cloudIdNanos = trace.cloudIdNanos;
+    e.authNanos = trace.authNanos;
+    e.fetchNanos = trace.fetchNanos;
+    e.mappingNanos = trace.mappingNanos;
+    sequences.lazySet((int) pos & mask, pos + 1);
+    recorded.increment();
+    return true;
+  }
+
+  /** Writes the events recorded so far and returns how many; called by the writer thread. */
+  int drain() {
+    int n = 0;
+    for (;;) {
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) {
+        return n;
+      }
+      Event e = slots[index];
+      format(e);
+      e.path = null;
+      e.type = null;
+      e.mid = null;
+      sequences.lazySet(index, head + slots.length);
+      head++;
+      n++;
+      try {
+        sink.write(line.toString());
+      } catch (RuntimeException ex) {
+        // A failing log appender must not stop the writer
+      }
+    }
+  }
+
+  long recorded() {
+    return recorded.sum();
+  }
+
+  long sampledOut() {
+    return sampledOut.sum();
+  }
+
+  long rateLimited() {
+    return rateLimited.sum();
+  }
+
+  long dropped() {
+    return dropped.sum();
+  }
+
+  /** Stops the writer thread after it has written the events already recorded. */
+  @Override
+  public void close() {
+    Thread t;
+    synchronized (this) {
+      closed = true;
+      t = writer;
+    }
+    if (t != null) {
+      LockSupport.unpark(t);
+      try {
+        t.join(1000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private boolean withinRate(long nowMillis) {
+    int max = maxPerSecond;
+    if (max <= 0) {
+      return true;
+    }
+    long second = (nowMillis / 1000L) & 0xFFFFFFFFL;
+    for (;;) {
+      long w = window.get();
+      long count = (w >>> 32) == second ? w & 0xFFFFFFFFL : 0L;
+      if (count >= max) {
+        return false;
+      }
+      if (window.compareAndSet(w, (second << 32) | (count + 1))) {
+        return true;
+      }
+    }
+  }
+
+  private void format(Event e) {
+    line.setLength(0);
+    line.append("Akeyless resolver audit: time=").append(e.epochMillis)
+        .append(" path=").append(e.path)
+        .append(" type=").append(e.type)
+        .append(" mid=").append(e.mid)
+        .append(" outcome=").append(e.outcome);
+    if (e.error != null) {
+      line.append(" error=").append(e.error);
+      if (e.status > 0) line.append(" status=").append(e.status);
+    }
+    line.append(" total_us=").append(e.totalNanos / 1000)
+        .append(" cloud_id_us=").append(e.cloudIdNanos / 1000)
+        .append(" auth_us=").append(e.authNanos / 1000)
+        .append(" fetch_us=").append(e.fetchNanos / 1000)
+        .append(" mapping_us=").append(e.mappingNanos / 1000);
+  }
+}
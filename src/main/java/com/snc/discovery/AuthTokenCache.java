@@ -0,0 +1,172 @@
+package com.snc.discovery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Caches Akeyless auth tokens per gateway URL, access type and access id.
+ *
+ * A token is reused until shortly before it expires: at the expiry the gateway reported, when
+ * that is earlier than the configured lifetime, less a skew of at most a tenth of the lifetime.
+ * Once it enters its refresh window
+ * callers keep getting the current token while a single background task re-authenticates.
+ * When a token has actually expired, only one thread per key authenticates; the others wait
+ * for its result instead of hitting /auth themselves. That wait uses a lock rather than a
+ * monitor, so a virtual thread blocked on it leaves its carrier thread free.
+ */
+final class AuthTokenCache {
+  private static final Log LOG = LogFactory.getLog(AuthTokenCache.class);
+
+  // Tokens are treated as expired this long before the gateway would reject them, or a tenth of
+  // their lifetime when that is shorter, so a short-lived token is still usable for most of it
+  private static final long EXPIRY_SKEW_MILLIS = 10_000L;
+
+  interface Authenticator {
+    Grant authenticate() throws Exception;
+  }
+
+  /** A token from /auth and the time the gateway said it expires at, or 0 when it did not say. */
+  static final class Grant {
+    final String token;
+    final long expiresAtMillis;
+
+    Grant(String token, long expiresAtMillis) {
+      this.token = token;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private static final class Token {
+    final String value;
+    final long refreshAtMillis;
+    final long usableUntilMillis;
+
+    Token(String value, long refreshAtMillis, long usableUntilMillis) {
+      this.value = value;
+      this.refreshAtMillis = refreshAtMillis;
+      this.usableUntilMillis = usableUntilMillis;
+    }
+  }
+
+  private static final class Entry {
+    volatile Token token;
+    final AtomicBoolean refreshing = new AtomicBoolean();
+    final ReentrantLock lock = new ReentrantLock();
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Executor refresher;
+  private final LongSupplier clock;
+
+  AuthTokenCache() {
+    this(Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "akeyless-token-refresh");
+      t.setDaemon(true);
+      return t;
+    }), System::currentTimeMillis);
+  }
+
+  AuthTokenCache(Executor refresher, LongSupplier clock) {
+    this.refresher = refresher;
+    this.clock = clock;
+  }
+
+  static String key(String gwUrl, String accessType, String accessId) {
+    return gwUrl + '|' + accessType + '|' + accessId;
+  }
+
+  /**
+   * Returns a valid token for {@code key}, authenticating through {@code auth} when there is none.
+   * {@code ttlMillis} is the lifetime assumed for a freshly issued token; an earlier expiry
+   * reported by the gateway takes precedence.
+   */
+  String getToken(String key, long ttlMillis, Authenticator auth) throws Exception {
+    Entry e = entries.computeIfAbsent(key, k -> new Entry());
+    Token t = e.token;
+    long now = clock.getAsLong();
+    if (isUsable(t, now)) {
+      if (now >= t.refreshAtMillis) {
+        refreshInBackground(e, ttlMillis, auth);
+      }
+      return t.value;
+    }
+    e.lock.lockInterruptibly();
+    try {
+      t = e.token;
+      if (isUsable(t, clock.getAsLong())) {
+        return t.value;
+      }
+      t = issue(ttlMillis, auth);
+      e.token = t;
+      return t.value;
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  /** Drops {@code token} for {@code key}, e.g. after the gateway rejected it. */
+  void invalidate(String key, String token) {
+    Entry e = entries.get(key);
+    if (e == null) return;
+    e.lock.lock();
+    try {
+      Token t = e.token;
+      if (t != null && t.value.equals(token)) {
+        e.token = null;
+      }
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  void clear() {
+    entries.clear();
+  }
+
+  private boolean isUsable(Token t, long now) {
+    return t != null && now < t.usableUntilMillis;
+  }
+
+  private Token issue(long ttlMillis, Authenticator auth) throws Exception {
+    Grant g = auth.authenticate();
+    long now = clock.getAsLong();
+    long lifetime = Math.max(0L, ttlMillis);
+    if (g.expiresAtMillis > 0) {
+      lifetime = Math.min(lifetime, Math.max(0L, g.expiresAtMillis - now));
+    }
+    long usableUntil = now + lifetime - Math.min(EXPIRY_SKEW_MILLIS, lifetime / 10);
+    // Start refreshing in the background once 80% of the lifetime has passed
+    return new Token(g.token, Math.min(now + lifetime * 4 / 5, usableUntil), usableUntil);
+  }
+
+  private void refreshInBackground(Entry e, long ttlMillis, Authenticator auth) {
+    if (!e.refreshing.compareAndSet(false, true)) return;
+    try {
+      refresher.execute(() -> {
+        try {
+          e.lock.lock();
+          try {
+            e.token = issue(ttlMillis, auth);
+          } finally {
+            e.lock.unlock();
+          }
+        } catch (Exception ex) {
+          // The current token is still valid; the next caller past expiry re-authenticates inline
+          LOG.warn("Akeyless resolver: background token refresh failed: " + ex.getMessage());
+        } finally {
+          e.refreshing.set(false);
+        }
+      });
+    } catch (RuntimeException ex) {
+      e.refreshing.set(false);
+      LOG.warn("Akeyless resolver: could not schedule token refresh: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.snc.discovery;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calls to a gateway that keeps failing.
+ *
+ * After {@code failureThreshold} consecutive failures (I/O errors or HTTP 5xx) the breaker opens
+ * and calls fail at once for {@code openMillis}, instead of each waiting for its own timeout.
+ * Then one trial call is let through: if it succeeds the breaker closes, if it fails the breaker
+ * opens again. Any answer from the gateway other than a 5xx counts as a success.
+ */
+final class CircuitBreaker {
+  static final int CLOSED = 0;
+  static final int OPEN = 1;
+  static final int HALF_OPEN = 2;
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final LongSupplier clock;
+
+  // guarded by this
+  private int failures;
+  private long openUntil;
+  private boolean trialInFlight;
+
+  CircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, System::currentTimeMillis);
+  }
+
+  CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /** Lets a call through, or throws while the breaker is open; report the outcome to {@link #onSuccess} or {@link #onFailure}. */
+  synchronized void acquire(String gwUrl) throws AkeylessCredentialResolverException {
+    if (openUntil == 0) {
+      return;
+    }
+    long wait = openUntil - clock.getAsLong();
+    if (wait > 0 || trialInFlight) {
+      throw new GatewayRejectedException("Gateway " + gwUrl + " is unavailable after " + failures
+          + " consecutive failures, next attempt in " + Math.max(0, wait) + " ms");
+    }
+    trialInFlight = true;
+  }
+
+  synchronized void onSuccess() {
+    failures = 0;
+    openUntil = 0;
+    trialInFlight = false;
+  }
+
+  synchronized void onFailure() {
+    failures++;
+    if (trialInFlight || failures >= failureThreshold) {
+      openUntil = clock.getAsLong() + openMillis;
+    }
+    trialInFlight = false;
+  }
+
+  /** For a call that was let through but never reached the gateway. */
+  synchronized void onCancel() {
+    trialInFlight = false;
+  }
+
+  synchronized int state() {
+    if (openUntil == 0) {
+      return CLOSED;
+    }
+    return clock.getAsLong() < openUntil ? OPEN : HALF_OPEN;
+  }
+}
@@ -0,0 +1,152 @@
+package com.snc.discovery;
+
+import io.akeyless.cloudid.CloudIdProvider;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Caches CloudID providers and the CloudIDs they produce, per cloud access type.
+ *
+ * Producing a CloudID calls the instance metadata service and signs an identity request, so a
+ * CloudID is reused for its assumed lifetime. After 80% of it, callers keep getting the current
+ * CloudID while one background task produces the next. When there is no valid CloudID, callers
+ * wait at most the configured timeout for the metadata call; a call that outlives the timeout
+ * still fills the cache for the next resolve.
+ */
+final class CloudIdCache {
+  private static final Log LOG = LogFactory.getLog(CloudIdCache.class);
+
+  interface ProviderFactory {
+    CloudIdProvider create() throws Exception;
+  }
+
+  private static final class CloudId {
+    final String value;
+    final long refreshAtMillis;
+    final long expiresAtMillis;
+
+    CloudId(String value, long refreshAtMillis, long expiresAtMillis) {
+      this.value = value;
+      this.refreshAtMillis = refreshAtMillis;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  private static final class Entry {
+    volatile CloudIdProvider provider;
+    volatile CloudId cloudId;
+    CompletableFuture<String> pending; // guarded by this
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final LongSupplier clock;
+
+  CloudIdCache() {
+    this(Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "akeyless-cloudid");
+      t.setDaemon(true);
+      return t;
+    }), System::currentTimeMillis);
+  }
+
+  CloudIdCache(Executor executor, LongSupplier clock) {
+    this.executor = executor;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns a CloudID for {@code key}, creating its provider with {@code factory} on first use.
+   * A new CloudID is assumed valid for {@code ttlMillis}; waiting for one is bounded by
+   * {@code timeoutMillis}.
+   */
+  String getCloudId(String key, ProviderFactory factory, long ttlMillis, long timeoutMillis) throws Exception {
+    Entry e = entries.computeIfAbsent(key, k -> new Entry());
+    long now = clock.getAsLong();
+    CloudId current = e.cloudId;
+    if (current != null && now < current.expiresAtMillis) {
+      if (now >= current.refreshAtMillis) {
+        fetch(e, factory, ttlMillis).whenComplete((v, t) -> {
+          if (t != null) {
+            LOG.warn("Akeyless resolver: background CloudID refresh failed: " + t.getMessage());
+          }
+        });
+      }
+      return current.value;
+    }
+
+    CompletableFuture<String> f = fetch(e, factory, ttlMillis);
+    try {
+      return f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException te) {
+      throw new AkeylessCredentialResolverException("Timed out after " + timeoutMillis + " ms waiting for the CloudID");
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      throw ee;
+    }
+  }
+
+  // Starts a CloudID fetch for the entry unless one is already running
+  private CompletableFuture<String> fetch(Entry e, ProviderFactory factory, long ttlMillis) {
+    synchronized (e) {
+      if (e.pending != null) {
+        return e.pending;
+      }
+      CompletableFuture<String> f = new CompletableFuture<>();
+      e.pending = f;
+      executor.execute(() -> {
+        try {
+          CloudIdProvider provider = e.provider;
+          if (provider == null) {
+            provider = factory.create();
+            e.provider = provider;
+          }
+          String value = provider.getCloudId();
+          if (value == null || value.isEmpty()) {
+            throw new AkeylessCredentialResolverException("CloudID provider returned an empty CloudID");
+          }
+          long now = clock.getAsLong();
+          e.cloudId = new CloudId(value, now + ttlMillis * 8 / 10, now + ttlMillis);
+          complete(e, f, value, null);
+        } catch (Throwable t) {
+          complete(e, f, null, t);
+        }
+      });
+      return f;
+    }
+  }
+
+  private static void complete(Entry e, CompletableFuture<String> f, String value, Throwable error) {
+    synchronized (e) {
+      e.pending = null;
+    }
+    if (error != null) {
+      f.completeExceptionally(error);
+    } else {
+      f.complete(value);
+    }
+  }
+
+  /** Drops the cached CloudID for {@code key}, e.g. after the gateway rejected it. */
+  void invalidate(String key) {
+    Entry e = entries.get(key);
+    if (e != null) {
+      e.cloudId = null;
+    }
+  }
+
+  void clear() {
+    entries.clear();
+  }
+}
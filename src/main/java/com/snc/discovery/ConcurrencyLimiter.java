@@ -0,0 +1,126 @@
+package com.snc.discovery;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive (AIMD) limit on concurrent requests to one gateway.
+ *
+ * Each successful call made while the limit was at least half in use raises the limit by
+ * {@code 1/limit}, so about one slot per round of calls. A call that fails with a congestion
+ * signal (I/O error, 429, 502/503/504) or takes longer than the latency threshold cuts the limit
+ * by 10%. Callers over the limit wait in a bounded queue for at most the queue timeout, or are
+ * rejected at once in fail-fast mode.
+ */
+final class ConcurrencyLimiter {
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final ReentrantLock lock = new ReentrantLock(true);
+  private final Condition available = lock.newCondition();
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxQueue;
+  private final long queueTimeoutNanos;
+  private final long latencyThresholdNanos;
+  private final boolean failFast;
+  private final AtomicLong rejected = new AtomicLong();
+
+  // guarded by lock
+  private double limit;
+  private int inFlight;
+  private int queued;
+
+  ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeoutMillis,
+                     long latencyThresholdMillis, boolean failFast) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.maxQueue = Math.max(0, maxQueue);
+    this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+    this.failFast = failFast;
+  }
+
+  /** Takes a slot, waiting in the queue if needed; pair with {@link #release}. */
+  void acquire() throws AkeylessCredentialResolverException, InterruptedException {
+    lock.lock();
+    try {
+      if (inFlight < (int) limit) {
+        inFlight++;
+        return;
+      }
+      if (failFast || queued >= maxQueue) {
+        rejected.incrementAndGet();
+        throw new GatewayRejectedException("Gateway concurrency limit of " + (int) limit
+            + " reached" + (failFast ? "" : " and " + queued + " requests queued"));
+      }
+      queued++;
+      try {
+        long nanos = queueTimeoutNanos;
+        while (inFlight >= (int) limit) {
+          if (nanos <= 0) {
+            rejected.incrementAndGet();
+            throw new GatewayRejectedException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(queueTimeoutNanos)
+                + " ms waiting for a gateway request slot (limit " + (int) limit + ")");
+          }
+          nanos = available.awaitNanos(nanos);
+        }
+        inFlight++;
+      } finally {
+        queued--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Frees the slot and adjusts the limit from how the call went. */
+  void release(long latencyNanos, boolean congested) {
+    lock.lock();
+    try {
+      int before = inFlight;
+      inFlight--;
+      if (congested || (latencyThresholdNanos > 0 && latencyNanos > latencyThresholdNanos)) {
+        limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+      } else if (before * 2 >= limit) {
+        limit = Math.min(maxLimit, limit + 1.0 / limit);
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int limit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int inFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int queued() {
+    lock.lock();
+    try {
+      return queued;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long rejected() {
+    return rejected.get();
+  }
+}
@@ -5,16 +5,48 @@ import io.akeyless.cloudid.CloudIdProvider;
 import io.akeyless.cloudid.CloudProviderFactory;
 
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.File;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.w3c.dom.Document;
@@ -47,19 +79,59 @@ public class CredentialResolver {
   // -------- Testable HTTP transport seam --------
   interface HttpTransport {
     Map<String, Object> postJson(String url, Object payload) throws Exception;
+
+    /** Like {@link #postJson(String, Object)}, reading only what {@code reader} keeps; the default reads the whole response. */
+    default Map<String, Object> postJson(String url, Object payload, ResponseReader reader) throws Exception {
+      return postJson(url, payload);
+    }
   }
 
   private static class DefaultHttpTransport implements HttpTransport {
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long maxResponseBytes;
+
+    DefaultHttpTransport(int connectTimeoutMillis, int readTimeoutMillis, long maxResponseBytes) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      this.readTimeoutMillis = readTimeoutMillis;
+      this.maxResponseBytes = maxResponseBytes;
+    }
+
     @Override
     public Map<String, Object> postJson(String url, Object payload) throws Exception {
+      return postJson(url, payload, null);
+    }
+
+    @Override
+    public Map<String, Object> postJson(String url, Object payload, ResponseReader reader) throws Exception {
       byte[] body = payload == null ? new byte[0] : JSON_STD.asBytes(payload);
       HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+      Abort abort = ABORT.get();
+      if (abort != null && !abort.register(conn::disconnect)) {
+        throw new InterruptedIOException("Call to " + url + " was cancelled");
+      }
+      try {
+        return post(conn, url, body, reader);
+      } finally {
+        if (abort != null) abort.clear();
+      }
+    }
+
+    private Map<String, Object> post(HttpURLConnection conn, String url, byte[] body, ResponseReader reader) throws Exception {
       conn.setRequestMethod("POST");
       conn.setDoOutput(true);
-      conn.setConnectTimeout(15_000);
-      conn.setReadTimeout(30_000);
+      conn.setConnectTimeout(callTimeoutMillis(connectTimeoutMillis));
+      conn.setReadTimeout(callTimeoutMillis(readTimeoutMillis));
       conn.setRequestProperty("Content-Type", "application/json");
       conn.setRequestProperty("Accept", "application/json");
+      try {
+        conn.connect();
+      } catch (SocketTimeoutException e) {
+        // A timeout while connecting, TLS handshake included, means nothing was sent; a read timeout does not
+        ConnectException timeout = new ConnectException("Connect to " + url + " timed out: " + e.getMessage());
+        timeout.initCause(e);
+        throw timeout;
+      }
       if (body.length > 0) {
         try (OutputStream os = conn.getOutputStream()) {
           os.write(body);
@@ -67,69 +139,1272 @@ public class CredentialResolver {
       }
       int code = conn.getResponseCode();
       try (InputStream is = code >= 200 && code < 300 ? conn.getInputStream() : conn.getErrorStream()) {
-        if (is == null) {
-          throw new AkeylessCredentialResolverException("HTTP error: " + code + " with empty body from " + url);
-        }
-        Object resp = JSON_STD.anyFrom(is);
-        if (code < 200 || code >= 300) {
-          String bodyStr = JSON_STD.asString(Objects.requireNonNullElse(resp, ""));
-          throw new AkeylessCredentialResolverException("HTTP " + code + " from " + url + ": " + bodyStr);
-        }
-        if (!(resp instanceof Map)) {
-          throw new AkeylessCredentialResolverException("Unexpected response type from " + url + ": " + resp.getClass().getSimpleName());
-        }
-        @SuppressWarnings("unchecked")
-        Map<String, Object> map = (Map<String, Object>) resp;
-        return map;
+        return readJsonResponse(url, code, is, reader, maxResponseBytes);
       } finally {
         conn.disconnect();
       }
     }
   }
 
-  private static HttpTransport HTTP = new DefaultHttpTransport();
+  // Characters of an error response kept in the exception message
+  private static final int ERROR_BODY_CHARS = 2048;
+
+  static Map<String, Object> readJsonResponse(String url, int code, InputStream is) throws Exception {
+    return readJsonResponse(url, code, is, null, Long.MAX_VALUE);
+  }
+
+  // Shared by the transports: parses a JSON object response, streaming it through reader when given,
+  // or turns a non-2xx status into an exception
+  static Map<String, Object> readJsonResponse(String url, int code, InputStream is, ResponseReader reader, long maxBytes) throws Exception {
+    metrics().increment(ResolverMetrics.HTTP_STATUS_PREFIX + code);
+    if (is == null) {
+      throw new AkeylessCredentialResolverException("HTTP error: " + code + " with empty body from " + url, code);
+    }
+    InputStream in = ResponseReader.limit(is, maxBytes);
+    Object resp;
+    try {
+      if (code < 200 || code >= 300) {
+        throw new AkeylessCredentialResolverException("HTTP " + code + " from " + url + ": " + ResponseReader.text(in, ERROR_BODY_CHARS), code);
+      }
+      resp = reader != null ? reader.read(in) : JSON_STD.anyFrom(in);
+    } catch (ResponseReader.TooLargeException e) {
+      throw new AkeylessCredentialResolverException(e.getMessage() + " from " + url, code);
+    }
+    if (!(resp instanceof Map)) {
+      throw new AkeylessCredentialResolverException("Unexpected response type from " + url + ": "
+          + (resp == null ? "not a JSON object" : resp.getClass().getSimpleName()));
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Object> map = (Map<String, Object>) resp;
+    return map;
+  }
+
+  // null until first use, then built from ext.cred.akeyless.http.* (see newDefaultTransport)
+  private static volatile HttpTransport HTTP;
+
+  // Auth tokens shared by all resolver instances in the MID JVM
+  private static final AuthTokenCache TOKENS = new AuthTokenCache();
+
+  // CloudID providers and signed CloudIDs for the cloud access types
+  private static final CloudIdCache CLOUD_IDS = new CloudIdCache();
+
+  // Opt-in secret value cache, see ext.cred.akeyless.cache.*
+  private static final SecretCache SECRETS = new SecretCache(1000);
+
+  // Encrypted file behind SECRETS, opened and loaded by the first cache lookup with ext.cred.akeyless.cache.disk.enabled
+  private static volatile DiskSecretCache DISK;
+  private static volatile boolean diskOpened;
+
+  // Concurrency limiters per gateway URL, see ext.cred.akeyless.limiter.*
+  private static final ConcurrentHashMap<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+  // Latency and error rate per gateway URL, for choosing among several gateways
+  private static final GatewayStats GATEWAYS = new GatewayStats();
+
+  // Runs the calls of a hedged fetch, see ext.cred.akeyless.gateway.hedge.*. Bounded, so a slow gateway cannot
+  // grow a thread per in-flight resolve; when all threads are busy, fetches go unhedged on the caller's thread.
+  private static final int HEDGE_MAX_THREADS = 32;
+  private static final ThreadPoolExecutor HEDGER = newHedger();
+
+  private static ThreadPoolExecutor newHedger() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(HEDGE_MAX_THREADS, HEDGE_MAX_THREADS, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), r -> {
+          Thread t = new Thread(r, "akeyless-hedge");
+          t.setDaemon(true);
+          return t;
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  // Set on the thread of a hedged call: the transport registers how to close its open connection, so the losing
+  // call is stopped even while blocked in a socket read, which ignores interrupts
+  private static final ThreadLocal<Abort> ABORT = new ThreadLocal<>();
+
+  static final class Abort {
+    private Runnable action;
+    private boolean aborted;
+
+    /** Runs {@code action} on {@link #abort()}; returns false when the call was already aborted. */
+    synchronized boolean register(Runnable action) {
+      if (aborted) return false;
+      this.action = action;
+      return true;
+    }
+
+    synchronized void clear() {
+      action = null;
+    }
+
+    void abort() {
+      Runnable a;
+      synchronized (this) {
+        aborted = true;
+        a = action;
+        action = null;
+      }
+      if (a != null) a.run();
+    }
+  }
+
+  // Circuit breakers per gateway URL, see ext.cred.akeyless.breaker.*
+  private static final ConcurrentHashMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+  // System.nanoTime() by which the current thread's resolve must finish, see ext.cred.akeyless.retry.deadline_ms
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+  // A transport's connect or read timeout for one call, cut to what is left of the current thread's deadline;
+  // 0 (no timeout) becomes the time left. Never below 1 ms, since 0 would mean no timeout.
+  static int callTimeoutMillis(int configuredMillis) {
+    Long deadline = DEADLINE.get();
+    if (deadline == null) {
+      return configuredMillis;
+    }
+    long left = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    return (int) (configuredMillis > 0 ? Math.min(configuredMillis, left) : Math.min(Integer.MAX_VALUE, left));
+  }
+
+  // Background refreshes of stale cache entries, at most one per secret path
+  private static final ExecutorService CACHE_REFRESHER = Executors.newFixedThreadPool(2, r -> {
+    Thread t = new Thread(r, "akeyless-cache-refresh");
+    t.setDaemon(true);
+    return t;
+  });
+  private static final Set<String> REFRESHING = ConcurrentHashMap.newKeySet();
+
+  // Learns which credentials are used when; started by the first resolve with ext.cred.akeyless.prewarm.enabled
+  private static volatile PreWarmer PREWARMER;
+
+  // Versions of cached secrets; started by the first resolve with ext.cred.akeyless.cache.refresh.mode=version
+  private static volatile SecretVersions VERSIONS;
+
+  // Pages of one list-items answer followed at most, in case a gateway keeps returning a next page
+  private static final int LIST_ITEMS_MAX_PAGES = 1000;
+
+  // Which endpoints of which gateways only answer on their legacy (non-/v2) path
+  private static final GatewayApiVersions API_VERSIONS = new GatewayApiVersions();
+
+  // Compiled routing rules and the config snapshot they were last checked against; swapped whole when the rules change
+  private static final AtomicReference<Routes> ROUTES = new AtomicReference<>();
+
+  private static final class Routes {
+    final ResolverConfig cfg;
+    final String source;
+    final String text; // the rules text compiled, inline and from the file
+    final RoutingRules rules;
+
+    Routes(ResolverConfig cfg, String source, String text, RoutingRules rules) {
+      this.cfg = cfg;
+      this.source = source;
+      this.text = text;
+      this.rules = rules;
+    }
+  }
+
+  // Issued credentials of dynamic secrets, per access id and secret path
+  private static final DynamicSecretLeases LEASES = new DynamicSecretLeases();
+
+  // In-flight resolves keyed by secret path and credential type
+  private static final SingleFlight<String, Map<String, String>> IN_FLIGHT = new SingleFlight<>();
+
+  // Runs resolveAsync calls; null until first use, then built from ext.cred.akeyless.async.*
+  private static volatile Executor ASYNC;
+
+  // Audit events of resolve calls; null until the first resolve with ext.cred.akeyless.audit.enabled
+  private static volatile AuditLog AUDIT;
+
+  // Phase timings of the current thread's resolve while it is audited
+  private static final ThreadLocal<AuditLog.Trace> TRACE = new ThreadLocal<>();
+
+  // null until first use, then set by setMetrics or built from ext.cred.akeyless.metrics.*
+  private static volatile ResolverMetrics METRICS;
 
   static void setHttpTransport(HttpTransport transport) {
-    HTTP = transport != null ? transport : new DefaultHttpTransport();
+    replaceTransport(transport);
+    resetCaches();
   }
 
   static void resetHttpTransport() {
-    HTTP = new DefaultHttpTransport();
+    replaceTransport(null);
+    resetCaches();
+  }
+
+  private static synchronized void replaceTransport(HttpTransport transport) {
+    HttpTransport previous = HTTP;
+    HTTP = transport;
+    if (previous instanceof AutoCloseable && previous != transport) {
+      try {
+        ((AutoCloseable) previous).close();
+      } catch (Exception e) {
+        LOG.warn("Akeyless resolver: failed to close HTTP transport: " + e.getMessage());
+      }
+    }
+  }
+
+  private static HttpTransport transport() {
+    HttpTransport t = HTTP;
+    if (t == null) {
+      synchronized (CredentialResolver.class) {
+        if (HTTP == null) {
+          HTTP = newDefaultTransport();
+        }
+        t = HTTP;
+      }
+    }
+    return t;
+  }
+
+  // ext.cred.akeyless.http.transport selects the pooled java.net.http client or the per-request HttpURLConnection
+  private static HttpTransport newDefaultTransport() {
+    ResolverConfig cfg = ResolverConfig.current();
+    if ("httpclient".equalsIgnoreCase(cfg.httpTransport)) {
+      return new HttpClientTransport(cfg.httpConnectTimeoutMillis, cfg.httpReadTimeoutMillis, cfg.httpMaxConnections,
+          cfg.httpMaxResponseBytes);
+    }
+    if (!"urlconnection".equalsIgnoreCase(cfg.httpTransport)) {
+      LOG.warn("Akeyless resolver: unknown ext.cred.akeyless.http.transport '" + cfg.httpTransport + "', using urlconnection");
+    }
+    return new DefaultHttpTransport(cfg.httpConnectTimeoutMillis, cfg.httpReadTimeoutMillis, cfg.httpMaxResponseBytes);
+  }
+
+  // Cached state belongs to the transport it was obtained through
+  static void resetCaches() {
+    stopPreWarmer();
+    stopVersionChecks();
+    closeDiskCache();
+    ResolverConfig.invalidate();
+    TOKENS.clear();
+    CLOUD_IDS.clear();
+    SECRETS.clear();
+    API_VERSIONS.clear();
+    LIMITERS.clear();
+    BREAKERS.clear();
+    GATEWAYS.clear();
+    LEASES.clear();
+    ROUTES.set(null);
+    closeAsyncExecutor();
+    closeAuditLog();
+  }
+
+  /** Waits until no hedged call is running, for tests that must not see one finish later. */
+  static boolean awaitHedges(long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (HEDGER.getActiveCount() > 0) {
+      if (System.nanoTime() >= deadline) {
+        return false;
+      }
+      Thread.sleep(5);
+    }
+    return true;
+  }
+
+  /** Re-reads the MID properties on the next call instead of waiting for the refresh interval. */
+  static void reloadConfig() {
+    ResolverConfig.invalidate();
+  }
+
+  /**
+   * Sends resolver metrics to {@code metrics}, e.g. an adapter to the registry the MID host
+   * already reports to. Passing null goes back to the default chosen by
+   * {@code ext.cred.akeyless.metrics.enabled}.
+   */
+  public static synchronized void setMetrics(ResolverMetrics metrics) {
+    if (METRICS instanceof SimpleResolverMetrics) {
+      JmxMetricsExporter.unregister();
+    }
+    METRICS = null;
+    if (metrics != null) {
+      registerGauges(metrics);
+      METRICS = metrics;
+    }
+  }
+
+  static ResolverMetrics metrics() {
+    ResolverMetrics m = METRICS;
+    if (m == null) {
+      synchronized (CredentialResolver.class) {
+        if (METRICS == null) {
+          METRICS = newDefaultMetrics();
+        }
+        m = METRICS;
+      }
+    }
+    return m;
+  }
+
+  private static ResolverMetrics newDefaultMetrics() {
+    ResolverConfig cfg = ResolverConfig.current();
+    if (!cfg.metricsEnabled) {
+      return ResolverMetrics.NOOP;
+    }
+    SimpleResolverMetrics m = new SimpleResolverMetrics();
+    registerGauges(m);
+    if (cfg.metricsJmx) {
+      JmxMetricsExporter.register(m);
+    }
+    return m;
+  }
+
+  private static void registerGauges(ResolverMetrics m) {
+    m.gauge("cache.size", SECRETS::size);
+    m.gauge("cache.hits", SECRETS::hits);
+    m.gauge("cache.misses", SECRETS::misses);
+    m.gauge("cache.evictions", SECRETS::evictions);
+    m.gauge("cache.versions_tracked", () -> VERSIONS == null ? 0 : VERSIONS.size());
+    m.gauge("cache.off_heap.used_bytes", SECRETS::offHeapUsedBytes);
+    m.gauge("cache.off_heap.capacity_bytes", SECRETS::offHeapCapacityBytes);
+    m.gauge("coalesce.in_flight", IN_FLIGHT::inFlight);
+    m.gauge("dynamic.leases", LEASES::size);
+    m.gauge("audit.recorded", () -> AUDIT == null ? 0 : AUDIT.recorded());
+    m.gauge("audit.dropped", () -> AUDIT == null ? 0 : AUDIT.dropped());
+    m.gauge("audit.sampled_out", () -> AUDIT == null ? 0 : AUDIT.sampledOut());
+    m.gauge("audit.rate_limited", () -> AUDIT == null ? 0 : AUDIT.rateLimited());
+    m.gauge("http.pool.in_flight", () -> HTTP instanceof HttpClientTransport ? ((HttpClientTransport) HTTP).inFlight() : 0);
+    m.gauge("http.pool.queued", () -> HTTP instanceof HttpClientTransport ? ((HttpClientTransport) HTTP).queued() : 0);
+    LIMITERS.forEach((gw, l) -> registerLimiterGauges(m, gw, l));
+    BREAKERS.forEach((gw, b) -> m.gauge("breaker." + gw + ".state", b::state));
+    GATEWAYS.gateways().forEach(gw -> registerGatewayGauges(m, gw));
+  }
+
+  /** Hit, miss and eviction counters of the secret value cache, for sizing ext.cred.akeyless.cache.max_entries. */
+  public static Map<String, Long> getSecretCacheStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("size", (long) SECRETS.size());
+    stats.put("hits", SECRETS.hits());
+    stats.put("stale_hits", SECRETS.staleHits());
+    stats.put("misses", SECRETS.misses());
+    stats.put("evictions", SECRETS.evictions());
+    stats.put("expirations", SECRETS.expirations());
+    stats.put("too_large", SECRETS.tooLarge());
+    stats.put("off_heap_used_bytes", SECRETS.offHeapUsedBytes());
+    return stats;
+  }
+
+  private PreWarmer preWarmer(ResolverConfig cfg) {
+    PreWarmer p = PREWARMER;
+    if (p == null) {
+      synchronized (CredentialResolver.class) {
+        if (PREWARMER == null) {
+          p = new PreWarmer(cfg.prewarmMaxEntries, cfg.prewarmLeadMillis,
+              cfg.prewarmFile.isEmpty() ? null : new File(cfg.prewarmFile), System::currentTimeMillis);
+          p.start(cfg.prewarmIntervalMillis, paths -> prefetch(ResolverConfig.current(), paths));
+          PREWARMER = p;
+        }
+        p = PREWARMER;
+      }
+    }
+    return p;
+  }
+
+  private static synchronized void stopPreWarmer() {
+    PreWarmer p = PREWARMER;
+    PREWARMER = null;
+    if (p != null) {
+      p.stop();
+      p.save();
+    }
+  }
+
+  private SecretVersions versions(ResolverConfig cfg) {
+    SecretVersions v = VERSIONS;
+    if (v == null) {
+      synchronized (CredentialResolver.class) {
+        if (VERSIONS == null) {
+          v = new SecretVersions(cfg.versionRefreshMinTtlMillis, cfg.versionRefreshMaxTtlMillis, System::currentTimeMillis);
+          v.start(cfg.versionRefreshIntervalMillis, paths -> checkVersions(ResolverConfig.current(), paths));
+          VERSIONS = v;
+        }
+        v = VERSIONS;
+      }
+    }
+    return v;
+  }
+
+  private static synchronized void stopVersionChecks() {
+    SecretVersions v = VERSIONS;
+    VERSIONS = null;
+    if (v != null) {
+      v.stop();
+    }
+  }
+
+  private static SecretCache secretCache(ResolverConfig cfg) {
+    if (!cfg.cacheEnabled) {
+      return null;
+    }
+    SECRETS.setMaxEntries(cfg.cacheMaxEntries);
+    SECRETS.setOffHeapBytes(cfg.cacheOffHeapBytes);
+    if (cfg.diskCacheEnabled && !diskOpened) {
+      openDiskCache(cfg);
+    }
+    return SECRETS;
+  }
+
+  // Restores the entries persisted by an earlier MID process, with their original expiry times
+  private static synchronized void openDiskCache(ResolverConfig cfg) {
+    if (diskOpened) return;
+    diskOpened = true;
+    char[] secret = null;
+    try {
+      secret = diskCacheSecret(cfg);
+      DiskSecretCache disk = DiskSecretCache.open(new File(cfg.diskCacheFile), secret, diskCacheContext(cfg),
+          cfg.diskCacheMaxBytes, System::currentTimeMillis);
+      disk.load(SECRETS::putUntil);
+      DISK = disk;
+      LOG.info("Akeyless resolver: restored " + SECRETS.size() + " cached secrets from " + cfg.diskCacheFile);
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: disk cache " + cfg.diskCacheFile + " unavailable: " + e.getMessage());
+    } finally {
+      if (secret != null) Arrays.fill(secret, '\0');
+    }
+  }
+
+  // ext.cred.akeyless.cache.disk.key, else the Akeyless access key, else a key file created next to the cache
+  private static char[] diskCacheSecret(ResolverConfig cfg) throws Exception {
+    if (!cfg.diskCacheKey.isEmpty()) {
+      return cfg.diskCacheKey.toCharArray();
+    }
+    if (cfg.accessKey != null && !cfg.accessKey.isEmpty()) {
+      return (cfg.accessId + ':' + cfg.accessKey).toCharArray();
+    }
+    return DiskSecretCache.localKey(new File(cfg.diskCacheFile + ".key"));
+  }
+
+  // Values are only restored for the access id and gateways they were fetched with
+  private static String diskCacheContext(ResolverConfig cfg) {
+    List<String> gateways = new ArrayList<>(cfg.gwUrls);
+    Collections.sort(gateways);
+    return cfg.accessType + '\n' + cfg.accessId + '\n' + String.join("\n", gateways);
+  }
+
+  private static synchronized void closeDiskCache() {
+    DiskSecretCache disk = DISK;
+    DISK = null;
+    diskOpened = false;
+    if (disk != null) {
+      disk.close();
+    }
+  }
+
+  /**
+   * Resolves a credential like {@link #resolve(Map)}, on a virtual thread when the JVM has them
+   * (Java 21+) and otherwise on a bounded pool, see {@code ext.cred.akeyless.async.*}. The future
+   * fails with the exception resolve() would have thrown.
+   */
+  public CompletableFuture<Map<String, String>> resolveAsync(Map<String, String> args) {
+    return resolveOn(asyncExecutor(), args);
   }
 
   public Map<String, String> resolve(Map<String, String> args) throws Exception {
-    LOG.info("Akeyless resolver: resolving secret for args " + args);
-    
+    // The direct executor runs the resolve on this thread, so the future is complete on return
+    CompletableFuture<Map<String, String>> result = resolveOn(Runnable::run, args);
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  private CompletableFuture<Map<String, String>> resolveOn(Executor executor, Map<String, String> args) {
+    CompletableFuture<Map<String, String>> result = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          result.complete(timedResolve(args));
+        } catch (Throwable t) {
+          result.completeExceptionally(t);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      metrics().increment(ResolverMetrics.RESOLVE_ERRORS);
+      result.completeExceptionally(new AkeylessCredentialResolverException(
+          "Too many asynchronous resolves queued (ext.cred.akeyless.async.max_queue)"));
+    }
+    return result;
+  }
+
+  private Map<String, String> timedResolve(Map<String, String> args) throws Exception {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Akeyless resolver: resolving secret '" + args.get(ARG_ID) + "' of type " + args.get(ARG_TYPE)
+          + " for MID " + args.get(ARG_MID));
+    }
+    final ResolverMetrics metrics = metrics();
+    final AuditLog audit = auditLog(ResolverConfig.current());
+    final AuditLog.Trace trace = audit == null ? null : new AuditLog.Trace(args.get(ARG_ID), args.get(ARG_TYPE), args.get(ARG_MID));
+    final long start = System.nanoTime();
+    startDeadline(start);
+    TRACE.set(trace);
+    Throwable failure = null;
+    try {
+      return doResolve(args);
+    } catch (Exception e) {
+      failure = e;
+      metrics.increment(ResolverMetrics.RESOLVE_ERRORS);
+      throw e;
+    } finally {
+      DEADLINE.remove();
+      TRACE.remove();
+      metrics.recordLatency(ResolverMetrics.PHASE_RESOLVE, System.nanoTime() - start);
+      if (trace != null) {
+        audit.record(trace, failure);
+      }
+    }
+  }
+
+  private static AuditLog auditLog(ResolverConfig cfg) {
+    if (!cfg.auditEnabled) {
+      return null;
+    }
+    AuditLog a = AUDIT;
+    if (a == null) {
+      synchronized (CredentialResolver.class) {
+        if (AUDIT == null) {
+          AuditLog created = new AuditLog(cfg.auditBufferSize, cfg.auditSamplePercent, cfg.auditMaxPerSecond);
+          created.start(cfg.auditFlushMillis);
+          AUDIT = created;
+        }
+        a = AUDIT;
+      }
+    }
+    a.configure(cfg.auditSamplePercent, cfg.auditMaxPerSecond);
+    return a;
+  }
+
+  // Events already recorded are still written; the next audited resolve starts a new log
+  private static synchronized void closeAuditLog() {
+    AuditLog a = AUDIT;
+    AUDIT = null;
+    if (a != null) {
+      a.close();
+    }
+  }
+
+  // Records a phase in the metrics and in the audit trace of the current resolve, if any
+  private static void recordPhase(String phase, long nanos) {
+    metrics().recordLatency(phase, nanos);
+    AuditLog.Trace trace = TRACE.get();
+    if (trace != null) {
+      trace.add(phase, nanos);
+    }
+  }
+
+  private static Executor asyncExecutor() {
+    Executor e = ASYNC;
+    if (e == null) {
+      synchronized (CredentialResolver.class) {
+        if (ASYNC == null) {
+          ASYNC = newAsyncExecutor(ResolverConfig.current());
+        }
+        e = ASYNC;
+      }
+    }
+    return e;
+  }
+
+  // Queued and running resolves finish; later ones get a new executor built from the current config
+  private static synchronized void closeAsyncExecutor() {
+    Executor e = ASYNC;
+    ASYNC = null;
+    if (e instanceof ExecutorService) {
+      ((ExecutorService) e).shutdown();
+    }
+  }
+
+  // A virtual thread per resolve on Java 21+, looked up reflectively since the resolver is built for Java 17
+  private static Executor newAsyncExecutor(ResolverConfig cfg) {
+    if (cfg.asyncVirtualThreads) {
+      try {
+        return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        LOG.debug("Akeyless resolver: virtual threads not available, using a pool of " + cfg.asyncMaxThreads + " threads");
+      }
+    }
+    AtomicInteger threadId = new AtomicInteger();
+    int threads = Math.max(1, cfg.asyncMaxThreads);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(Math.max(1, cfg.asyncMaxQueue)), r -> {
+          Thread t = new Thread(r, "akeyless-async-" + threadId.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  // Retries of all gateway calls made for one resolve share its deadline
+  private static void startDeadline(long startNanos) {
+    long deadlineMillis = ResolverConfig.current().retryDeadlineMillis;
+    if (deadlineMillis > 0) {
+      DEADLINE.set(startNanos + TimeUnit.MILLISECONDS.toNanos(deadlineMillis));
+    }
+  }
+
+  private Map<String, String> doResolve(Map<String, String> args) throws Exception {
     // --- 1) Inputs from SN
     final String snType = must(args.get(ARG_TYPE), "Missing arg 'type'");
-    final String secretPath = must(args.get(ARG_ID), "Missing arg 'id' (use your Akeyless secret path)");
+    final String id = must(args.get(ARG_ID), "Missing arg 'id' (use your Akeyless secret path)");
 
-    // --- 2) MID properties (all set from the ServiceNow UI)
-    // Optional mapping overrides
-    final String fUser = getMidProp("ext.cred.akeyless.map.username", "username");
-    final String fPass = getMidProp("ext.cred.akeyless.map.password", "password");
-    final String fPk   = getMidProp("ext.cred.akeyless.map.private_key", "private_key");
-    final String fPhr  = getMidProp("ext.cred.akeyless.map.passphrase", "passphrase");
+    // --- 2) MID properties (all set from the ServiceNow UI), read from the current snapshot
+    final ResolverConfig cfg = ResolverConfig.current();
 
-  
+    // --- 3) Secret path for this target, from the routing rules
+    final String secretPath = routedPath(cfg, args, snType, id);
+    AuditLog.Trace trace = TRACE.get();
+    if (trace != null) {
+      trace.path = secretPath;
+    }
+    final boolean dynamic = cfg.isDynamic(secretPath);
+    if (cfg.prewarmEnabled && !dynamic) {
+      preWarmer(cfg).record(secretPath, snType);
+    }
+    if (cfg.versionRefreshEnabled && !dynamic) {
+      versions(cfg);
+    }
+
+    // --- 4) Fetch value and 5) map to SN credential fields.
+    // Concurrent lookups of the same path and type share one in-flight fetch.
+    final SingleFlight.Call<Map<String,String>> fetchAndMap = () -> {
+      SecretValue value = dynamic
+          ? dynamicSecretValue(cfg, secretPath)
+          : getSecretValue(cfg, secretPath); // String or JSON (for structured secrets)
+      try {
+        return map(cfg, secretPath, snType, value);
+      } finally {
+        value.wipe();
+      }
+    };
+    Map<String,String> out = cfg.coalesceEnabled
+        ? new HashMap<>(IN_FLIGHT.execute(secretPath + '\0' + snType, fetchAndMap))
+        : fetchAndMap.call();
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Akeyless resolver: resolved secret for path '" + secretPath + "' -> fields " + out.keySet());
+    }
+    return out;
+  }
+  /**
+   * Resolves many credentials in a few gateway round-trips, e.g. to pre-warm the cache before a
+   * Discovery schedule. Secret paths not already cached are fetched together, up to
+   * {@code ext.cred.akeyless.batch.max_names} names per get-secret-value call, and each result is
+   * mapped like {@link #resolve(Map)} does. The returned list is aligned with {@code argsList};
+   * an entry is null when its secret was not found.
+   */
+  public List<Map<String, String>> resolveAll(List<Map<String, String>> argsList) throws Exception {
+    startDeadline(System.nanoTime());
+    try {
+      return doResolveAll(argsList);
+    } finally {
+      DEADLINE.remove();
+    }
+  }
+
+  private List<Map<String, String>> doResolveAll(List<Map<String, String>> argsList) throws Exception {
+    final ResolverConfig cfg = ResolverConfig.current();
+
+    // All requests share the MID's gateway and Akeyless identity, so they form a single batch group
+    Map<String, SecretValue> values = new HashMap<>();
+    Map<String, SecretValue> stale = new HashMap<>();
+    Set<String> pending = new LinkedHashSet<>();
+    List<String> secretPaths = new ArrayList<>(argsList.size());
+    SecretCache cache = secretCache(cfg);
+    if (cfg.versionRefreshEnabled) {
+      versions(cfg);
+    }
+    // Every value read or fetched here is wiped on the way out; the caller only gets mapped fields
+    List<Map<String, String>> out;
+    try {
+      for (Map<String, String> args : argsList) {
+        String snType = must(args.get(ARG_TYPE), "Missing arg 'type'");
+        String id = must(args.get(ARG_ID), "Missing arg 'id' (use your Akeyless secret path)");
+        String secretPath = routedPath(cfg, args, snType, id);
+        secretPaths.add(secretPath);
+        if (values.containsKey(secretPath) || pending.contains(secretPath)) continue;
+        if (cfg.isDynamic(secretPath)) {
+          values.put(secretPath, dynamicSecretValue(cfg, secretPath));
+          continue;
+        }
+        SecretCache.Hit hit = cache != null ? cache.get(secretPath) : null;
+        if (hit == null) {
+          pending.add(secretPath);
+        } else if (hit.isStale()) {
+          // Refreshed with the batch; the stale value is the fallback if the gateway fails
+          stale.put(secretPath, hit.value());
+          pending.add(secretPath);
+        } else {
+          values.put(secretPath, hit.value());
+        }
+      }
 
-    // --- 4) Fetch value
-    String raw = getSecretValue(secretPath); // String or JSON (for dynamic/structured secrets)
+      List<String> paths = new ArrayList<>(pending);
+      for (int i = 0; i < paths.size(); i += cfg.batchMaxNames) {
+        List<String> chunk = paths.subList(i, Math.min(paths.size(), i + cfg.batchMaxNames));
+        Map<String, SecretValue> fetched;
+        try {
+          fetched = fetchSecretValues(cfg, chunk);
+        } catch (Exception e) {
+          if (!stale.keySet().containsAll(chunk)) {
+            throw e;
+          }
+          LOG.warn("Akeyless resolver: serving " + chunk.size() + " stale cached values, gateway failed: " + e.getMessage());
+          for (String secretPath : chunk) {
+            values.put(secretPath, stale.remove(secretPath));
+            metrics().increment(ResolverMetrics.CACHE_STALE_SERVED);
+          }
+          continue;
+        }
+        for (String secretPath : chunk) {
+          values.put(secretPath, fetched.get(secretPath));
+        }
+        if (cache != null) {
+          for (String secretPath : chunk) {
+            cacheFetched(cfg, cache, secretPath, values.get(secretPath));
+          }
+        }
+      }
 
-    // --- 5) Map to SN credential fields
-    Map<String,String> out = mapToServiceNow(snType, raw, fUser, fPass, fPk, fPhr);
+      out = new ArrayList<>(argsList.size());
+      for (int i = 0; i < argsList.size(); i++) {
+        SecretValue value = values.get(secretPaths.get(i));
+        out.add(value == null ? null : map(cfg, secretPaths.get(i), argsList.get(i).get(ARG_TYPE), value));
+      }
+    } finally {
+      for (SecretValue value : values.values()) {
+        if (value != null) value.wipe();
+      }
+      for (SecretValue value : stale.values()) {
+        value.wipe();
+      }
+    }
+    LOG.info("Akeyless resolver: resolved " + argsList.size() + " credentials with " + pending.size() + " paths fetched");
+    return out;
+  }
+
+  // The path the routing rules choose for the target, or the credential id itself
+  private static String routedPath(ResolverConfig cfg, Map<String, String> args, String snType, String id) {
+    RoutingRules rules = routes(cfg);
+    if (rules.size() == 0) {
+      return id;
+    }
+    String path = rules.route(id, snType, args.get(ARG_IP), args.get(ARG_MID));
+    if (path == null) {
+      return id;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Akeyless resolver: routed '" + id + "' for " + args.get(ARG_IP) + " to '" + path + "'");
+    }
+    return path;
+  }
+
+  // Recompiled only when the rules text or the rules file changed since the last config snapshot
+  private static RoutingRules routes(ResolverConfig cfg) {
+    Routes current = ROUTES.get();
+    if (current != null && current.cfg == cfg) {
+      return current.rules;
+    }
+    File file = cfg.routingFile.isEmpty() ? null : new File(cfg.routingFile);
+    String source = cfg.routingRules + '\0' + cfg.routingFile
+        + (file != null ? "\0" + file.lastModified() + '\0' + file.length() : "");
+    Routes next;
+    if (current != null && current.source.equals(source)) {
+      next = new Routes(cfg, source, current.text, current.rules);
+    } else {
+      next = compileRoutes(cfg, file, source, current);
+    }
+    ROUTES.compareAndSet(current, next);
+    return next.rules;
+  }
+
+  // An invalid rule set leaves the previous one in place; an unchanged one is not compiled again
+  private static Routes compileRoutes(ResolverConfig cfg, File file, String source, Routes previous) {
+    String previousText = previous == null ? "" : previous.text;
+    RoutingRules previousRules = previous == null ? RoutingRules.NONE : previous.rules;
+    if (file == null && cfg.routingRules.trim().isEmpty()) {
+      if (previousRules.size() > 0) {
+        LOG.info("Akeyless resolver: routing rules removed");
+      }
+      return new Routes(cfg, source, "", RoutingRules.NONE);
+    }
+    try {
+      String text = cfg.routingRules;
+      if (file != null) {
+        text += '\n' + new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      }
+      if (text.equals(previousText)) {
+        return new Routes(cfg, source, text, previousRules);
+      }
+      RoutingRules rules = RoutingRules.compile(text);
+      LOG.info("Akeyless resolver: loaded " + rules.size() + " routing rules");
+      return new Routes(cfg, source, text, rules);
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: keeping the previous " + previousRules.size() + " routing rules: " + e.getMessage());
+      return new Routes(cfg, source, previousText, previousRules);
+    }
+  }
 
-    LOG.info("Akeyless resolver: resolved secret for path '" + secretPath + "' -> fields " + out.keySet());
+  private static Map<String, String> map(ResolverConfig cfg, String secretPath, String snType, SecretValue value) {
+    long start = System.nanoTime();
+    MappingPlan.Cache plans = cfg.isDynamic(secretPath) ? cfg.dynamicMappingPlans : cfg.mappingPlans;
+    Map<String, String> out = plans.forType(snType).apply(value);
+    recordPhase(ResolverMetrics.PHASE_MAPPING, System.nanoTime() - start);
     return out;
   }
-  private String getSecretValue(String secretPath) throws Exception {
-    String gwUrl = getMidProp("ext.cred.akeyless.gw_url", envOr("AKEYLESS_GW_URL", "https://api.akeyless.io"));
-    String accessType = getMidProp("ext.cred.akeyless.access_type", envOr("AKEYLESS_ACCESS_TYPE", "access_key"));
-    String accessId = must(getMidProp("ext.cred.akeyless.access_id", envOr("AKEYLESS_ACCESS_ID", null)),
+
+  // Fetches secretPaths into the secret cache in batches, whether or not they are cached already
+  void prefetch(ResolverConfig cfg, List<String> secretPaths) throws Exception {
+    SecretCache cache = secretCache(cfg);
+    if (cache == null) {
+      return;
+    }
+    for (int i = 0; i < secretPaths.size(); i += cfg.batchMaxNames) {
+      List<String> chunk = secretPaths.subList(i, Math.min(secretPaths.size(), i + cfg.batchMaxNames));
+      Map<String, SecretValue> fetched = fetchSecretValues(cfg, chunk);
+      for (String secretPath : chunk) {
+        SecretValue v = fetched.get(secretPath);
+        cacheFetched(cfg, cache, secretPath, v);
+        if (v != null) v.wipe();
+      }
+    }
+  }
+
+  private SecretValue getSecretValue(ResolverConfig cfg, String secretPath) throws Exception {
+    SecretCache cache = secretCache(cfg);
+    if (cache == null) {
+      return valueOrNotFound(secretPath, fetchSecretValue(cfg, secretPath));
+    }
+    SecretCache.Hit hit = cache.get(secretPath);
+    if (hit != null) {
+      if (hit.isStale()) {
+        // Past the soft TTL: answer now and let a background task refresh the entry
+        metrics().increment(ResolverMetrics.CACHE_STALE_SERVED);
+        refreshInBackground(cfg, cache, secretPath);
+      }
+      return valueOrNotFound(secretPath, hit.value());
+    }
+    SecretValue v = fetchSecretValue(cfg, secretPath);
+    cacheFetched(cfg, cache, secretPath, v);
+    return valueOrNotFound(secretPath, v);
+  }
+
+  private void refreshInBackground(ResolverConfig cfg, SecretCache cache, String secretPath) {
+    if (!REFRESHING.add(secretPath)) {
+      return;
+    }
+    try {
+      CACHE_REFRESHER.execute(() -> {
+        try {
+          SecretValue v = fetchSecretValue(cfg, secretPath);
+          cacheFetched(cfg, cache, secretPath, v);
+          if (v != null) v.wipe();
+        } catch (Exception e) {
+          // The stale value keeps being served until its hard TTL
+          metrics().increment(ResolverMetrics.CACHE_REFRESH_ERRORS);
+          LOG.warn("Akeyless resolver: background refresh of '" + secretPath + "' failed: " + e.getMessage());
+        } finally {
+          REFRESHING.remove(secretPath);
+        }
+      });
+    } catch (RuntimeException e) {
+      REFRESHING.remove(secretPath);
+      throw e;
+    }
+  }
+
+  private static void cacheFetched(ResolverConfig cfg, SecretCache cache, String secretPath, SecretValue value) {
+    SecretVersions versions = cfg.versionRefreshEnabled ? VERSIONS : null;
+    if (value == null) {
+      cache.putNotFound(secretPath, cfg.cacheNegativeTtlMillis);
+      if (versions != null) versions.forget(secretPath);
+      DiskSecretCache disk = DISK;
+      if (disk != null) {
+        disk.remove(secretPath);
+      }
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long ttl = versions != null ? versions.fetched(secretPath, cfg.cacheTtlMillis) : cfg.cacheTtlMillis;
+    long staleAt = now + ttl;
+    long expiresAt = staleAt + cfg.cacheStaleTtlMillis;
+    cache.putUntil(secretPath, value, staleAt, expiresAt);
+    DiskSecretCache disk = DISK;
+    if (disk != null) {
+      disk.append(secretPath, value, staleAt, expiresAt);
+    }
+  }
+
+  // Lists the metadata of due paths with one list-items call per folder. Entries whose version did not
+  // move are kept for their adapted TTL; only the changed ones are fetched again, in batches.
+  void checkVersions(ResolverConfig cfg, List<String> secretPaths) throws Exception {
+    SecretCache cache = secretCache(cfg);
+    SecretVersions versions = VERSIONS;
+    if (cache == null || versions == null || !cfg.versionRefreshEnabled) {
+      return;
+    }
+    Map<String, List<String>> byFolder = new LinkedHashMap<>();
+    for (String secretPath : secretPaths) {
+      byFolder.computeIfAbsent(folderOf(secretPath), f -> new ArrayList<>()).add(secretPath);
+    }
+    List<String> changed = new ArrayList<>();
+    for (Map.Entry<String, List<String>> folder : byFolder.entrySet()) {
+      Map<String, Map<?, ?>> listed;
+      try {
+        listed = listItems(cfg, folder.getKey());
+      } catch (Exception e) {
+        metrics().increment(ResolverMetrics.CACHE_REFRESH_ERRORS);
+        if (!isUnexpected(e)) {
+          // Listing is not allowed here: these paths go back to plain TTL refresh
+          for (String secretPath : folder.getValue()) versions.forget(secretPath);
+        }
+        LOG.warn("Akeyless resolver: listing versions in '" + folder.getKey() + "' failed: " + e.getMessage());
+        continue;
+      }
+      long now = System.currentTimeMillis();
+      for (String secretPath : folder.getValue()) {
+        Map<?, ?> item = listed.get(secretPath);
+        if (item == null) {
+          versions.forget(secretPath);
+          continue;
+        }
+        metrics().increment(ResolverMetrics.VERSION_CHECKED);
+        Object version = item.get("last_version");
+        long modified = SecretVersions.parseTime(item.get("modification_date"));
+        if (versions.isChanged(secretPath, version instanceof Number ? ((Number) version).longValue() : 0L, modified)) {
+          changed.add(secretPath);
+          continue;
+        }
+        long staleAt = now + versions.ttlMillis(secretPath);
+        if (!cache.extend(secretPath, staleAt, staleAt + cfg.cacheStaleTtlMillis)) {
+          versions.forget(secretPath);
+        }
+      }
+    }
+    for (int i = 0; i < changed.size(); i++) {
+      metrics().increment(ResolverMetrics.VERSION_CHANGED);
+    }
+    prefetch(cfg, changed);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Akeyless resolver: checked " + secretPaths.size() + " secret versions, fetched " + changed.size() + " changed values");
+    }
+  }
+
+  private static String folderOf(String secretPath) {
+    int slash = secretPath.lastIndexOf('/');
+    return slash <= 0 ? "/" : secretPath.substring(0, slash);
+  }
+
+  // Items of a folder by name, with their metadata; values are never part of a list-items answer
+  private Map<String, Map<?, ?>> listItems(ResolverConfig cfg, String folder) throws Exception {
+    final String accessId = must(cfg.accessId,
             "Missing Akeyless access id: set MID 'ext.cred.akeyless.access_id' or env 'AKEYLESS_ACCESS_ID'");
-    String accessKey = getMidProp("ext.cred.akeyless.access_key", envOr("AKEYLESS_ACCESS_KEY", null));
+    return withFailover(cfg, CredentialResolver::isFailover, gwUrl -> listItemsFrom(cfg, gwUrl, accessId, folder));
+  }
 
-    // --- Auth
+  private Map<String, Map<?, ?>> listItemsFrom(ResolverConfig cfg, String gwUrl, String accessId, String folder) throws Exception {
+    Map<String, Map<?, ?>> out = new HashMap<>();
+    String page = null;
+    for (int pages = 0; pages < LIST_ITEMS_MAX_PAGES; pages++) {
+      Map<String, Object> req = new HashMap<>();
+      req.put("path", folder);
+      req.put("json", true);
+      if (page != null) {
+        req.put("pagination-token", page);
+      }
+      Map<String, Object> resp = withToken(cfg, gwUrl, accessId, token -> {
+        req.put("token", token);
+        return postVersioned(cfg, gwUrl, "/list-items", req, ResolverMetrics.FALLBACK_LIST_ITEMS, null);
+      });
+      Object items = resp.get("items");
+      if (items instanceof List) {
+        for (Object item : (List<?>) items) {
+          Object name = item instanceof Map ? ((Map<?, ?>) item).get("item_name") : null;
+          if (name != null) out.put(name.toString(), (Map<?, ?>) item);
+        }
+      }
+      page = asString(resp.get("next_page"));
+      if (page == null || page.isEmpty()) {
+        break;
+      }
+    }
+    return out;
+  }
+
+  private static SecretValue valueOrNotFound(String secretPath, SecretValue value) throws AkeylessCredentialResolverException {
+    if (value == null) {
+      throw new AkeylessCredentialResolverException("Secret value not found for name: " + secretPath);
+    }
+    return value;
+  }
+
+  // The lease decides how long an issued credential is reused, so dynamic secrets skip the secret cache
+  private SecretValue dynamicSecretValue(ResolverConfig cfg, String secretPath) throws Exception {
+    final String accessId = must(cfg.accessId,
+            "Missing Akeyless access id: set MID 'ext.cred.akeyless.access_id' or env 'AKEYLESS_ACCESS_ID'");
+    return LEASES.get(DynamicSecretLeases.key(accessId, secretPath), cfg.dynamicDefaultLeaseMillis,
+        cfg.dynamicMinRemainingMillis, () -> issueDynamicSecret(cfg, accessId, secretPath));
+  }
+
+  // Every call creates a temporary account on the target, so the call is never hedged, and it is retried
+  // or sent to another gateway only when it provably did not reach the gateway
+  private SecretValue issueDynamicSecret(ResolverConfig cfg, String accessId, String secretPath) throws Exception {
+    SecretValue value = withFailover(cfg, CredentialResolver::isNeverSent,
+        gwUrl -> issueDynamicSecretFrom(cfg, gwUrl, accessId, secretPath));
+    metrics().increment(ResolverMetrics.DYNAMIC_LEASES_ISSUED);
+    LOG.info("Akeyless resolver: issued dynamic secret for path '" + secretPath + "'");
+    return value;
+  }
+
+  private interface GatewayCall<T> {
+    T call(String gwUrl) throws Exception;
+  }
+
+  // Runs call on the fastest healthy gateway, then on the others in turn while failures allow failover
+  private static <T> T withFailover(ResolverConfig cfg, Predicate<Exception> failover, GatewayCall<T> call) throws Exception {
+    List<String> gateways = GATEWAYS.rank(cfg.gwUrls, CredentialResolver::isBreakerOpen);
+    Exception failure = null;
+    for (int i = 0; i < gateways.size(); i++) {
+      String gwUrl = gateways.get(i);
+      try {
+        return call.call(gwUrl);
+      } catch (Exception e) {
+        if (!failover.test(e)) {
+          throw e;
+        }
+        failure = e;
+      }
+      if (i + 1 < gateways.size()) {
+        metrics().increment(ResolverMetrics.GATEWAY_FAILOVER);
+        LOG.warn("Akeyless resolver: gateway " + gwUrl + " failed, trying " + gateways.get(i + 1) + ": " + failure.getMessage());
+      }
+    }
+    throw failure;
+  }
+
+  private SecretValue issueDynamicSecretFrom(ResolverConfig cfg, String gwUrl, String accessId, String secretPath) throws Exception {
+    Map<String, Object> req = new HashMap<>();
+    req.put("name", secretPath);
+    req.put("json", true);
+    Map<String, Object> resp = withToken(cfg, gwUrl, accessId, token -> {
+      req.put("token", token);
+      return postGetDynamicSecretValue(cfg, gwUrl, req);
+    });
+    Object value = resp.get("value") instanceof SecretValue ? resp.get("value") : resp;
+    SecretValue v = SecretValue.fromGateway(value);
+    if (v.isEmpty()) {
+      throw new AkeylessCredentialResolverException("Dynamic secret value is empty for name: " + secretPath);
+    }
+    return v;
+  }
+
+  // Returns the secret value, or null when the gateway has none
+  private SecretValue fetchSecretValue(ResolverConfig cfg, String secretPath) throws Exception {
+    return fetchSecretValues(cfg, Collections.singletonList(secretPath)).get(secretPath);
+  }
+
+  // Fetches several secret paths with one get-secret-value call; paths the gateway has no value for are absent.
+  // With several gateways, the fastest healthy one is used first and the others in turn if it fails.
+  private Map<String, SecretValue> fetchSecretValues(ResolverConfig cfg, List<String> secretPaths) throws Exception {
+    final String accessId = must(cfg.accessId,
+            "Missing Akeyless access id: set MID 'ext.cred.akeyless.access_id' or env 'AKEYLESS_ACCESS_ID'");
+    if (cfg.gwUrls.size() == 1) {
+      return fetchFrom(cfg, cfg.gwUrl, accessId, secretPaths);
+    }
+    List<String> gateways = GATEWAYS.rank(cfg.gwUrls, CredentialResolver::isBreakerOpen);
+    Exception failure = null;
+    for (int i = 0; i < gateways.size(); ) {
+      String gwUrl = gateways.get(i);
+      long hedgeDelay = cfg.hedgeEnabled && i + 1 < gateways.size() ? hedgeDelayNanos(cfg, gwUrl) : -1;
+      try {
+        return hedgeDelay < 0
+            ? fetchFrom(cfg, gwUrl, accessId, secretPaths)
+            : fetchHedged(cfg, gwUrl, gateways.get(i + 1), hedgeDelay, accessId, secretPaths);
+      } catch (Exception e) {
+        if (!isFailover(e)) {
+          throw e;
+        }
+        failure = e;
+      }
+      i += hedgeDelay < 0 ? 1 : 2;
+      if (i < gateways.size()) {
+        metrics().increment(ResolverMetrics.GATEWAY_FAILOVER);
+        LOG.warn("Akeyless resolver: gateway " + gwUrl + " failed, trying " + gateways.get(i) + ": " + failure.getMessage());
+      }
+    }
+    throw failure;
+  }
+
+  // Calls the primary gateway and, if it has not answered within its p95 latency, also the secondary.
+  // The first successful answer wins; the values of a later one are wiped.
+  private Map<String, SecretValue> fetchHedged(
+      ResolverConfig cfg, String primary, String secondary, long hedgeDelayNanos, String accessId, List<String> secretPaths
+  ) throws Exception {
+    final AtomicBoolean answered = new AtomicBoolean();
+    final Long deadline = DEADLINE.get();
+    CompletionService<Map<String, SecretValue>> calls = new ExecutorCompletionService<>(HEDGER);
+    List<Abort> aborts = new ArrayList<>(2);
+    Callable<Map<String, SecretValue>> first = hedgedCall(cfg, primary, accessId, secretPaths, deadline, answered, aborts);
+    List<Future<Map<String, SecretValue>>> started = new ArrayList<>(2);
+    try {
+      started.add(calls.submit(first));
+    } catch (RejectedExecutionException e) {
+      return fetchFrom(cfg, primary, accessId, secretPaths);
+    }
+    try {
+      Future<Map<String, SecretValue>> done = calls.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+      Exception failure = null;
+      if (done != null) {
+        try {
+          return done.get();
+        } catch (ExecutionException e) {
+          failure = unwrap(e);
+          if (!isFailover(failure)) {
+            throw failure;
+          }
+        }
+      }
+      metrics().increment(done == null ? ResolverMetrics.GATEWAY_HEDGED : ResolverMetrics.GATEWAY_FAILOVER);
+      int pending = done == null ? 1 : 0;
+      try {
+        started.add(calls.submit(hedgedCall(cfg, secondary, accessId, secretPaths, deadline, answered, aborts)));
+        pending++;
+      } catch (RejectedExecutionException e) {
+        if (done != null) {
+          return fetchFrom(cfg, secondary, accessId, secretPaths);
+        }
+        // No thread for the hedge: keep waiting for the primary
+      }
+      for (; pending > 0; pending--) {
+        Map<String, SecretValue> values;
+        try {
+          values = calls.take().get();
+        } catch (ExecutionException e) {
+          if (failure == null) failure = unwrap(e);
+          continue;
+        }
+        if (values != null) {
+          return values;
+        }
+      }
+      throw failure;
+    } finally {
+      // The slower call is interrupted and its connection closed; the time it had taken so far still counts
+      // for its gateway. The finished call has already let go of its connection.
+      for (Future<?> f : started) f.cancel(true);
+      for (Abort a : aborts) a.abort();
+    }
+  }
+
+  private Callable<Map<String, SecretValue>> hedgedCall(
+      ResolverConfig cfg, String gwUrl, String accessId, List<String> secretPaths, Long deadline, AtomicBoolean answered,
+      List<Abort> aborts
+  ) {
+    Abort abort = new Abort();
+    aborts.add(abort);
+    return () -> {
+      if (deadline != null) DEADLINE.set(deadline);
+      ABORT.set(abort);
+      try {
+        Map<String, SecretValue> values = fetchFrom(cfg, gwUrl, accessId, secretPaths);
+        if (answered.compareAndSet(false, true)) {
+          return values;
+        }
+        for (SecretValue v : values.values()) v.wipe();
+        return null;
+      } finally {
+        ABORT.remove();
+        DEADLINE.remove();
+      }
+    };
+  }
+
+  private static Exception unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return cause instanceof Exception ? (Exception) cause : e;
+  }
+
+  // p95 of the gateway's recent calls, or -1 while there are too few to hedge on
+  private static long hedgeDelayNanos(ResolverConfig cfg, String gwUrl) {
+    long p95 = GATEWAYS.p95Nanos(gwUrl);
+    return p95 < 0 ? -1 : Math.max(p95, TimeUnit.MILLISECONDS.toNanos(cfg.hedgeMinDelayMillis));
+  }
+
+  // Another gateway may succeed where this one had no answer, a gateway error or an open breaker
+  private static boolean isFailover(Exception e) {
+    if (e instanceof InterruptedException) {
+      return false;
+    }
+    int status = httpStatus(e);
+    return status == 0 || status == 429 || status >= 500;
+  }
+
+  private static boolean isBreakerOpen(String gwUrl) {
+    CircuitBreaker b = BREAKERS.get(gwUrl);
+    return b != null && b.state() == CircuitBreaker.OPEN;
+  }
+
+  private Map<String, SecretValue> fetchFrom(ResolverConfig cfg, String gwUrl, String accessId, List<String> secretPaths) throws Exception {
+    Map<String, Object> gsvReq = new HashMap<>();
+    if (secretPaths.size() == 1) {
+      gsvReq.put("name", secretPaths.get(0));
+    }
+    gsvReq.put("names", new ArrayList<>(secretPaths));
+    gsvReq.put("json", true);
+    ResponseReader reader = ResponseReader.secrets(secretPaths);
+    Map<String, Object> gsvResp = withToken(cfg, gwUrl, accessId, token -> {
+      gsvReq.put("token", token);
+      return postGetSecretValue(cfg, gwUrl, gsvReq, reader);
+    });
+
+    Object secretsObj = gsvResp.containsKey("secrets") ? gsvResp.get("secrets") : gsvResp;
+    Map<String, SecretValue> out = new HashMap<>();
+    if (!(secretsObj instanceof Map)) {
+      return out;
+    }
+    for (String secretPath : secretPaths) {
+      Object value = ((Map<?, ?>) secretsObj).get(secretPath);
+      if (value != null) {
+        // Structured values are taken over as parsed, without a String round-trip
+        out.put(secretPath, SecretValue.fromGateway(value));
+      }
+    }
+    return out;
+  }
+
+  private interface TokenCall<T> {
+    T call(String token) throws Exception;
+  }
+
+  // Runs call with a token for the gateway (cached per gateway, access type and access id)
+  private <T> T withToken(ResolverConfig cfg, String gwUrl, String accessId, TokenCall<T> call) throws Exception {
+    final String tokenKey = AuthTokenCache.key(gwUrl, cfg.accessType, accessId);
+    final AuthTokenCache.Authenticator authenticator = () -> authenticate(cfg, gwUrl, cfg.accessType, accessId, cfg.accessKey);
+    String token = cfg.tokenCacheEnabled
+        ? TOKENS.getToken(tokenKey, cfg.tokenTtlMillis, authenticator)
+        : authenticator.authenticate().token;
+    try {
+      return call.call(token);
+    } catch (AkeylessCredentialResolverException e) {
+      if (!cfg.tokenCacheEnabled || !isAuthRejected(e)) {
+        throw e;
+      }
+      // The cached token was revoked or expired early: drop it and retry once with a fresh one
+      metrics().increment(ResolverMetrics.TOKEN_REJECTED);
+      TOKENS.invalidate(tokenKey, token);
+      return call.call(TOKENS.getToken(tokenKey, cfg.tokenTtlMillis, authenticator));
+    }
+  }
+
+  private AuthTokenCache.Grant authenticate(ResolverConfig cfg, String gwUrl, String accessType, String accessId, String accessKey) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return doAuthenticate(cfg, gwUrl, accessType, accessId, accessKey);
+    } finally {
+      recordPhase(ResolverMetrics.PHASE_AUTH, System.nanoTime() - start);
+    }
+  }
+
+  private AuthTokenCache.Grant doAuthenticate(ResolverConfig cfg, String gwUrl, String accessType, String accessId, String accessKey) throws Exception {
     Map<String, Object> authReq = new HashMap<>();
     switch (accessType) {
       case "access_key":
@@ -153,65 +1428,136 @@ public class CredentialResolver {
         throw new IllegalArgumentException("Unsupported access type '" + accessType + "'. Supported: access_key, aws_iam, azure_ad, gcp");
     } 
     if (isCloudIdType(accessType)) {
-      CloudIdProvider provider = getCloudIdProvider((String) authReq.get("access-type"));
-      String cloudId = provider.getCloudId();
+      long start = System.nanoTime();
+      String cloudId = cloudId(cfg, accessType);
+      recordPhase(ResolverMetrics.PHASE_CLOUD_ID, System.nanoTime() - start);
       authReq.put("cloud-id", cloudId);
     }
     authReq.put("json", true);
 
     Map<String, Object> authResp;
     try {
-      authResp = httpPostJson(joinUrl(gwUrl, "/v2/auth"), authReq);
+      authResp = postVersioned(cfg, gwUrl, "/auth", authReq, ResolverMetrics.FALLBACK_AUTH, ResponseReader.TOKEN);
     } catch (AkeylessCredentialResolverException e) {
-      if (e.getMessage() != null && e.getMessage().contains("HTTP 404")) {
-        authResp = httpPostJson(joinUrl(gwUrl, "/auth"), authReq);
-      } else {
-        throw e;
+      if (isCloudIdType(accessType) && isAuthRejected(e)) {
+        // Do not keep offering a CloudID the gateway turned down
+        CLOUD_IDS.invalidate(cloudIdKey(accessType));
       }
+      throw e;
     }
     String token = asString(authResp.get("token"));
     if (token == null || token.isEmpty()) {
       throw new AkeylessCredentialResolverException("Akeyless auth returned empty token");
     }
+    return new AuthTokenCache.Grant(token, tokenExpiry(asString(authResp.get("expiration"))));
+  }
 
-    // --- Get secret value
-    Map<String, Object> gsvReq = new HashMap<>();
-    gsvReq.put("token", token);
-    gsvReq.put("name", secretPath);
-    gsvReq.put("names", Collections.singletonList(secretPath));
-    gsvReq.put("json", true);
-    Map<String, Object> gsvResp;
+  // Epoch millis of the expiration an auth response reports, as RFC 3339 or epoch seconds; 0 when absent
+  static long tokenExpiry(String expiration) {
+    if (expiration == null || expiration.isEmpty()) {
+      return 0L;
+    }
     try {
-      gsvResp = httpPostJson(joinUrl(gwUrl, "/v2/get-secret-value"), gsvReq);
-    } catch (AkeylessCredentialResolverException e) {
-      if (e.getMessage() != null && e.getMessage().contains("HTTP 404")) {
-        gsvResp = httpPostJson(joinUrl(gwUrl, "/get-secret-value"), gsvReq);
-      } else {
-        throw e;
-      }
+      return Long.parseLong(expiration.trim()) * 1000L;
+    } catch (NumberFormatException e) {
+      return SecretVersions.parseTime(expiration.trim());
     }
+  }
 
-    Object secretsObj = gsvResp.containsKey("secrets") ? gsvResp.get("secrets") : gsvResp;
-    Object value = null;
-    if (secretsObj instanceof Map) {
-      value = ((Map<?, ?>) secretsObj).get(secretPath);
+  // Signed CloudIDs are reused for ext.cred.akeyless.cloud_id.ttl_seconds; 0 produces one per authentication
+  private String cloudId(ResolverConfig cfg, String accessType) throws Exception {
+    if (cfg.cloudIdTtlMillis <= 0) {
+      return getCloudIdProvider(accessType).getCloudId();
     }
-    if (value == null) {
-      throw new AkeylessCredentialResolverException("Secret value not found for name: " + secretPath);
+    return CLOUD_IDS.getCloudId(cloudIdKey(accessType), () -> getCloudIdProvider(accessType),
+        cfg.cloudIdTtlMillis, cfg.cloudIdTimeoutMillis);
+  }
+
+  // Subclasses overriding getCloudIdProvider get their own entries
+  private String cloudIdKey(String accessType) {
+    return getClass().getName() + '\0' + accessType;
+  }
+
+  private static Map<String, Object> postGetSecretValue(
+      ResolverConfig cfg, String gwUrl, Map<String, Object> gsvReq, ResponseReader reader
+  ) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return postVersioned(cfg, gwUrl, "/get-secret-value", gsvReq, ResolverMetrics.FALLBACK_GET_SECRET_VALUE, reader);
+    } finally {
+      recordPhase(ResolverMetrics.PHASE_FETCH, System.nanoTime() - start);
     }
-    if (isContainer(value)) {
-      return JSON_STD.asString(value);
+  }
+
+  private static Map<String, Object> postGetDynamicSecretValue(
+      ResolverConfig cfg, String gwUrl, Map<String, Object> req
+  ) throws Exception {
+    long start = System.nanoTime();
+    try {
+      return postVersioned(cfg, gwUrl, "/get-dynamic-secret-value", req, ResolverMetrics.FALLBACK_GET_DYNAMIC_SECRET_VALUE,
+          ResponseReader.DYNAMIC_SECRET, false);
+    } finally {
+      recordPhase(ResolverMetrics.PHASE_FETCH, System.nanoTime() - start);
     }
-    String v = asString(value);
-    return v != null ? v : "";
   }
 
-  private static String envOr(String name, String dflt) {
-    String v = System.getProperty(name);
-    if (v == null || v.isEmpty()) v = System.getenv(name);
-    return v == null || v.isEmpty() ? dflt : v;
+  private static Map<String, Object> postVersioned(
+      ResolverConfig cfg, String gwUrl, String path, Object payload, String fallbackCounter, ResponseReader reader
+  ) throws Exception {
+    return postVersioned(cfg, gwUrl, path, payload, fallbackCounter, reader, true);
   }
 
+  // Posts to /v2<path>, or to <path> on gateways that answered 404 for /v2 (remembered per endpoint).
+  // Calls that are not idempotent are retried only when they never reached the gateway.
+  private static Map<String, Object> postVersioned(
+      ResolverConfig cfg, String gwUrl, String path, Object payload, String fallbackCounter, ResponseReader reader,
+      boolean idempotent
+  ) throws Exception {
+    final String legacyUrl = joinUrl(gwUrl, path);
+    if (API_VERSIONS.useLegacy(legacyUrl)) {
+      try {
+        return httpPostJson(cfg, gwUrl, legacyUrl, payload, reader, idempotent);
+      } catch (Exception e) {
+        if (!isUnexpected(e)) {
+          throw e;
+        }
+        // The gateway may have been upgraded or replaced: probe /v2 again
+        API_VERSIONS.forget(legacyUrl);
+        if (httpStatus(e) != 404) {
+          throw e;
+        }
+      }
+    }
+    try {
+      Map<String, Object> resp = httpPostJson(cfg, gwUrl, joinUrl(gwUrl, "/v2" + path), payload, reader, idempotent);
+      API_VERSIONS.record(legacyUrl, false, cfg.apiReprobeMillis);
+      return resp;
+    } catch (AkeylessCredentialResolverException e) {
+      if (e.getHttpStatus() != 404) {
+        throw e;
+      }
+    }
+    metrics().increment(fallbackCounter);
+    Map<String, Object> resp = httpPostJson(cfg, gwUrl, legacyUrl, payload, reader, idempotent);
+    API_VERSIONS.record(legacyUrl, true, cfg.apiReprobeMillis);
+    return resp;
+  }
+
+  private static int httpStatus(Exception e) {
+    return e instanceof AkeylessCredentialResolverException ? ((AkeylessCredentialResolverException) e).getHttpStatus() : 0;
+  }
+
+  // 404, gateway errors and I/O failures; 4xx answers about the request itself are expected
+  private static boolean isUnexpected(Exception e) {
+    int status = httpStatus(e);
+    return status == 0 || status == 404 || status >= 500;
+  }
+
+  private static boolean isAuthRejected(AkeylessCredentialResolverException e) {
+    return e.getHttpStatus() == 401 || e.getHttpStatus() == 403;
+  }
+
+
   private static String joinUrl(String base, String path) {
     if (base == null || base.isEmpty()) return path;
     boolean bSlash = base.endsWith("/");
@@ -221,80 +1567,195 @@ public class CredentialResolver {
     return base + path;
   }
 
-  private static Map<String, Object> httpPostJson(String url, Object payload) throws Exception {
-    return HTTP.postJson(url, payload);
-  }
+  // Full jitter: a random delay up to the exponential bound, so retrying MIDs do not move in step
+  private static final LongUnaryOperator FULL_JITTER = bound -> ThreadLocalRandom.current().nextLong(bound + 1);
+  private static volatile LongUnaryOperator RETRY_JITTER = FULL_JITTER;
 
+  // Tests pin the retry delay picked for a bound; null restores full jitter
+  static void setRetryJitter(LongUnaryOperator jitter) {
+    RETRY_JITTER = jitter == null ? FULL_JITTER : jitter;
+  }
 
-  // -------- Mapping helpers --------
+  // Retries I/O errors, 429 and 5xx answers with jittered exponential backoff, within the resolve's deadline
+  private static Map<String, Object> httpPostJson(
+      ResolverConfig cfg, String gwUrl, String url, Object payload, ResponseReader reader, boolean idempotent
+  ) throws Exception {
+    Long resolveDeadline = DEADLINE.get();
+    long deadline = resolveDeadline != null ? resolveDeadline
+        : cfg.retryDeadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cfg.retryDeadlineMillis)
+        : Long.MAX_VALUE;
+    if (resolveDeadline == null && deadline != Long.MAX_VALUE) {
+      // Outside a resolve the deadline covers this call's attempts; the transports cap their timeouts by it
+      DEADLINE.set(deadline);
+    }
+    try {
+      return postWithRetries(cfg, gwUrl, url, payload, reader, idempotent, deadline);
+    } finally {
+      if (resolveDeadline == null) DEADLINE.remove();
+    }
+  }
 
-  private Map<String,String> mapToServiceNow(
-      String snType, String raw, String fUser, String fPass, String fPk, String fPhr
+  private static Map<String, Object> postWithRetries(
+      ResolverConfig cfg, String gwUrl, String url, Object payload, ResponseReader reader, boolean idempotent, long deadline
   ) throws Exception {
-    Map<String,String> out = new HashMap<>();
-    if (raw == null || raw.isEmpty()) return out;
+    if (System.nanoTime() >= deadline) {
+      throw new AkeylessCredentialResolverException("Deadline passed before calling " + url
+          + " (ext.cred.akeyless.retry.deadline_ms=" + cfg.retryDeadlineMillis + ")");
+    }
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return postOnce(cfg, gwUrl, url, payload, reader);
+      } catch (Exception e) {
+        if (attempt >= cfg.retryMaxAttempts || !(idempotent ? isRetryable(e) : isNeverSent(e))) {
+          throw e;
+        }
+        long bound = Math.min(cfg.retryMaxDelayMillis, cfg.retryBaseDelayMillis << Math.min(attempt - 1, 20));
+        long delayMillis = bound > 0 ? RETRY_JITTER.applyAsLong(bound) : 0L;
+        if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadline) {
+          throw e;
+        }
+        LOG.warn("Akeyless resolver: attempt " + attempt + " of " + url + " failed, retrying in " + delayMillis + " ms: " + e.getMessage());
+        metrics().increment(ResolverMetrics.RETRIES);
+        Thread.sleep(delayMillis);
+      }
+    }
+  }
 
-    Object parsed = tryParseJson(raw);
-    if (!(parsed instanceof Map)) {
-      // Treat raw value as a single secret (password/token)
-      out.put("password", raw);
-      return out;
+  // Transient failures: no answer at all, throttling, or a gateway error
+  private static boolean isRetryable(Exception e) {
+    if (e instanceof InterruptedException) {
+      return false;
     }
-    @SuppressWarnings("unchecked")
-    Map<String, Object> node = (Map<String, Object>) parsed;
-
-    String type = snType.toLowerCase();
-
-    switch (type) {
-      case "windows":
-      case "basic":
-      case "ssh_password":
-      case "vmware":
-      case "jdbc":
-      case "jms":
-        putIf(out, "username", node, fUser);
-        putIf(out, "password", node, fPass);
-        break;
+    if (!(e instanceof AkeylessCredentialResolverException)) {
+      return true;
+    }
+    int status = ((AkeylessCredentialResolverException) e).getHttpStatus();
+    return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+  }
 
-      case "ssh_private_key":
-        putIf(out, "username",    node, fUser);
-        putIf(out, "private_key", node, fPk);
-        putIf(out, "passphrase",  node, fPhr);
-        break;
+  // Failures where the request cannot have been acted on: refused before sending, no connection, or throttled
+  private static boolean isNeverSent(Exception e) {
+    return e instanceof GatewayRejectedException || e instanceof ConnectException || e instanceof NoRouteToHostException
+        || e instanceof UnknownHostException || e instanceof HttpConnectTimeoutException || httpStatus(e) == 429;
+  }
 
-      case "snmpv3":
-        // Example JSON:
-        // {"username":"u","auth_protocol":"SHA","auth_key":"...","privacy_protocol":"AES","privacy_key":"..."}
-        putIf(out, "username",         node, fUser);
-        putIf(out, "auth-protocol",    node, "auth_protocol");
-        putIf(out, "auth-key",         node, "auth_key");
-        putIf(out, "privacy-protocol", node, "privacy_protocol");
-        putIf(out, "privacy-key",      node, "privacy_key");
-        break;
+  // Failures that mean the gateway itself is down, as opposed to an answer about the request
+  private static boolean isGatewayFailure(Exception e) {
+    return !(e instanceof InterruptedException) && (httpStatus(e) >= 500
+        || !(e instanceof AkeylessCredentialResolverException));
+  }
 
-      default:
-        // Best effort for custom credential types: username/password if present
-        putIf(out, "username", node, fUser);
-        putIf(out, "password", node, fPass);
+  // One call through the gateway's circuit breaker and concurrency limiter, when enabled
+  private static Map<String, Object> postOnce(
+      ResolverConfig cfg, String gwUrl, String url, Object payload, ResponseReader reader
+  ) throws Exception {
+    CircuitBreaker breaker = cfg.breakerEnabled ? breaker(cfg, gwUrl) : null;
+    if (breaker != null) {
+      try {
+        breaker.acquire(gwUrl);
+      } catch (AkeylessCredentialResolverException e) {
+        metrics().increment(ResolverMetrics.BREAKER_REJECTED);
+        throw e;
+      }
+    }
+    ConcurrencyLimiter limiter = cfg.limiterEnabled ? limiter(cfg, gwUrl) : null;
+    if (limiter != null) {
+      try {
+        limiter.acquire();
+      } catch (AkeylessCredentialResolverException | InterruptedException e) {
+        if (breaker != null) breaker.onCancel();
+        if (e instanceof AkeylessCredentialResolverException) metrics().increment(ResolverMetrics.LIMITER_REJECTED);
+        throw e;
+      }
+    }
+    long generation = GATEWAYS.generation();
+    long start = System.nanoTime();
+    boolean congested = true;
+    boolean failed = false;
+    try {
+      Map<String, Object> resp = transport().postJson(url, payload, reader);
+      congested = false;
+      if (breaker != null) breaker.onSuccess();
+      return resp;
+    } catch (Exception e) {
+      int status = httpStatus(e);
+      if (e instanceof AkeylessCredentialResolverException) {
+        congested = status == 429 || status == 502 || status == 503 || status == 504;
+      }
+      if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+        // Cancelled, e.g. the losing call of a hedge: says nothing about the gateway's health
+        congested = false;
+        if (breaker != null) breaker.onCancel();
+        throw e;
+      }
+      failed = isGatewayFailure(e);
+      if (breaker != null) {
+        if (failed) breaker.onFailure();
+        else breaker.onSuccess();
+      }
+      throw e;
+    } finally {
+      long latency = System.nanoTime() - start;
+      if (limiter != null) limiter.release(latency, congested);
+      if (GATEWAYS.record(gwUrl, latency, failed, generation)) {
+        registerGatewayGauges(metrics(), gwUrl);
+      }
     }
-    return out;
   }
 
-  private static void putIf(Map<String,String> out, String snField, Map<String, Object> node,  String jsonField) {
-    Object v = node.get(jsonField);
-    if (v != null) out.put(snField, asString(v));
+  private static void registerGatewayGauges(ResolverMetrics m, String gwUrl) {
+    m.gauge("gateway." + gwUrl + ".latency_us", () -> (long) (GATEWAYS.latencyNanos(gwUrl) / 1000));
+    m.gauge("gateway." + gwUrl + ".error_rate_pct", () -> Math.round(GATEWAYS.errorRate(gwUrl) * 100));
   }
 
-  private static Object tryParseJson(String raw)  {
-    try { return JSON_STD.anyFrom(raw); }
-    catch (Exception ignore) { return null; }
+  private static CircuitBreaker breaker(ResolverConfig cfg, String gwUrl) {
+    CircuitBreaker b = BREAKERS.get(gwUrl);
+    if (b != null) {
+      return b;
+    }
+    return BREAKERS.computeIfAbsent(gwUrl, gw -> {
+      CircuitBreaker created = new CircuitBreaker(cfg.breakerFailureThreshold, cfg.breakerOpenMillis);
+      metrics().gauge("breaker." + gw + ".state", created::state);
+      return created;
+    });
+  }
+
+  // One limiter per gateway, so a slow gateway cannot use up the slots of the others
+  private static ConcurrencyLimiter limiter(ResolverConfig cfg, String gwUrl) {
+    ConcurrencyLimiter l = LIMITERS.get(gwUrl);
+    if (l != null) {
+      return l;
+    }
+    return LIMITERS.computeIfAbsent(gwUrl, gw -> {
+      ConcurrencyLimiter created = new ConcurrencyLimiter(cfg.limiterInitial, cfg.limiterMin, cfg.limiterMax,
+          cfg.limiterMaxQueue, cfg.limiterQueueTimeoutMillis, cfg.limiterLatencyThresholdMillis, cfg.limiterFailFast);
+      registerLimiterGauges(metrics(), gw, created);
+      return created;
+    });
   }
 
-  private static boolean isContainer(Object v) {
-    return v instanceof Map || v instanceof Iterable || (v != null && v.getClass().isArray());
+  private static void registerLimiterGauges(ResolverMetrics m, String gwUrl, ConcurrencyLimiter l) {
+    m.gauge("limiter." + gwUrl + ".limit", l::limit);
+    m.gauge("limiter." + gwUrl + ".in_flight", l::inFlight);
+    m.gauge("limiter." + gwUrl + ".queued", l::queued);
   }
 
-  private static String asString(Object v) {
+
+  // -------- Mapping helpers --------
+
+  Map<String,String> mapToServiceNow(
+      String snType, String raw, String fUser, String fPass, String fPk, String fPhr
+  ) throws Exception {
+    if (raw == null || raw.isEmpty()) return new HashMap<>();
+    SecretValue value = SecretValue.parse(raw);
+    try {
+      return MappingPlan.compile(snType, fUser, fPass, fPk, fPhr).apply(value);
+    } finally {
+      value.wipe();
+    }
+  }
+
+  static String asString(Object v) {
     if (v == null) return null;
     if (v instanceof String) return (String) v;
     if (v instanceof Number || v instanceof Boolean) return String.valueOf(v);
@@ -316,24 +1777,6 @@ public class CredentialResolver {
     return CloudProviderFactory.getCloudIdProvider(type);
   }
 
-  // -------- MID property helpers --------
-
-
-private static String getMidProp(String name, String dflt) {
-  try {
-    Class<?> c = Class.forName("com.service_now.mid.services.Config");
-    Object cfg = c.getMethod("get").invoke(null); // Config.get()
-    String v = (String) c.getMethod("getProperty", String.class).invoke(cfg, name);
-    if (v == null) v = (String) c.getMethod("getProperty", String.class).invoke(cfg, "mid.property." + name);
-    return v != null ? v : dflt;
-  } catch (Throwable t) {
-    // when running unit tests outside the MID, fall back to sysprops/env
-    String v = System.getProperty(name);
-    if (v == null) v = System.getenv(name.replace('.', '_').toUpperCase());
-    return v != null ? v : dflt;
-  }
-}
-
   // -------- settings.xml support (optional) --------
   
   private static String must(String val, String msg) {
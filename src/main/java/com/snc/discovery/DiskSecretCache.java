@@ -0,0 +1,367 @@
+package com.snc.discovery;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Encrypted, append-only file behind the secret cache, so a restarted MID starts warm.
+ *
+ * The file is memory-mapped at a fixed capacity. After a header holding a random salt, each
+ * record is {@code [length][IV][AES-GCM ciphertext]}; the plaintext holds the secret path, the
+ * entry's absolute stale and expiry times and the value, or no value for a tombstone that
+ * removes the path. The AES key is derived with PBKDF2 from a secret supplied by the caller, and
+ * a context string (the access id and gateways the values were fetched with) is authenticated
+ * with every record. A record length of 0 marks the end of the log. When the log is full or
+ * mostly superseded records, it is compacted in place to the latest unexpired value per path.
+ * Records that do not decrypt (for example after the key or the context changed) end the log and
+ * are overwritten.
+ */
+final class DiskSecretCache implements AutoCloseable {
+  private static final Log LOG = LogFactory.getLog(DiskSecretCache.class);
+
+  private static final int MAGIC = 0x414B4C43; // "AKLC"
+  private static final int VERSION = 2;
+  private static final int SALT_BYTES = 16;
+  private static final int HEADER_BYTES = 4 + 4 + SALT_BYTES;
+  private static final int IV_BYTES = 12;
+  private static final int TAG_BITS = 128;
+  private static final int KDF_ITERATIONS = 65_536;
+  private static final int MIN_CAPACITY = 64 * 1024;
+  private static final byte KIND_VALUE = 1;
+  private static final byte KIND_TOMBSTONE = 0;
+
+  interface Sink {
+    void restore(String secretPath, SecretValue value, long staleAtMillis, long expiresAtMillis);
+  }
+
+  private static final class Record {
+    final String secretPath;
+    final long staleAtMillis;
+    final long expiresAtMillis;
+    final SecretValue value; // null for a tombstone
+    final byte[] sealed; // IV and ciphertext as stored
+
+    Record(String secretPath, long staleAtMillis, long expiresAtMillis, SecretValue value, byte[] sealed) {
+      this.secretPath = secretPath;
+      this.staleAtMillis = staleAtMillis;
+      this.expiresAtMillis = expiresAtMillis;
+      this.value = value;
+      this.sealed = sealed;
+    }
+  }
+
+  private final FileChannel channel;
+  private final MappedByteBuffer map;
+  private final int capacity;
+  private final SecretKey key;
+  private final byte[] context;
+  private final SecureRandom random;
+  private final LongSupplier clock;
+  private int writePos = HEADER_BYTES;
+  // Stored size of the latest value per path; the rest of the log, tombstones included, is superseded
+  private final Map<String, Integer> liveRecords = new HashMap<>();
+  private long liveBytes;
+  private boolean scanned;
+  private boolean closed;
+
+  private DiskSecretCache(FileChannel channel, MappedByteBuffer map, int capacity, SecretKey key, byte[] context,
+                          SecureRandom random, LongSupplier clock) {
+    this.channel = channel;
+    this.map = map;
+    this.capacity = capacity;
+    this.key = key;
+    this.context = context;
+    this.random = random;
+    this.clock = clock;
+  }
+
+  /**
+   * Opens or creates {@code file} with room for {@code maxBytes}; {@code secret} is the key
+   * material. Only records written with the same {@code context} are read back.
+   */
+  static DiskSecretCache open(File file, char[] secret, String context, int maxBytes, LongSupplier clock) throws Exception {
+    Path path = file.toPath().toAbsolutePath();
+    Files.createDirectories(path.getParent());
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long existing = channel.size();
+      int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(Math.max(maxBytes, MIN_CAPACITY), existing));
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      SecureRandom random = new SecureRandom();
+      byte[] salt = new byte[SALT_BYTES];
+      if (existing >= HEADER_BYTES && map.getInt(0) == MAGIC && map.getInt(4) == VERSION) {
+        map.get(8, salt);
+      } else {
+        random.nextBytes(salt);
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.put(8, salt);
+        zero(map, HEADER_BYTES, (int) Math.min(capacity, existing));
+      }
+      return new DiskSecretCache(channel, map, capacity, deriveKey(secret, salt),
+          context.getBytes(StandardCharsets.UTF_8), random, clock);
+    } catch (Exception e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** Hands every unexpired entry to {@code sink}, latest record per path, and positions the log for appends. */
+  synchronized void load(Sink sink) {
+    Map<String, Record> latest = scan();
+    long now = clock.getAsLong();
+    for (Record r : latest.values()) {
+      if (r.value != null && r.expiresAtMillis > now) {
+        sink.restore(r.secretPath, r.value, r.staleAtMillis, r.expiresAtMillis);
+      }
+      wipe(r);
+    }
+  }
+
+  synchronized void append(String secretPath, SecretValue value, long staleAtMillis, long expiresAtMillis) {
+    if (closed) return;
+    if (!scanned) {
+      for (Record r : scan().values()) wipe(r);
+    }
+    write(secretPath, value, staleAtMillis, expiresAtMillis);
+  }
+
+  /** Writes a tombstone for {@code secretPath} if the log still holds a value for it. */
+  synchronized void remove(String secretPath) {
+    if (closed) return;
+    if (!scanned) {
+      for (Record r : scan().values()) wipe(r);
+    }
+    if (liveRecords.containsKey(secretPath)) {
+      write(secretPath, null, 0L, 0L);
+    }
+  }
+
+  private void write(String secretPath, SecretValue value, long staleAtMillis, long expiresAtMillis) {
+    byte[] sealed;
+    try {
+      sealed = seal(secretPath, value, staleAtMillis, expiresAtMillis);
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: failed to encrypt cache entry for disk: " + e.getMessage());
+      return;
+    }
+    int size = 4 + sealed.length;
+    long superseded = (writePos - HEADER_BYTES) - liveBytes;
+    if (writePos + size > capacity || superseded > capacity / 2) {
+      compact();
+      if (value == null && !liveRecords.containsKey(secretPath)) {
+        return; // compaction already dropped the path's value
+      }
+    }
+    if (writePos + size > capacity) {
+      LOG.warn("Akeyless resolver: disk cache is full, not persisting '" + secretPath + "'");
+      return;
+    }
+    map.put(writePos + 4, sealed);
+    // The length goes in last, so a torn write reads as the end of the log
+    map.putInt(writePos, sealed.length);
+    writePos += size;
+    track(secretPath, value == null ? 0 : size);
+  }
+
+  /** Rewrites the log to the latest unexpired value per path; tombstones and what they removed are dropped. */
+  synchronized void compact() {
+    Map<String, Record> latest = scan();
+    long now = clock.getAsLong();
+    List<byte[]> keep = new ArrayList<>(latest.size());
+    liveRecords.clear();
+    liveBytes = 0;
+    for (Record r : latest.values()) {
+      wipe(r);
+      if (r.value != null && r.expiresAtMillis > now) {
+        keep.add(r.sealed);
+        liveRecords.put(r.secretPath, 4 + r.sealed.length);
+        liveBytes += 4 + r.sealed.length;
+      }
+    }
+    zero(map, HEADER_BYTES, writePos);
+    int pos = HEADER_BYTES;
+    for (byte[] sealed : keep) {
+      map.put(pos + 4, sealed);
+      map.putInt(pos, sealed.length);
+      pos += 4 + sealed.length;
+    }
+    writePos = pos;
+  }
+
+  synchronized int logBytes() {
+    return writePos - HEADER_BYTES;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    try {
+      map.force();
+      channel.close();
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: failed to close disk cache: " + e.getMessage());
+    }
+  }
+
+  // Reads the log from the start; stops at its end or at the first record that does not decrypt
+  private Map<String, Record> scan() {
+    Map<String, Record> latest = new LinkedHashMap<>();
+    liveRecords.clear();
+    liveBytes = 0;
+    int pos = HEADER_BYTES;
+    while (pos + 4 <= capacity) {
+      int len = map.getInt(pos);
+      if (len <= IV_BYTES || pos + 4L + len > capacity) break;
+      byte[] sealed = new byte[len];
+      map.get(pos + 4, sealed);
+      Record r;
+      try {
+        r = open(sealed);
+      } catch (Exception e) {
+        LOG.warn("Akeyless resolver: disk cache is unreadable from offset " + pos + " (key changed?), discarding the rest");
+        zero(map, pos, capacity);
+        break;
+      }
+      Record old = latest.remove(r.secretPath);
+      if (old != null) wipe(old);
+      latest.put(r.secretPath, r);
+      track(r.secretPath, r.value == null ? 0 : 4 + len);
+      pos += 4 + len;
+    }
+    writePos = pos;
+    scanned = true;
+    return latest;
+  }
+
+  // Size 0 means the path's latest record is a tombstone
+  private void track(String secretPath, int size) {
+    Integer previous = size == 0 ? liveRecords.remove(secretPath) : liveRecords.put(secretPath, size);
+    liveBytes += size - (previous == null ? 0 : previous);
+  }
+
+  private byte[] seal(String secretPath, SecretValue value, long staleAtMillis, long expiresAtMillis) throws Exception {
+    byte[] plain = new byte[8 + 8 + 4 + 2 * secretPath.length() + 1 + (value == null ? 0 : value.serializedSize())];
+    try {
+      ByteBuffer b = ByteBuffer.wrap(plain);
+      b.putLong(staleAtMillis);
+      b.putLong(expiresAtMillis);
+      b.putInt(secretPath.length());
+      for (int i = 0; i < secretPath.length(); i++) b.putChar(secretPath.charAt(i));
+      if (value == null) {
+        b.put(KIND_TOMBSTONE);
+      } else {
+        b.put(KIND_VALUE);
+        value.writeTo(b);
+      }
+
+      byte[] iv = new byte[IV_BYTES];
+      random.nextBytes(iv);
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+      cipher.updateAAD(context);
+      byte[] ct = cipher.doFinal(plain);
+      byte[] sealed = Arrays.copyOf(iv, IV_BYTES + ct.length);
+      System.arraycopy(ct, 0, sealed, IV_BYTES, ct.length);
+      return sealed;
+    } finally {
+      Arrays.fill(plain, (byte) 0);
+    }
+  }
+
+  private Record open(byte[] sealed) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+    cipher.updateAAD(context);
+    byte[] plain = cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+    try {
+      ByteBuffer b = ByteBuffer.wrap(plain);
+      long staleAt = b.getLong();
+      long expiresAt = b.getLong();
+      int pathLen = b.getInt();
+      char[] path = new char[pathLen];
+      for (int i = 0; i < pathLen; i++) path[i] = b.getChar();
+      SecretValue value = b.get() == KIND_TOMBSTONE ? null : SecretValue.readFrom(b);
+      return new Record(new String(path), staleAt, expiresAt, value, sealed);
+    } finally {
+      Arrays.fill(plain, (byte) 0);
+    }
+  }
+
+  private static SecretKey deriveKey(char[] secret, byte[] salt) throws Exception {
+    PBEKeySpec spec = new PBEKeySpec(secret, salt, KDF_ITERATIONS, 256);
+    try {
+      byte[] raw = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+      SecretKey key = new SecretKeySpec(raw, "AES");
+      Arrays.fill(raw, (byte) 0);
+      return key;
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private static void wipe(Record r) {
+    if (r.value != null) r.value.wipe();
+  }
+
+  private static void zero(MappedByteBuffer map, int from, int to) {
+    for (int i = from; i < to; i++) map.put(i, (byte) 0);
+  }
+
+  /**
+   * Reads the MID-local key from {@code keyFile}, creating it with 32 random bytes, readable by
+   * the owner only where the file system supports it, on first use.
+   */
+  static char[] localKey(File keyFile) throws Exception {
+    Path path = keyFile.toPath().toAbsolutePath();
+    if (!Files.exists(path)) {
+      Files.createDirectories(path.getParent());
+      byte[] raw = new byte[32];
+      new SecureRandom().nextBytes(raw);
+      byte[] encoded = Base64.getEncoder().encode(raw);
+      Arrays.fill(raw, (byte) 0);
+      if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+        Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      }
+      Files.write(path, encoded);
+      Arrays.fill(encoded, (byte) 0);
+    }
+    byte[] encoded = Files.readAllBytes(path);
+    CharBuffer chars = StandardCharsets.US_ASCII.decode(ByteBuffer.wrap(encoded));
+    Arrays.fill(encoded, (byte) 0);
+    char[] key = chars.array();
+    int len = chars.limit();
+    while (len > 0 && Character.isWhitespace(key[len - 1])) len--;
+    char[] trimmed = Arrays.copyOf(key, len);
+    Arrays.fill(key, '\0');
+    return trimmed;
+  }
+}
@@ -0,0 +1,173 @@
+package com.snc.discovery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Credentials issued for Akeyless dynamic secrets, kept for their lease so that Discovery probes
+ * share one temporary account instead of minting a new one each time.
+ *
+ * A lease is handed out while it has at least the configured minimum lifetime left, so a probe
+ * does not start with a credential about to expire; for short leases that minimum is capped at a
+ * fifth of the lease, so they are still shared. Once 80% of the lease has passed, or earlier
+ * when needed to stay ahead of that cutoff, a single background task issues its successor while
+ * callers keep getting the current one. Without a
+ * usable lease, one caller per secret issues a new one and concurrent callers wait for it on a
+ * lock, which unlike a monitor does not pin a waiting virtual thread to its carrier.
+ */
+final class DynamicSecretLeases {
+  private static final Log LOG = LogFactory.getLog(DynamicSecretLeases.class);
+
+  interface Issuer {
+    SecretValue issue() throws Exception;
+  }
+
+  private static final class Lease {
+    final SecretValue value;
+    final long renewAtMillis;
+    final long usableUntilMillis;
+
+    Lease(SecretValue value, long renewAtMillis, long usableUntilMillis) {
+      this.value = value;
+      this.renewAtMillis = renewAtMillis;
+      this.usableUntilMillis = usableUntilMillis;
+    }
+  }
+
+  private static final class Entry {
+    Lease lease; // guarded by lock
+    final AtomicBoolean renewing = new AtomicBoolean();
+    final ReentrantLock lock = new ReentrantLock();
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Executor renewer;
+  private final LongSupplier clock;
+
+  DynamicSecretLeases() {
+    this(Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "akeyless-lease-renew");
+      t.setDaemon(true);
+      return t;
+    }), System::currentTimeMillis);
+  }
+
+  DynamicSecretLeases(Executor renewer, LongSupplier clock) {
+    this.renewer = renewer;
+    this.clock = clock;
+  }
+
+  static String key(String accessId, String secretPath) {
+    return accessId + '\0' + secretPath;
+  }
+
+  /**
+   * Returns a copy of the current credential for {@code key}, issuing one through {@code issuer}
+   * when there is none with at least {@code minRemainingMillis} (at most a fifth of its lease)
+   * left. {@code defaultLeaseMillis} is the lease assumed when the credential does not carry its own.
+   */
+  SecretValue get(String key, long defaultLeaseMillis, long minRemainingMillis, Issuer issuer) throws Exception {
+    Entry e = entries.computeIfAbsent(key, k -> new Entry());
+    e.lock.lockInterruptibly();
+    try {
+      long now = clock.getAsLong();
+      Lease l = e.lease;
+      if (l == null || now >= l.usableUntilMillis) {
+        l = issue(issuer, defaultLeaseMillis, minRemainingMillis);
+        replace(e, l);
+      } else if (now >= l.renewAtMillis) {
+        renewInBackground(e, defaultLeaseMillis, minRemainingMillis, issuer);
+      }
+      return l.value.copy();
+    } finally {
+      e.lock.unlock();
+    }
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  void clear() {
+    for (Entry e : entries.values()) {
+      e.lock.lock();
+      try {
+        replace(e, null);
+      } finally {
+        e.lock.unlock();
+      }
+    }
+    entries.clear();
+  }
+
+  /**
+   * Lease of an issued credential: its {@code ttl_in_minutes} field, as Akeyless producers
+   * return it, or {@code defaultMillis}.
+   */
+  static long leaseMillis(SecretValue value, long defaultMillis) {
+    String ttl = value.isStructured() ? value.field("ttl_in_minutes") : null;
+    if (ttl != null) {
+      try {
+        long minutes = Long.parseLong(ttl.trim());
+        if (minutes > 0) {
+          return TimeUnit.MINUTES.toMillis(minutes);
+        }
+      } catch (NumberFormatException ignored) {
+        // fall back to the default lease
+      }
+    }
+    return defaultMillis;
+  }
+
+  private Lease issue(Issuer issuer, long defaultLeaseMillis, long minRemainingMillis) throws Exception {
+    SecretValue value = issuer.issue();
+    long lease = leaseMillis(value, defaultLeaseMillis);
+    long now = clock.getAsLong();
+    // A minimum as long as the lease itself would discard every lease as soon as it is issued
+    long margin = Math.max(0L, Math.min(minRemainingMillis, lease / 5));
+    long usableUntil = now + lease - margin;
+    return new Lease(value, Math.min(now + lease * 4 / 5, usableUntil - margin), usableUntil);
+  }
+
+  // The credentials of a replaced lease stay valid on the target until it expires; only our copy is wiped
+  private static void replace(Entry e, Lease next) {
+    Lease previous = e.lease;
+    e.lease = next;
+    if (previous != null) {
+      previous.value.wipe();
+    }
+  }
+
+  private void renewInBackground(Entry e, long defaultLeaseMillis, long minRemainingMillis, Issuer issuer) {
+    if (!e.renewing.compareAndSet(false, true)) return;
+    try {
+      renewer.execute(() -> {
+        try {
+          Lease fresh = issue(issuer, defaultLeaseMillis, minRemainingMillis);
+          e.lock.lock();
+          try {
+            replace(e, fresh);
+          } finally {
+            e.lock.unlock();
+          }
+        } catch (Exception ex) {
+          // The current lease is still handed out until it gets too close to expiry
+          LOG.warn("Akeyless resolver: background re-issue of a dynamic secret failed: " + ex.getMessage());
+        } finally {
+          e.renewing.set(false);
+        }
+      });
+    } catch (RuntimeException ex) {
+      e.renewing.set(false);
+      LOG.warn("Akeyless resolver: could not schedule dynamic secret re-issue: " + ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.snc.discovery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers, per gateway endpoint, whether the {@code /v2} path or the legacy path answers.
+ *
+ * Older gateways return 404 for {@code /v2/...}. Once an endpoint is known to be legacy-only,
+ * calls go straight to the legacy path until the re-probe interval has passed or the legacy
+ * path fails unexpectedly, so the failed {@code /v2} round-trip is not repeated on every resolve.
+ */
+final class GatewayApiVersions {
+
+  private static final class Entry {
+    final boolean legacy;
+    final long probeAtMillis;
+
+    Entry(boolean legacy, long probeAtMillis) {
+      this.legacy = legacy;
+      this.probeAtMillis = probeAtMillis;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  GatewayApiVersions() {
+    this(System::currentTimeMillis);
+  }
+
+  GatewayApiVersions(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** True when {@code endpoint} is known to need the legacy path and is not due for a re-probe. */
+  boolean useLegacy(String endpoint) {
+    Entry e = entries.get(endpoint);
+    return e != null && e.legacy && clock.getAsLong() < e.probeAtMillis;
+  }
+
+  void record(String endpoint, boolean legacy, long reprobeMillis) {
+    Entry e = entries.get(endpoint);
+    // Only a change in the answer, or a finished re-probe, needs a write
+    if (e == null || e.legacy != legacy || clock.getAsLong() >= e.probeAtMillis) {
+      entries.put(endpoint, new Entry(legacy, clock.getAsLong() + reprobeMillis));
+    }
+  }
+
+  /** Probes {@code endpoint} again on its next call. */
+  void forget(String endpoint) {
+    entries.remove(endpoint);
+  }
+
+  void clear() {
+    entries.clear();
+  }
+}
@@ -0,0 +1,14 @@
+package com.snc.discovery;
+
+/**
+ * A gateway call refused before anything was sent, by an open circuit breaker or a full
+ * concurrency limiter. Such a call can be retried or sent elsewhere even when it is not
+ * idempotent.
+ */
+final class GatewayRejectedException extends AkeylessCredentialResolverException {
+  private static final long serialVersionUID = 1L;
+
+  GatewayRejectedException(String message) {
+    super(message);
+  }
+}
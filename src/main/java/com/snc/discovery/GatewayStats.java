@@ -0,0 +1,167 @@
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Latency and error rate of each gateway, from the auth and get-secret-value calls made to it.
+ *
+ * Both are exponentially weighted moving averages, so recent calls count most. A gateway whose
+ * error rate is at least 50% is unhealthy for 30 seconds after its last failure; after that it is
+ * tried again. The latencies of the last {@value #WINDOW} calls give a p95 for hedging.
+ *
+ * {@link #clear()} starts a new generation. Calls started before it are not recorded, so a slow
+ * call that finishes afterwards cannot skew the new ranking.
+ */
+final class GatewayStats {
+  private static final double ALPHA = 0.2;
+  private static final double UNHEALTHY_ERROR_RATE = 0.5;
+  private static final long PROBATION_MILLIS = 30_000L;
+  private static final int WINDOW = 128;
+  private static final int MIN_SAMPLES_FOR_P95 = 20;
+
+  private static final class Entry {
+    // guarded by this
+    double latencyNanos;
+    double errorRate;
+    long lastFailureMillis;
+    final long[] window = new long[WINDOW];
+    long samples;
+  }
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+  private final AtomicLong generation = new AtomicLong();
+
+  GatewayStats() {
+    this(System::currentTimeMillis);
+  }
+
+  GatewayStats(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** The current generation, to pass to {@link #record(String, long, boolean, long)} once the call ends. */
+  long generation() {
+    return generation.get();
+  }
+
+  /** Returns true for the first call recorded for {@code gwUrl}. */
+  boolean record(String gwUrl, long latencyNanos, boolean failed) {
+    return record(gwUrl, latencyNanos, failed, generation.get());
+  }
+
+  /** Like {@link #record(String, long, boolean)}, ignoring calls started before the last {@link #clear()}. */
+  boolean record(String gwUrl, long latencyNanos, boolean failed, long startGeneration) {
+    if (startGeneration != generation.get()) {
+      return false;
+    }
+    Entry e = entries.get(gwUrl);
+    boolean first = false;
+    if (e == null) {
+      Entry created = new Entry();
+      e = entries.putIfAbsent(gwUrl, created);
+      if (e == null) {
+        e = created;
+        first = true;
+      }
+    }
+    synchronized (e) {
+      if (e.samples == 0) {
+        e.latencyNanos = latencyNanos;
+      } else {
+        e.latencyNanos += ALPHA * (latencyNanos - e.latencyNanos);
+      }
+      e.errorRate += ALPHA * ((failed ? 1.0 : 0.0) - e.errorRate);
+      if (failed) {
+        e.lastFailureMillis = clock.getAsLong();
+      }
+      e.window[(int) (e.samples % WINDOW)] = latencyNanos;
+      e.samples++;
+    }
+    return first;
+  }
+
+  boolean isHealthy(String gwUrl) {
+    Entry e = entries.get(gwUrl);
+    if (e == null) {
+      return true;
+    }
+    synchronized (e) {
+      return e.errorRate < UNHEALTHY_ERROR_RATE || clock.getAsLong() - e.lastFailureMillis >= PROBATION_MILLIS;
+    }
+  }
+
+  /**
+   * Orders {@code gwUrls} for the next request: healthy gateways by average latency, gateways not
+   * measured yet first, then the unhealthy ones and those {@code unavailable} rejects, in their
+   * configured order.
+   */
+  List<String> rank(List<String> gwUrls, Predicate<String> unavailable) {
+    if (gwUrls.size() == 1) {
+      return gwUrls;
+    }
+    List<String> healthy = new ArrayList<>(gwUrls.size());
+    List<String> rest = new ArrayList<>();
+    for (String gw : gwUrls) {
+      (isHealthy(gw) && !unavailable.test(gw) ? healthy : rest).add(gw);
+    }
+    healthy.sort(Comparator.comparingDouble(this::latencyNanos));
+    healthy.addAll(rest);
+    return healthy;
+  }
+
+  /** Average latency, or 0 for a gateway without calls yet. */
+  double latencyNanos(String gwUrl) {
+    Entry e = entries.get(gwUrl);
+    if (e == null) {
+      return 0;
+    }
+    synchronized (e) {
+      return e.latencyNanos;
+    }
+  }
+
+  double errorRate(String gwUrl) {
+    Entry e = entries.get(gwUrl);
+    if (e == null) {
+      return 0;
+    }
+    synchronized (e) {
+      return e.errorRate;
+    }
+  }
+
+  /** 95th percentile of recent latencies, or -1 until there are enough calls to tell. */
+  long p95Nanos(String gwUrl) {
+    Entry e = entries.get(gwUrl);
+    if (e == null) {
+      return -1;
+    }
+    long[] recent;
+    synchronized (e) {
+      if (e.samples < MIN_SAMPLES_FOR_P95) {
+        return -1;
+      }
+      recent = Arrays.copyOf(e.window, (int) Math.min(e.samples, WINDOW));
+    }
+    Arrays.sort(recent);
+    return recent[(int) Math.ceil(recent.length * 0.95) - 1];
+  }
+
+  Set<String> gateways() {
+    return entries.keySet();
+  }
+
+  void clear() {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+}
@@ -0,0 +1,194 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link CredentialResolver.HttpTransport} backed by a single shared {@link HttpClient}.
+ *
+ * Unlike the HttpURLConnection transport, connections stay open between calls, so auth and
+ * get-secret-value requests reuse TCP and TLS sessions to the gateway. HTTP/2 is negotiated
+ * over TLS when the gateway supports it. At most {@code maxConnections} requests are in flight
+ * at once, which bounds the number of HTTP/1.1 connections the client opens.
+ *
+ * The read timeout covers the whole response, body included, so a gateway that stalls half way
+ * through a body cannot hold a connection slot for longer. Bodies are streamed into the parser
+ * as they arrive, never buffered whole.
+ */
+final class HttpClientTransport implements CredentialResolver.HttpTransport, AutoCloseable {
+  private static final JSON JSON_STD = JSON.std;
+
+  // Closes response streams still open at their read deadline, for all transports in the JVM
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "akeyless-http-timeout");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final HttpClient client;
+  private final ExecutorService executor;
+  private final Semaphore permits;
+  private final int maxConnections;
+  private final int readTimeoutMillis;
+  private final long maxResponseBytes;
+
+  HttpClientTransport(int connectTimeoutMillis, int readTimeoutMillis, int maxConnections, long maxResponseBytes) {
+    int max = Math.max(1, maxConnections);
+    AtomicInteger threadId = new AtomicInteger();
+    // Core size is the maximum: with an unbounded queue, a pool never grows past its core size
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(max, max, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread t = new Thread(r, "akeyless-http-" + threadId.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    pool.allowCoreThreadTimeOut(true);
+    this.executor = pool;
+    this.client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .executor(executor)
+        .build();
+    this.permits = new Semaphore(max, true);
+    this.maxConnections = max;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maxResponseBytes = maxResponseBytes;
+  }
+
+  @Override
+  public Map<String, Object> postJson(String url, Object payload) throws Exception {
+    return postJson(url, payload, null);
+  }
+
+  @Override
+  public Map<String, Object> postJson(String url, Object payload, ResponseReader reader) throws Exception {
+    byte[] body = payload == null ? new byte[0] : JSON_STD.asBytes(payload);
+    URI uri = URI.create(url);
+    long timeoutMillis = CredentialResolver.callTimeoutMillis(readTimeoutMillis);
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        // HTTP/2 is negotiated through TLS ALPN; a cleartext h2c upgrade attempt would defeat keep-alive
+        .version("https".equalsIgnoreCase(uri.getScheme()) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .timeout(Duration.ofMillis(timeoutMillis))
+        .header("Content-Type", "application/json")
+        .header("Accept", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+        .build();
+    permits.acquire();
+    try {
+      long startNanos = System.nanoTime();
+      HttpResponse<InputStream> resp = await(client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()), timeoutMillis);
+      // The body is parsed as it arrives; closing the stream at the deadline ends a read that stalls
+      InputStream in = resp.body();
+      long leftMillis = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      AtomicBoolean timedOut = new AtomicBoolean();
+      ScheduledFuture<?> timer = TIMER.schedule(() -> {
+        timedOut.set(true);
+        closeQuietly(in);
+      }, Math.max(1L, leftMillis), TimeUnit.MILLISECONDS);
+      try (PushbackInputStream respBody = new PushbackInputStream(in)) {
+        int first = respBody.read();
+        if (first >= 0) {
+          respBody.unread(first);
+        }
+        try {
+          return CredentialResolver.readJsonResponse(url, resp.statusCode(), first < 0 ? null : respBody, reader, maxResponseBytes);
+        } finally {
+          drain(respBody);
+        }
+      } catch (IOException e) {
+        if (timedOut.get()) {
+          throw new HttpTimeoutException("Response not complete after " + timeoutMillis + " ms");
+        }
+        throw e;
+      } finally {
+        timer.cancel(false);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  // Waits for the response headers within the read timeout
+  private static <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> response, long timeoutMillis) throws Exception {
+    try {
+      return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new HttpTimeoutException("Response not complete after " + timeoutMillis + " ms");
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw e;
+    }
+  }
+
+  // The rest of the body is read so the connection goes back to the client's keep-alive pool;
+  // closing a partially consumed stream would drop it. Past the response size limit it is dropped.
+  private void drain(InputStream in) {
+    byte[] buf = new byte[8192];
+    try {
+      for (long left = maxResponseBytes; left > 0; ) {
+        int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+        if (n < 0) {
+          return;
+        }
+        left -= n;
+      }
+    } catch (IOException e) {
+      // the connection is closed with the stream
+    } finally {
+      Arrays.fill(buf, (byte) 0);
+    }
+  }
+
+  private static void closeQuietly(InputStream in) {
+    try {
+      in.close();
+    } catch (IOException e) {
+      // closing only cancels the exchange
+    }
+  }
+
+  /** Requests currently holding a connection slot. */
+  int inFlight() {
+    return maxConnections - permits.availablePermits();
+  }
+
+  /** Requests waiting for a connection slot. */
+  int queued() {
+    return permits.getQueueLength();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,107 @@
+package com.snc.discovery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes {@link SimpleResolverMetrics} as one read-only MBean,
+ * {@code com.snc.discovery:type=AkeylessCredentialResolver}, with an attribute per metric name.
+ * Attributes appear as the metrics are first recorded.
+ */
+final class JmxMetricsExporter implements DynamicMBean {
+  private static final Log LOG = LogFactory.getLog(JmxMetricsExporter.class);
+  static final String OBJECT_NAME = "com.snc.discovery:type=AkeylessCredentialResolver";
+
+  private final SimpleResolverMetrics metrics;
+
+  private JmxMetricsExporter(SimpleResolverMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Registers {@code metrics} with the platform MBean server, replacing an earlier registration. */
+  static void register(SimpleResolverMetrics metrics) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(new JmxMetricsExporter(metrics), name);
+    } catch (InstanceAlreadyExistsException e) {
+      LOG.warn("Akeyless resolver: metrics MBean registered concurrently, not exporting: " + e.getMessage());
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: failed to register metrics MBean: " + e.getMessage());
+    }
+  }
+
+  static void unregister() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: failed to unregister metrics MBean: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Long v = metrics.snapshot().get(attribute);
+    if (v == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return v;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Long> snapshot = metrics.snapshot();
+    AttributeList out = new AttributeList();
+    for (String a : attributes) {
+      Long v = snapshot.get(a);
+      if (v != null) out.add(new Attribute(a, v));
+    }
+    return out;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException(actionName);
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attrs = new ArrayList<>();
+    for (String name : metrics.snapshot().keySet()) {
+      attrs.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+    }
+    return new MBeanInfo(JmxMetricsExporter.class.getName(), "Akeyless credential resolver metrics",
+        attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+  }
+}
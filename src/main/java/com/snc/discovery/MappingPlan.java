@@ -0,0 +1,109 @@
+package com.snc.discovery;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The JSON-field to ServiceNow-field mapping of one credential type, with the
+ * {@code ext.cred.akeyless.map.*} overrides already applied.
+ */
+final class MappingPlan {
+  private final String[] snFields;
+  private final String[] jsonFields;
+
+  private MappingPlan(String... pairs) {
+    snFields = new String[pairs.length / 2];
+    jsonFields = new String[pairs.length / 2];
+    for (int i = 0; i < snFields.length; i++) {
+      snFields[i] = pairs[2 * i];
+      jsonFields[i] = pairs[2 * i + 1];
+    }
+  }
+
+  static MappingPlan compile(String snType, String fUser, String fPass, String fPk, String fPhr) {
+    switch (snType.toLowerCase(Locale.ROOT)) {
+      case "windows":
+      case "basic":
+      case "ssh_password":
+      case "vmware":
+      case "jdbc":
+      case "jms":
+        return new MappingPlan(
+            "username", fUser,
+            "password", fPass);
+
+      case "ssh_private_key":
+        return new MappingPlan(
+            "username",    fUser,
+            "private_key", fPk,
+            "passphrase",  fPhr);
+
+      case "snmpv3":
+        // Example JSON:
+        // {"username":"u","auth_protocol":"SHA","auth_key":"...","privacy_protocol":"AES","privacy_key":"..."}
+        return new MappingPlan(
+            "username",         fUser,
+            "auth-protocol",    "auth_protocol",
+            "auth-key",         "auth_key",
+            "privacy-protocol", "privacy_protocol",
+            "privacy-key",      "privacy_key");
+
+      default:
+        // Best effort for custom credential types: username/password if present
+        return new MappingPlan(
+            "username", fUser,
+            "password", fPass);
+    }
+  }
+
+  /** Maps {@code value} to ServiceNow credential fields. */
+  Map<String, String> apply(SecretValue value) {
+    if (value.isEmpty()) {
+      return new HashMap<>();
+    }
+    if (!value.isStructured()) {
+      // Treat raw value as a single secret (password/token)
+      Map<String, String> out = new HashMap<>(2);
+      out.put("password", value.text());
+      return out;
+    }
+    Map<String, String> out = new HashMap<>(snFields.length * 2);
+    for (int i = 0; i < snFields.length; i++) {
+      String v = value.field(jsonFields[i]);
+      if (v != null) out.put(snFields[i], v);
+    }
+    return out;
+  }
+
+  /** Plans for every credential type seen so far, compiled once per configuration snapshot. */
+  static final class Cache {
+    // ServiceNow only sends a handful of distinct types; the bound guards against junk input
+    private static final int MAX_TYPES = 256;
+
+    private final ConcurrentHashMap<String, MappingPlan> byType = new ConcurrentHashMap<>();
+    private final String fUser;
+    private final String fPass;
+    private final String fPk;
+    private final String fPhr;
+
+    Cache(String fUser, String fPass, String fPk, String fPhr) {
+      this.fUser = fUser;
+      this.fPass = fPass;
+      this.fPk = fPk;
+      this.fPhr = fPhr;
+    }
+
+    MappingPlan forType(String snType) {
+      MappingPlan plan = byType.get(snType);
+      if (plan == null) {
+        plan = compile(snType, fUser, fPass, fPk, fPhr);
+        if (byType.size() < MAX_TYPES) {
+          byType.putIfAbsent(snType, plan);
+        }
+      }
+      return plan;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.snc.discovery;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads MID properties through {@code com.service_now.mid.services.Config}.
+ *
+ * The Config class and its methods are looked up once; outside the MID (unit tests, local runs)
+ * the class is absent and lookups go straight to system properties and environment variables.
+ */
+final class MidProperties {
+  private static final Log LOG = LogFactory.getLog(MidProperties.class);
+
+  private static final MethodHandle CONFIG_GET;          // Config.get()
+  private static final MethodHandle CONFIG_GET_PROPERTY; // Config#getProperty(String)
+
+  static {
+    MethodHandle get = null;
+    MethodHandle getProperty = null;
+    try {
+      Class<?> c = Class.forName("com.service_now.mid.services.Config");
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      get = lookup.unreflect(c.getMethod("get"))
+          .asType(MethodType.methodType(Object.class));
+      getProperty = lookup.unreflect(c.getMethod("getProperty", String.class))
+          .asType(MethodType.methodType(Object.class, Object.class, String.class));
+    } catch (ClassNotFoundException e) {
+      // not running inside a MID
+    } catch (Throwable t) {
+      LOG.warn("Akeyless resolver: MID Config not usable, falling back to system properties: " + t);
+    }
+    CONFIG_GET = get;
+    CONFIG_GET_PROPERTY = getProperty;
+  }
+
+  private MidProperties() {
+  }
+
+  static String get(String name, String dflt) {
+    if (CONFIG_GET != null) {
+      try {
+        Object cfg = CONFIG_GET.invoke();
+        String v = (String) CONFIG_GET_PROPERTY.invoke(cfg, name);
+        if (v == null) v = (String) CONFIG_GET_PROPERTY.invoke(cfg, "mid.property." + name);
+        return v != null ? v : dflt;
+      } catch (Throwable t) {
+        // fall through to sysprops/env, as when running outside the MID
+      }
+    }
+    String v = System.getProperty(name);
+    if (v == null) v = System.getenv(name.replace('.', '_').toUpperCase());
+    return v != null ? v : dflt;
+  }
+
+  static long getLong(String name, long dflt) {
+    String v = get(name, null);
+    if (v == null || v.trim().isEmpty()) return dflt;
+    try {
+      return Long.parseLong(v.trim());
+    } catch (NumberFormatException e) {
+      LOG.warn("Akeyless resolver: ignoring non-numeric value for " + name + ": " + v);
+      return dflt;
+    }
+  }
+
+  static boolean getBoolean(String name, boolean dflt) {
+    String v = get(name, null);
+    return v == null || v.trim().isEmpty() ? dflt : Boolean.parseBoolean(v.trim());
+  }
+}
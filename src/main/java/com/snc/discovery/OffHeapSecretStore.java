@@ -0,0 +1,108 @@
+package com.snc.discovery;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Secret values stored outside the Java heap, in one direct buffer allocated up front.
+ *
+ * The buffer is split into {@value #BLOCK}-byte blocks and each value takes a contiguous run of
+ * them, in the compact encoding of {@link SecretValue#writeCompactTo}. The buffer never grows, so
+ * the budget is fixed. Freed blocks are zeroed at once rather than left for the GC, and reads
+ * copy the value back onto the heap only for the caller that needs it.
+ *
+ * Not thread-safe: {@link SecretCache} calls it under its own lock.
+ */
+final class OffHeapSecretStore {
+  static final int BLOCK = 64;
+
+  private final ByteBuffer slab;
+  private final int blocks;
+  private final BitSet used;
+  private int usedBlocks;
+
+  OffHeapSecretStore(long maxBytes) {
+    blocks = (int) Math.max(1L, Math.min(maxBytes, Integer.MAX_VALUE - BLOCK) / BLOCK);
+    slab = ByteBuffer.allocateDirect(blocks * BLOCK);
+    used = new BitSet(blocks);
+  }
+
+  /** Whether a value of {@code size} bytes could be stored once the store is empty. */
+  boolean fits(int size) {
+    return blocksFor(size) <= blocks;
+  }
+
+  /**
+   * Stores {@code value} and returns its handle, or -1 when no run of free blocks is long enough;
+   * the caller frees older entries and tries again.
+   */
+  long put(SecretValue value) {
+    int size = value.compactSize();
+    int n = blocksFor(size);
+    int start = findRun(n);
+    if (start < 0) {
+      return -1;
+    }
+    ByteBuffer out = slab.duplicate();
+    out.limit(start * BLOCK + size).position(start * BLOCK);
+    value.writeCompactTo(out);
+    used.set(start, start + n);
+    usedBlocks += n;
+    return ((long) start << 32) | size;
+  }
+
+  /** A heap copy of the value stored under {@code handle}, owned by the caller. */
+  SecretValue get(long handle) {
+    int start = (int) (handle >>> 32);
+    int size = (int) handle;
+    ByteBuffer in = slab.duplicate();
+    in.limit(start * BLOCK + size).position(start * BLOCK);
+    return SecretValue.readCompactFrom(in);
+  }
+
+  /** Zeroes the blocks of {@code handle} and makes them available again. */
+  void free(long handle) {
+    int start = (int) (handle >>> 32);
+    int n = blocksFor((int) handle);
+    zero(start * BLOCK, (start + n) * BLOCK);
+    used.clear(start, start + n);
+    usedBlocks -= n;
+  }
+
+  /** Zeroes the whole buffer and frees every block. */
+  void clear() {
+    zero(0, blocks * BLOCK);
+    used.clear();
+    usedBlocks = 0;
+  }
+
+  long usedBytes() {
+    return (long) usedBlocks * BLOCK;
+  }
+
+  long capacityBytes() {
+    return (long) blocks * BLOCK;
+  }
+
+  private static int blocksFor(int size) {
+    return Math.max(1, (size + BLOCK - 1) / BLOCK);
+  }
+
+  // First fit: the lowest run of n free blocks, or -1
+  private int findRun(int n) {
+    for (int i = used.nextClearBit(0); i + n <= blocks; ) {
+      int next = used.nextSetBit(i);
+      if (next < 0 || next - i >= n) {
+        return i;
+      }
+      i = used.nextClearBit(next);
+    }
+    return -1;
+  }
+
+  private void zero(int from, int to) {
+    int p = from;
+    for (; p + 8 <= to; p += 8) slab.putLong(p, 0L);
+    for (; p < to; p++) slab.put(p, (byte) 0);
+  }
+}
@@ -0,0 +1,253 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Learns when credentials are used and fetches them into the secret cache shortly before their
+ * next expected use.
+ *
+ * Discovery resolves the same credential IDs and types once per schedule run. Accesses closer
+ * together than {@link #RUN_GAP_MILLIS} count as one run; the time between run starts is
+ * averaged per ID and type. Once the next run is less than {@code leadMillis} away, its secret
+ * paths are handed to the warm callback in one batch. The history is bounded to
+ * {@code maxEntries}, least recently used first out, and kept in a small JSON file so that
+ * predictions survive a MID restart. The file holds secret paths and timings, never values.
+ *
+ * Recording an access only locks its own entry. The file is rewritten when a new credential
+ * appears or a run starts, not for every access within a run.
+ */
+final class PreWarmer {
+  private static final Log LOG = LogFactory.getLog(PreWarmer.class);
+  private static final JSON JSON_STD = JSON.std;
+
+  // Accesses of one ID and type closer together than this belong to the same schedule run
+  static final long RUN_GAP_MILLIS = 10 * 60_000L;
+
+  interface Warmer {
+    void warm(List<String> secretPaths) throws Exception;
+  }
+
+  private static final class Usage {
+    final String id;
+    final String type;
+    long count;
+    long runStartMillis;
+    long lastAccessMillis;
+    long periodMillis; // 0 until a second run has been seen
+    long warmedForMillis; // predicted run start the entry was last warmed for
+
+    Usage(String id, String type) {
+      this.id = id;
+      this.type = type;
+    }
+
+    long nextRunMillis() {
+      return periodMillis > 0 ? runStartMillis + periodMillis : 0L;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Usage> usage = new ConcurrentHashMap<>();
+  private final Object evictLock = new Object();
+  private final int maxEntries;
+  private final long leadMillis;
+  private final File file;
+  private final LongSupplier clock;
+  private volatile boolean dirty;
+  private ScheduledExecutorService scheduler;
+
+  PreWarmer(int maxEntries, long leadMillis, File file, LongSupplier clock) {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.leadMillis = leadMillis;
+    this.file = file;
+    this.clock = clock;
+  }
+
+  /** Loads the persisted history and checks for due credentials every {@code intervalMillis}. */
+  synchronized void start(long intervalMillis, Warmer warmer) {
+    if (scheduler != null) return;
+    load();
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "akeyless-prewarm");
+      t.setDaemon(true);
+      return t;
+    });
+    long period = Math.max(1_000L, intervalMillis);
+    scheduler.scheduleWithFixedDelay(() -> tick(warmer), period, period, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  void record(String id, String type) {
+    long now = clock.getAsLong();
+    String key = id + '\0' + type;
+    Usage u = usage.get(key);
+    boolean added = false;
+    if (u == null) {
+      Usage fresh = new Usage(id, type);
+      u = usage.putIfAbsent(key, fresh);
+      if (u == null) {
+        u = fresh;
+        added = true;
+      }
+    }
+    boolean runStarted = false;
+    synchronized (u) {
+      if (u.count == 0 || now - u.lastAccessMillis > RUN_GAP_MILLIS) {
+        if (u.count > 0) {
+          long interval = now - u.runStartMillis;
+          u.periodMillis = u.periodMillis == 0 ? interval : (3 * u.periodMillis + interval) / 4;
+        }
+        u.runStartMillis = now;
+        runStarted = true;
+      }
+      u.count++;
+      u.lastAccessMillis = now;
+    }
+    if (added) {
+      evictOverflow();
+    }
+    if (runStarted && !dirty) {
+      dirty = true;
+    }
+  }
+
+  /** Secret paths whose next run starts within the lead time and that were not warmed for it yet. */
+  List<String> due() {
+    long now = clock.getAsLong();
+    Set<String> paths = new TreeSet<>();
+    for (Usage u : usage.values()) {
+      synchronized (u) {
+        long next = u.nextRunMillis();
+        if (next == 0 || u.warmedForMillis == next) continue;
+        // A run that already started without being warmed is left alone
+        if (now >= next - leadMillis && now < next) {
+          paths.add(u.id);
+          u.warmedForMillis = next;
+        }
+      }
+    }
+    return new ArrayList<>(paths);
+  }
+
+  void tick(Warmer warmer) {
+    List<String> paths = due();
+    if (!paths.isEmpty()) {
+      try {
+        warmer.warm(paths);
+        LOG.info("Akeyless resolver: pre-warmed " + paths.size() + " secret paths");
+      } catch (Exception e) {
+        LOG.warn("Akeyless resolver: pre-warming " + paths.size() + " secret paths failed: " + e.getMessage());
+      }
+    }
+    save();
+  }
+
+  int size() {
+    return usage.size();
+  }
+
+  synchronized void save() {
+    if (!dirty || file == null) return;
+    // Cleared first so that a run starting while the file is written marks it again
+    dirty = false;
+    List<Map<String, Object>> rows = new ArrayList<>(usage.size());
+    for (Usage u : usage.values()) {
+      Map<String, Object> row = new LinkedHashMap<>();
+      synchronized (u) {
+        row.put("id", u.id);
+        row.put("type", u.type);
+        row.put("count", u.count);
+        row.put("run_start", u.runStartMillis);
+        row.put("last_access", u.lastAccessMillis);
+        row.put("period", u.periodMillis);
+      }
+      rows.add(row);
+    }
+    try {
+      Path target = file.toPath();
+      Path dir = target.toAbsolutePath().getParent();
+      if (dir != null) Files.createDirectories(dir);
+      Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+      Files.write(tmp, JSON_STD.asBytes(rows));
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (Exception e) {
+      dirty = true;
+      LOG.warn("Akeyless resolver: failed to write pre-warm history " + file + ": " + e.getMessage());
+    }
+  }
+
+  synchronized void load() {
+    if (file == null || !file.isFile()) return;
+    try {
+      List<Object> rows = JSON_STD.listFrom(file);
+      for (Object o : rows) {
+        if (!(o instanceof Map)) continue;
+        Map<?, ?> row = (Map<?, ?>) o;
+        String id = CredentialResolver.asString(row.get("id"));
+        String type = CredentialResolver.asString(row.get("type"));
+        if (id == null || type == null) continue;
+        Usage u = new Usage(id, type);
+        u.count = asLong(row.get("count"));
+        u.runStartMillis = asLong(row.get("run_start"));
+        u.lastAccessMillis = asLong(row.get("last_access"));
+        u.periodMillis = asLong(row.get("period"));
+        usage.putIfAbsent(id + '\0' + type, u);
+      }
+      evictOverflow();
+    } catch (Exception e) {
+      LOG.warn("Akeyless resolver: ignoring unreadable pre-warm history " + file + ": " + e.getMessage());
+    }
+  }
+
+  private static long asLong(Object v) {
+    return v instanceof Number ? ((Number) v).longValue() : 0L;
+  }
+
+  // Drops the least recently used entries past maxEntries; only runs when an entry was added
+  private void evictOverflow() {
+    synchronized (evictLock) {
+      while (usage.size() > maxEntries) {
+        String eldest = null;
+        long eldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<String, Usage> e : usage.entrySet()) {
+          Usage u = e.getValue();
+          long access;
+          synchronized (u) {
+            access = u.lastAccessMillis;
+          }
+          if (access < eldestAccess) {
+            eldest = e.getKey();
+            eldestAccess = access;
+          }
+        }
+        if (eldest == null) return;
+        usage.remove(eldest);
+        dirty = true;
+      }
+    }
+  }
+}
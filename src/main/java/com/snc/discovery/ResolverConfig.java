@@ -0,0 +1,275 @@
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the resolver's MID properties.
+ *
+ * {@link #current()} reuses one snapshot for {@code ext.cred.akeyless.config.refresh_seconds}
+ * and then reads the properties again, so resolve() does not go through the MID Config on
+ * every call. A refresh interval of 0 reads them on every call.
+ */
+final class ResolverConfig {
+
+  private static volatile ResolverConfig current;
+
+  final long loadedAtMillis;
+  final long refreshMillis;
+
+  // Gateway and Akeyless identity
+  final String gwUrl; // the first of gwUrls
+  final List<String> gwUrls;
+  final String accessType;
+  final String accessId; // null when not configured; reported when a fetch needs it
+  final String accessKey;
+
+  // JSON field mapping overrides
+  final String fieldUser;
+  final String fieldPass;
+  final String fieldPrivateKey;
+  final String fieldPassphrase;
+  final MappingPlan.Cache mappingPlans;
+
+  // Dynamic secrets: paths under these prefixes are issued by get-dynamic-secret-value
+  final List<String> dynamicPathPrefixes;
+  final long dynamicDefaultLeaseMillis;
+  final long dynamicMinRemainingMillis;
+  final String dynamicFieldUser;
+  final MappingPlan.Cache dynamicMappingPlans;
+
+  // Target-based routing rules, inline and from a file (see RoutingRules)
+  final String routingRules;
+  final String routingFile;
+
+  final long cloudIdTtlMillis;
+  final long cloudIdTimeoutMillis;
+
+  final boolean tokenCacheEnabled;
+  final long tokenTtlMillis;
+
+  final boolean cacheEnabled;
+  final long cacheTtlMillis;
+  final int cacheMaxEntries;
+  final long cacheNegativeTtlMillis;
+  final long cacheStaleTtlMillis;
+  final long cacheOffHeapBytes; // 0 keeps cached values on the heap
+  final boolean diskCacheEnabled;
+  final String diskCacheFile;
+  final int diskCacheMaxBytes;
+  final String diskCacheKey;
+
+  // Version checks refresh cached values, so they are off whenever the cache is
+  final boolean versionRefreshEnabled;
+  final long versionRefreshIntervalMillis;
+  final long versionRefreshMinTtlMillis;
+  final long versionRefreshMaxTtlMillis;
+
+  // Pre-warming needs the secret cache, so it is off whenever the cache is
+  final boolean prewarmEnabled;
+  final int prewarmMaxEntries;
+  final long prewarmLeadMillis;
+  final long prewarmIntervalMillis;
+  final String prewarmFile;
+
+  final long apiReprobeMillis;
+
+  final boolean coalesceEnabled;
+  final int batchMaxNames;
+
+  final boolean limiterEnabled;
+  final int limiterInitial;
+  final int limiterMin;
+  final int limiterMax;
+  final int limiterMaxQueue;
+  final long limiterQueueTimeoutMillis;
+  final long limiterLatencyThresholdMillis;
+  final boolean limiterFailFast;
+
+  final boolean hedgeEnabled;
+  final long hedgeMinDelayMillis;
+
+  final int retryMaxAttempts;
+  final long retryBaseDelayMillis;
+  final long retryMaxDelayMillis;
+  final long retryDeadlineMillis;
+  final boolean breakerEnabled;
+  final int breakerFailureThreshold;
+  final long breakerOpenMillis;
+
+  final String httpTransport;
+  final int httpConnectTimeoutMillis;
+  final int httpReadTimeoutMillis;
+  final int httpMaxConnections;
+  final long httpMaxResponseBytes;
+
+  final boolean asyncVirtualThreads;
+  final int asyncMaxThreads;
+  final int asyncMaxQueue;
+
+  final boolean metricsEnabled;
+  final boolean metricsJmx;
+
+  final boolean auditEnabled;
+  final int auditBufferSize;
+  final int auditSamplePercent;
+  final int auditMaxPerSecond;
+  final long auditFlushMillis;
+
+  private ResolverConfig(long now) {
+    loadedAtMillis = now;
+    refreshMillis = MidProperties.getLong("ext.cred.akeyless.config.refresh_seconds", 60L) * 1000L;
+
+    gwUrls = splitUrls(MidProperties.get("ext.cred.akeyless.gw_url", envOr("AKEYLESS_GW_URL", "https://api.akeyless.io")));
+    gwUrl = gwUrls.get(0);
+    accessType = MidProperties.get("ext.cred.akeyless.access_type", envOr("AKEYLESS_ACCESS_TYPE", "access_key"));
+    accessId = MidProperties.get("ext.cred.akeyless.access_id", envOr("AKEYLESS_ACCESS_ID", null));
+    accessKey = MidProperties.get("ext.cred.akeyless.access_key", envOr("AKEYLESS_ACCESS_KEY", null));
+
+    fieldUser = MidProperties.get("ext.cred.akeyless.map.username", "username");
+    fieldPass = MidProperties.get("ext.cred.akeyless.map.password", "password");
+    fieldPrivateKey = MidProperties.get("ext.cred.akeyless.map.private_key", "private_key");
+    fieldPassphrase = MidProperties.get("ext.cred.akeyless.map.passphrase", "passphrase");
+    mappingPlans = new MappingPlan.Cache(fieldUser, fieldPass, fieldPrivateKey, fieldPassphrase);
+
+    dynamicPathPrefixes = splitList(MidProperties.get("ext.cred.akeyless.dynamic.path_prefixes", ""));
+    dynamicDefaultLeaseMillis = MidProperties.getLong("ext.cred.akeyless.dynamic.default_lease_seconds", 3600L) * 1000L;
+    dynamicMinRemainingMillis = MidProperties.getLong("ext.cred.akeyless.dynamic.min_remaining_seconds", 60L) * 1000L;
+    // Database producers return the temporary account as "user"
+    dynamicFieldUser = MidProperties.get("ext.cred.akeyless.dynamic.map.username", "user");
+    dynamicMappingPlans = new MappingPlan.Cache(dynamicFieldUser, fieldPass, fieldPrivateKey, fieldPassphrase);
+
+    routingRules = MidProperties.get("ext.cred.akeyless.routing.rules", "");
+    routingFile = MidProperties.get("ext.cred.akeyless.routing.file", "");
+
+    cloudIdTtlMillis = MidProperties.getLong("ext.cred.akeyless.cloud_id.ttl_seconds", 300L) * 1000L;
+    cloudIdTimeoutMillis = MidProperties.getLong("ext.cred.akeyless.cloud_id.timeout_ms", 10_000L);
+
+    tokenCacheEnabled = MidProperties.getBoolean("ext.cred.akeyless.token.cache.enabled", true);
+    tokenTtlMillis = Math.max(1L, MidProperties.getLong("ext.cred.akeyless.token.ttl_seconds", 600L)) * 1000L;
+
+    cacheEnabled = MidProperties.getBoolean("ext.cred.akeyless.cache.enabled", false);
+    cacheTtlMillis = MidProperties.getLong("ext.cred.akeyless.cache.ttl_seconds", 300L) * 1000L;
+    cacheMaxEntries = (int) MidProperties.getLong("ext.cred.akeyless.cache.max_entries", 1000L);
+    cacheNegativeTtlMillis = MidProperties.getLong("ext.cred.akeyless.cache.negative_ttl_seconds", 30L) * 1000L;
+    cacheStaleTtlMillis = Math.max(0L, MidProperties.getLong("ext.cred.akeyless.cache.stale_ttl_seconds", 0L) * 1000L);
+    cacheOffHeapBytes = MidProperties.getBoolean("ext.cred.akeyless.cache.off_heap.enabled", false)
+        ? Math.max(OffHeapSecretStore.BLOCK, MidProperties.getLong("ext.cred.akeyless.cache.off_heap.max_bytes", 16L * 1024 * 1024))
+        : 0L;
+    diskCacheEnabled = cacheEnabled && MidProperties.getBoolean("ext.cred.akeyless.cache.disk.enabled", false);
+    diskCacheFile = MidProperties.get("ext.cred.akeyless.cache.disk.file", "work/akeyless-cache.bin");
+    diskCacheMaxBytes = (int) Math.min(Integer.MAX_VALUE, MidProperties.getLong("ext.cred.akeyless.cache.disk.max_bytes", 8L * 1024 * 1024));
+    diskCacheKey = MidProperties.get("ext.cred.akeyless.cache.disk.key", "");
+
+    versionRefreshEnabled = cacheEnabled && "version".equalsIgnoreCase(MidProperties.get("ext.cred.akeyless.cache.refresh.mode", "ttl").trim());
+    versionRefreshIntervalMillis = MidProperties.getLong("ext.cred.akeyless.cache.refresh.interval_seconds", 60L) * 1000L;
+    versionRefreshMinTtlMillis = MidProperties.getLong("ext.cred.akeyless.cache.refresh.min_ttl_seconds", 60L) * 1000L;
+    versionRefreshMaxTtlMillis = MidProperties.getLong("ext.cred.akeyless.cache.refresh.max_ttl_seconds", 3600L) * 1000L;
+
+    prewarmEnabled = cacheEnabled && MidProperties.getBoolean("ext.cred.akeyless.prewarm.enabled", false);
+    prewarmMaxEntries = (int) MidProperties.getLong("ext.cred.akeyless.prewarm.max_entries", 500L);
+    prewarmLeadMillis = MidProperties.getLong("ext.cred.akeyless.prewarm.lead_seconds", 120L) * 1000L;
+    prewarmIntervalMillis = MidProperties.getLong("ext.cred.akeyless.prewarm.interval_seconds", 30L) * 1000L;
+    prewarmFile = MidProperties.get("ext.cred.akeyless.prewarm.file", "work/akeyless-prewarm.json");
+
+    apiReprobeMillis = MidProperties.getLong("ext.cred.akeyless.api.reprobe_seconds", 3600L) * 1000L;
+
+    coalesceEnabled = MidProperties.getBoolean("ext.cred.akeyless.coalesce.enabled", true);
+    batchMaxNames = (int) Math.max(1L, MidProperties.getLong("ext.cred.akeyless.batch.max_names", 100L));
+
+    limiterEnabled = MidProperties.getBoolean("ext.cred.akeyless.limiter.enabled", false);
+    limiterInitial = (int) MidProperties.getLong("ext.cred.akeyless.limiter.initial", 20L);
+    limiterMin = (int) MidProperties.getLong("ext.cred.akeyless.limiter.min", 2L);
+    limiterMax = (int) MidProperties.getLong("ext.cred.akeyless.limiter.max", 100L);
+    limiterMaxQueue = (int) MidProperties.getLong("ext.cred.akeyless.limiter.max_queue", 500L);
+    limiterQueueTimeoutMillis = MidProperties.getLong("ext.cred.akeyless.limiter.queue_timeout_ms", 10_000L);
+    limiterLatencyThresholdMillis = MidProperties.getLong("ext.cred.akeyless.limiter.latency_threshold_ms", 2_000L);
+    limiterFailFast = MidProperties.getBoolean("ext.cred.akeyless.limiter.fail_fast", false);
+
+    hedgeEnabled = MidProperties.getBoolean("ext.cred.akeyless.gateway.hedge.enabled", true);
+    hedgeMinDelayMillis = MidProperties.getLong("ext.cred.akeyless.gateway.hedge.min_delay_ms", 50L);
+
+    retryMaxAttempts = (int) Math.max(1L, MidProperties.getLong("ext.cred.akeyless.retry.max_attempts", 3L));
+    retryBaseDelayMillis = MidProperties.getLong("ext.cred.akeyless.retry.base_delay_ms", 100L);
+    retryMaxDelayMillis = MidProperties.getLong("ext.cred.akeyless.retry.max_delay_ms", 2_000L);
+    retryDeadlineMillis = MidProperties.getLong("ext.cred.akeyless.retry.deadline_ms", 60_000L);
+    breakerEnabled = MidProperties.getBoolean("ext.cred.akeyless.breaker.enabled", false);
+    breakerFailureThreshold = (int) MidProperties.getLong("ext.cred.akeyless.breaker.failure_threshold", 5L);
+    breakerOpenMillis = MidProperties.getLong("ext.cred.akeyless.breaker.open_seconds", 30L) * 1000L;
+
+    httpTransport = MidProperties.get("ext.cred.akeyless.http.transport", "urlconnection");
+    httpConnectTimeoutMillis = (int) MidProperties.getLong("ext.cred.akeyless.http.connect_timeout_ms", 15_000L);
+    httpReadTimeoutMillis = (int) MidProperties.getLong("ext.cred.akeyless.http.read_timeout_ms", 30_000L);
+    httpMaxConnections = (int) MidProperties.getLong("ext.cred.akeyless.http.max_connections", 20L);
+    httpMaxResponseBytes = MidProperties.getLong("ext.cred.akeyless.http.max_response_bytes", 4L * 1024 * 1024);
+
+    asyncVirtualThreads = MidProperties.getBoolean("ext.cred.akeyless.async.virtual_threads", true);
+    asyncMaxThreads = (int) MidProperties.getLong("ext.cred.akeyless.async.max_threads", 64L);
+    asyncMaxQueue = (int) MidProperties.getLong("ext.cred.akeyless.async.max_queue", 10_000L);
+
+    metricsEnabled = MidProperties.getBoolean("ext.cred.akeyless.metrics.enabled", false);
+    metricsJmx = MidProperties.getBoolean("ext.cred.akeyless.metrics.jmx", true);
+
+    auditEnabled = MidProperties.getBoolean("ext.cred.akeyless.audit.enabled", false);
+    auditBufferSize = (int) Math.min(1 << 20, Math.max(2L, MidProperties.getLong("ext.cred.akeyless.audit.buffer_size", 4096L)));
+    auditSamplePercent = (int) Math.min(100L, Math.max(0L, MidProperties.getLong("ext.cred.akeyless.audit.sample_percent", 100L)));
+    auditMaxPerSecond = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, MidProperties.getLong("ext.cred.akeyless.audit.max_per_second", 1000L)));
+    auditFlushMillis = Math.max(1L, MidProperties.getLong("ext.cred.akeyless.audit.flush_ms", 200L));
+  }
+
+  /** Whether {@code secretPath} is a dynamic secret, by {@code ext.cred.akeyless.dynamic.path_prefixes}. */
+  boolean isDynamic(String secretPath) {
+    for (String prefix : dynamicPathPrefixes) {
+      if (secretPath.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the current snapshot, reloading it once the refresh interval has passed. */
+  static ResolverConfig current() {
+    ResolverConfig c = current;
+    long now = System.currentTimeMillis();
+    if (c == null || now - c.loadedAtMillis >= c.refreshMillis) {
+      c = new ResolverConfig(now);
+      current = c;
+    }
+    return c;
+  }
+
+  /** Forces the next {@link #current()} call to read the MID properties again. */
+  static void invalidate() {
+    current = null;
+  }
+
+  // Comma-separated list of gateway URLs, in order of preference
+  private static List<String> splitUrls(String value) {
+    List<String> urls = new ArrayList<>();
+    for (String url : value.split(",")) {
+      url = url.trim();
+      if (!url.isEmpty() && !urls.contains(url)) {
+        urls.add(url);
+      }
+    }
+    return urls.isEmpty() ? Collections.singletonList("") : Collections.unmodifiableList(urls);
+  }
+
+  private static List<String> splitList(String value) {
+    List<String> items = new ArrayList<>();
+    for (String item : value.split(",")) {
+      item = item.trim();
+      if (!item.isEmpty()) {
+        items.add(item);
+      }
+    }
+    return Collections.unmodifiableList(items);
+  }
+
+  private static String envOr(String name, String dflt) {
+    String v = System.getProperty(name);
+    if (v == null || v.isEmpty()) v = System.getenv(name);
+    return v == null || v.isEmpty() ? dflt : v;
+  }
+}
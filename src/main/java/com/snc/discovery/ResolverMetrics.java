@@ -0,0 +1,61 @@
+package com.snc.discovery;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics facade for the resolver, so it can report to whatever the MID host already uses
+ * without depending on a metrics library. Install an implementation with
+ * {@link CredentialResolver#setMetrics(ResolverMetrics)}, or set
+ * {@code ext.cred.akeyless.metrics.enabled=true} to use the built-in one with its JMX exporter.
+ * The default does nothing.
+ */
+public interface ResolverMetrics {
+
+  // Latency phases
+  String PHASE_RESOLVE = "resolve";
+  String PHASE_CLOUD_ID = "cloud_id";
+  String PHASE_AUTH = "auth";
+  String PHASE_FETCH = "fetch";
+  String PHASE_MAPPING = "mapping";
+
+  // Counters; HTTP statuses are counted as "http.status.<code>"
+  String HTTP_STATUS_PREFIX = "http.status.";
+  String FALLBACK_AUTH = "fallback.auth_legacy";
+  String FALLBACK_GET_SECRET_VALUE = "fallback.get_secret_value_legacy";
+  String FALLBACK_GET_DYNAMIC_SECRET_VALUE = "fallback.get_dynamic_secret_value_legacy";
+  String FALLBACK_LIST_ITEMS = "fallback.list_items_legacy";
+  String TOKEN_REJECTED = "token.rejected";
+  String RESOLVE_ERRORS = "resolve.errors";
+  String CACHE_STALE_SERVED = "cache.stale_served";
+  String CACHE_REFRESH_ERRORS = "cache.refresh_errors";
+  String VERSION_CHECKED = "cache.version_checked";
+  String VERSION_CHANGED = "cache.version_changed";
+  String LIMITER_REJECTED = "limiter.rejected";
+  String RETRIES = "retry.attempts";
+  String BREAKER_REJECTED = "breaker.rejected";
+  String GATEWAY_FAILOVER = "gateway.failover";
+  String GATEWAY_HEDGED = "gateway.hedged";
+  String DYNAMIC_LEASES_ISSUED = "dynamic.leases_issued";
+
+  ResolverMetrics NOOP = new ResolverMetrics() {
+    @Override
+    public void recordLatency(String phase, long nanos) {
+    }
+
+    @Override
+    public void increment(String counter) {
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+    }
+  };
+
+  /** Records how long one occurrence of {@code phase} took. */
+  void recordLatency(String phase, long nanos);
+
+  void increment(String counter);
+
+  /** Registers a gauge; {@code value} is sampled whenever the metric is read. */
+  void gauge(String name, LongSupplier value);
+}
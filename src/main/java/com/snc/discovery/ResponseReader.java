@@ -0,0 +1,163 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads only the parts of a gateway response the resolver uses, with the streaming parser.
+ *
+ * {@link #TOKEN} keeps the {@code token} and {@code expiration} fields of an auth response. {@link #secrets} keeps the
+ * requested secrets of a get-secret-value response, whether the gateway puts them at the top
+ * level or under {@code secrets}, and returns them as {@code secrets -> name -> SecretValue}.
+ * Every other field is skipped without being materialized. {@link #DYNAMIC_SECRET} keeps the
+ * whole body of a get-dynamic-secret-value response, the issued credential, as {@code value}.
+ */
+final class ResponseReader {
+  private static final JsonFactory JSON_FACTORY = JSON.std.getStreamingFactory();
+
+  static final ResponseReader TOKEN = new ResponseReader(new HashSet<>(Arrays.asList("token", "expiration")), Collections.emptySet(), false);
+  static final ResponseReader DYNAMIC_SECRET = new ResponseReader(Collections.emptySet(), Collections.emptySet(), true);
+
+  private final Set<String> fields;
+  private final Set<String> secretNames;
+  private final boolean whole;
+
+  private ResponseReader(Set<String> fields, Set<String> secretNames, boolean whole) {
+    this.fields = fields;
+    this.secretNames = secretNames;
+    this.whole = whole;
+  }
+
+  static ResponseReader secrets(Collection<String> names) {
+    return new ResponseReader(Collections.emptySet(), new HashSet<>(names), false);
+  }
+
+  /** Returns the kept fields, or null when the body is not a JSON object. */
+  Map<String, Object> read(InputStream in) throws IOException {
+    try (JsonParser p = JSON_FACTORY.createParser(in)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      if (whole) {
+        return Collections.singletonMap("value", SecretValue.fromParser(p));
+      }
+      Map<String, Object> out = new HashMap<>(4);
+      Map<String, SecretValue> secrets = new HashMap<>(Math.max(4, secretNames.size() * 2));
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String name = p.currentName();
+        JsonToken t = p.nextToken();
+        if (fields.contains(name) && t.isScalarValue()) {
+          out.put(name, p.getValueAsString());
+        } else if (secretNames.contains(name)) {
+          putSecret(secrets, name, p);
+        } else if (t == JsonToken.START_OBJECT && "secrets".equals(name) && !secretNames.isEmpty()) {
+          while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String secretName = p.currentName();
+            p.nextToken();
+            if (secretNames.contains(secretName)) {
+              putSecret(secrets, secretName, p);
+            } else {
+              p.skipChildren();
+            }
+          }
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (!secretNames.isEmpty()) {
+        out.put("secrets", secrets);
+      }
+      return out;
+    }
+  }
+
+  private static void putSecret(Map<String, SecretValue> secrets, String name, JsonParser p) throws IOException {
+    SecretValue v = SecretValue.fromParser(p);
+    SecretValue previous = v != null ? secrets.put(name, v) : secrets.remove(name);
+    if (previous != null) previous.wipe();
+  }
+
+  /** At most {@code maxChars} of the body as text, for error messages. */
+  static String text(InputStream in, int maxChars) throws IOException {
+    Reader r = new InputStreamReader(in, StandardCharsets.UTF_8);
+    char[] buf = new char[maxChars];
+    int n = 0;
+    for (int read; n < maxChars && (read = r.read(buf, n, maxChars - n)) > 0; ) {
+      n += read;
+    }
+    return n == maxChars ? new String(buf, 0, n) + "..." : new String(buf, 0, n);
+  }
+
+  /**
+   * Fails reads past {@code maxBytes} with {@link TooLargeException}. Closing the returned stream
+   * leaves {@code in} open, so a transport can still drain it for connection reuse.
+   */
+  static InputStream limit(InputStream in, long maxBytes) {
+    return new BoundedInputStream(in, maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+  }
+
+  static final class TooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    TooLargeException(long maxBytes) {
+      super("Response is larger than " + maxBytes + " bytes");
+    }
+  }
+
+  private static final class BoundedInputStream extends FilterInputStream {
+    private final long maxBytes;
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long maxBytes) {
+      super(in);
+      this.maxBytes = maxBytes;
+      this.remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && --remaining < 0) {
+        throw new TooLargeException(maxBytes);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      // One byte past the limit tells a body of exactly maxBytes from a longer one
+      int n = super.read(b, off, (int) Math.min(len, remaining == Long.MAX_VALUE ? remaining : remaining + 1));
+      if (n > 0 && (remaining -= n) < 0) {
+        throw new TooLargeException(maxBytes);
+      }
+      return n;
+    }
+
+    @Override
+    public void close() {
+      // the transport owns the underlying stream
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      byte[] buf = new byte[(int) Math.max(0, Math.min(n, 8192))];
+      return Math.max(0, read(buf, 0, buf.length));
+    }
+  }
+}
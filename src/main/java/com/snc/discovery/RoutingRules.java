@@ -0,0 +1,307 @@
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiled routing rules that choose the Akeyless path from the target IP and the MID name.
+ *
+ * Each rule is one line: {@code <cidr or *> [mid=<name>] <path template>}, for example
+ * {@code 10.22.0.0/16 /prod/dc1/{type}}. Templates may use {@code {id}} (the credential id),
+ * {@code {type}}, {@code {ip}} and {@code {mid}}. Lines starting with {@code #} are comments.
+ *
+ * IPv4 and IPv6 prefixes go into binary prefix tries, so a lookup walks at most 32 or 128
+ * nodes however many rules there are. The longest matching prefix wins; at the same prefix a
+ * rule for the requesting MID wins over one for any MID. {@code *} rules apply when no prefix
+ * matches, including when the IP is missing. Instances are immutable.
+ */
+final class RoutingRules {
+
+  static final RoutingRules NONE = new RoutingRules(new Node(), new Node(), new Rule[0], 0);
+
+  private static final class Rule {
+    final String mid; // null for any MID
+    final String[] template; // literals at even indexes, placeholder names at odd ones
+
+    Rule(String mid, String[] template) {
+      this.mid = mid;
+      this.template = template;
+    }
+
+    boolean appliesTo(String requestMid) {
+      return mid == null || mid.equals(requestMid);
+    }
+  }
+
+  private static final class Node {
+    Node zero;
+    Node one;
+    Rule[] rules; // rules for exactly this prefix, MID-specific ones first
+  }
+
+  private final Node v4;
+  private final Node v6;
+  private final Rule[] anyIp;
+  private final int size;
+
+  private RoutingRules(Node v4, Node v6, Rule[] anyIp, int size) {
+    this.v4 = v4;
+    this.v6 = v6;
+    this.anyIp = anyIp;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Parses and compiles {@code text}, one rule per line or separated by {@code ;}. Throws
+   * IllegalArgumentException naming the first invalid rule; nothing is compiled then.
+   */
+  static RoutingRules compile(String text) {
+    Node v4 = new Node();
+    Node v6 = new Node();
+    List<Rule> anyIp = new ArrayList<>();
+    int size = 0;
+    for (String line : text.split("[;\\r\\n]+")) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] parts = line.split("\\s+");
+      if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[1].startsWith("mid="))) {
+        throw new IllegalArgumentException("Invalid routing rule '" + line + "': expected <cidr or *> [mid=<name>] <path template>");
+      }
+      String mid = parts.length == 3 ? parts[1].substring(4) : null;
+      if (mid != null && (mid.isEmpty() || mid.equals("*"))) {
+        mid = null;
+      }
+      Rule rule = new Rule(mid, parseTemplate(line, parts[parts.length - 1]));
+      if (parts[0].equals("*")) {
+        add(anyIp, rule);
+      } else {
+        insert(line, parts[0], v4, v6, rule);
+      }
+      size++;
+    }
+    return new RoutingRules(v4, v6, anyIp.toArray(new Rule[0]), size);
+  }
+
+  /** The secret path for a request, or null when no rule applies. */
+  String route(String id, String type, String ip, String mid) {
+    Rule rule = null;
+    byte[] addr = ip == null ? null : parseAddress(ip.trim());
+    if (addr != null) {
+      Node n = addr.length == 4 ? v4 : v6;
+      for (int bit = 0; n != null; bit++) {
+        Rule r = match(n.rules, mid);
+        if (r != null) rule = r;
+        if (bit == addr.length * 8) break;
+        n = (addr[bit >>> 3] & (0x80 >>> (bit & 7))) == 0 ? n.zero : n.one;
+      }
+    }
+    if (rule == null) {
+      rule = match(anyIp, mid);
+    }
+    return rule == null ? null : expand(rule.template, id, type, ip, mid);
+  }
+
+  private static Rule match(Rule[] rules, String mid) {
+    if (rules != null) {
+      for (Rule r : rules) {
+        if (r.appliesTo(mid)) return r;
+      }
+    }
+    return null;
+  }
+
+  private static void insert(String line, String cidr, Node v4, Node v6, Rule rule) {
+    int slash = cidr.indexOf('/');
+    byte[] addr = parseAddress(slash < 0 ? cidr : cidr.substring(0, slash));
+    if (addr == null) {
+      throw new IllegalArgumentException("Invalid routing rule '" + line + "': '" + cidr + "' is not an IP address or CIDR");
+    }
+    int bits = addr.length * 8;
+    int prefix;
+    try {
+      prefix = slash < 0 ? bits : Integer.parseInt(cidr.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      prefix = -1;
+    }
+    if (prefix < 0 || prefix > bits) {
+      throw new IllegalArgumentException("Invalid routing rule '" + line + "': bad prefix length in '" + cidr + "'");
+    }
+    Node n = addr.length == 4 ? v4 : v6;
+    for (int bit = 0; bit < prefix; bit++) {
+      if ((addr[bit >>> 3] & (0x80 >>> (bit & 7))) == 0) {
+        if (n.zero == null) n.zero = new Node();
+        n = n.zero;
+      } else {
+        if (n.one == null) n.one = new Node();
+        n = n.one;
+      }
+    }
+    List<Rule> rules = new ArrayList<>();
+    if (n.rules != null) {
+      for (Rule r : n.rules) rules.add(r);
+    }
+    add(rules, rule);
+    n.rules = rules.toArray(new Rule[0]);
+  }
+
+  // Keeps MID-specific rules ahead of rules for any MID; otherwise the first rule given wins
+  private static void add(List<Rule> rules, Rule rule) {
+    if (rule.mid == null) {
+      rules.add(rule);
+      return;
+    }
+    int i = 0;
+    while (i < rules.size() && rules.get(i).mid != null) i++;
+    rules.add(i, rule);
+  }
+
+  // An IPv4 or IPv6 literal; never a host name, so no DNS lookup can happen here
+  static byte[] parseAddress(String s) {
+    return s.indexOf(':') >= 0 ? parseIpv6(s) : parseIpv4(s);
+  }
+
+  private static byte[] parseIpv4(String s) {
+    byte[] out = new byte[4];
+    int octet = 0;
+    int value = -1;
+    for (int i = 0; i <= s.length(); i++) {
+      char c = i < s.length() ? s.charAt(i) : '.';
+      if (c >= '0' && c <= '9') {
+        value = (value < 0 ? 0 : value * 10) + (c - '0');
+        if (value > 255) return null;
+      } else if (c == '.' && value >= 0 && octet < 4) {
+        out[octet++] = (byte) value;
+        value = -1;
+      } else {
+        return null;
+      }
+    }
+    return octet == 4 ? out : null;
+  }
+
+  // Groups of up to four hex digits, at most one "::", optionally ending in an IPv4 address;
+  // brackets and a zone id are accepted and the zone id is ignored
+  private static byte[] parseIpv6(String s) {
+    if (s.startsWith("[") && s.endsWith("]")) s = s.substring(1, s.length() - 1);
+    int zone = s.indexOf('%');
+    if (zone >= 0) s = s.substring(0, zone);
+    byte[] out = new byte[16];
+    int n = 0;
+    int gap = -1; // where "::" stands, as a byte offset
+    int i = 0;
+    if (s.startsWith("::")) {
+      gap = 0;
+      i = 2;
+    } else if (s.startsWith(":")) {
+      return null;
+    }
+    while (i < s.length()) {
+      int end = s.indexOf(':', i);
+      if (end < 0) end = s.length();
+      if (s.indexOf('.', i) >= 0 && end == s.length()) {
+        byte[] v4 = n <= 12 ? parseIpv4(s.substring(i)) : null;
+        if (v4 == null) return null;
+        System.arraycopy(v4, 0, out, n, 4);
+        n += 4;
+        break;
+      }
+      if (end == i || end - i > 4 || n > 14) return null;
+      int value = 0;
+      for (int j = i; j < end; j++) {
+        int d = hexDigit(s.charAt(j));
+        if (d < 0) return null;
+        value = value << 4 | d;
+      }
+      out[n++] = (byte) (value >>> 8);
+      out[n++] = (byte) value;
+      if (end == s.length()) break;
+      i = end + 1;
+      if (i < s.length() && s.charAt(i) == ':') {
+        if (gap >= 0) return null;
+        gap = n;
+        i++;
+      } else if (i == s.length()) {
+        return null;
+      }
+    }
+    if (gap < 0 ? n != 16 : n == 16) return null;
+    if (gap >= 0) {
+      int tail = n - gap;
+      System.arraycopy(out, gap, out, 16 - tail, tail);
+      Arrays.fill(out, gap, 16 - tail, (byte) 0);
+    }
+    // An IPv4-mapped address (::ffff:a.b.c.d) matches IPv4 rules
+    for (int j = 0; j < 10; j++) {
+      if (out[j] != 0) return out;
+    }
+    return out[10] == (byte) 0xff && out[11] == (byte) 0xff ? Arrays.copyOfRange(out, 12, 16) : out;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+    return -1;
+  }
+
+  private static String[] parseTemplate(String line, String template) {
+    if (!template.startsWith("/") && !template.startsWith("{")) {
+      throw new IllegalArgumentException("Invalid routing rule '" + line + "': path template must start with '/' or a placeholder");
+    }
+    List<String> parts = new ArrayList<>();
+    int from = 0;
+    for (int open; (open = template.indexOf('{', from)) >= 0; ) {
+      int close = template.indexOf('}', open);
+      String name = close < 0 ? null : template.substring(open + 1, close);
+      if (name == null || !(name.equals("id") || name.equals("type") || name.equals("ip") || name.equals("mid"))) {
+        throw new IllegalArgumentException("Invalid routing rule '" + line + "': unknown placeholder in '" + template
+            + "', use {id}, {type}, {ip} or {mid}");
+      }
+      parts.add(template.substring(from, open));
+      parts.add(name);
+      from = close + 1;
+    }
+    parts.add(template.substring(from));
+    return parts.toArray(new String[0]);
+  }
+
+  private static String expand(String[] template, String id, String type, String ip, String mid) {
+    if (template.length == 1) {
+      return template[0];
+    }
+    StringBuilder sb = new StringBuilder(64);
+    for (int i = 0; i < template.length; i++) {
+      if ((i & 1) == 0) {
+        sb.append(template[i]);
+        continue;
+      }
+      String value;
+      switch (template[i]) {
+        case "id":
+          value = id;
+          // the credential id is usually a path itself; avoid a double slash
+          if (value != null && value.startsWith("/") && sb.length() > 0 && sb.charAt(sb.length() - 1) == '/') {
+            value = value.substring(1);
+          }
+          break;
+        case "type":
+          value = type;
+          break;
+        case "ip":
+          value = ip;
+          break;
+        default:
+          value = mid;
+      }
+      if (value != null) sb.append(value);
+    }
+    return sb.toString();
+  }
+}
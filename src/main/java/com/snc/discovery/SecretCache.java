@@ -0,0 +1,263 @@
+package com.snc.discovery;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, TTL-based cache of secret values keyed by secret path.
+ *
+ * Entries are kept in LRU order and the least recently used one is evicted once
+ * {@code maxEntries} is exceeded. The cache keeps its own copy of each {@link SecretValue} and
+ * wipes it when the entry is evicted, expires, is replaced or the cache is cleared. "Not found" results can be cached
+ * as short-lived negative entries.
+ *
+ * A value may have a soft TTL shorter than its hard TTL. Between the two it is still returned,
+ * marked stale, so the caller can serve it while refreshing it.
+ *
+ * With an off-heap budget set, values are kept in an {@link OffHeapSecretStore} instead of on the
+ * heap. When the budget is full, least recently used entries are evicted until the new value
+ * fits. A value larger than the whole budget is not cached.
+ */
+final class SecretCache {
+
+  /** Result of a cache lookup: either a value or a cached "not found". */
+  static final class Hit {
+    private final SecretValue value;
+    private final boolean stale;
+
+    private Hit(SecretValue value, boolean stale) {
+      this.value = value;
+      this.stale = stale;
+    }
+
+    boolean isNotFound() {
+      return value == null;
+    }
+
+    /** True once the value is past its soft TTL; it should be refreshed. */
+    boolean isStale() {
+      return stale;
+    }
+
+    /** A copy owned by the caller, so a concurrent eviction cannot wipe it mid-use. */
+    SecretValue value() {
+      return value;
+    }
+  }
+
+  private static final Hit NOT_FOUND = new Hit(null, false);
+
+  private static final class Entry {
+    final SecretValue value; // null for negative and off-heap entries
+    final long offHeap;      // handle in the off-heap store, or -1
+    final long staleAtMillis;
+    final long expiresAtMillis;
+
+    Entry(SecretValue value, long offHeap, long staleAtMillis, long expiresAtMillis) {
+      this.value = value;
+      this.offHeap = offHeap;
+      this.staleAtMillis = staleAtMillis;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    boolean isNotFound() {
+      return value == null && offHeap < 0;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongSupplier clock;
+  private int maxEntries;
+  private OffHeapSecretStore offHeap; // null keeps values on the heap
+  private long offHeapBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong tooLarge = new AtomicLong();
+
+  SecretCache(int maxEntries) {
+    this(maxEntries, System::currentTimeMillis);
+  }
+
+  SecretCache(int maxEntries, LongSupplier clock) {
+    this.maxEntries = Math.max(1, maxEntries);
+    this.clock = clock;
+  }
+
+  /** Returns the cached entry for {@code key}, or null when absent or past its hard TTL. */
+  synchronized Hit get(String key) {
+    Entry e = entries.get(key);
+    long now = clock.getAsLong();
+    if (e != null && now >= e.expiresAtMillis) {
+      entries.remove(key);
+      release(e);
+      expirations.incrementAndGet();
+      e = null;
+    }
+    if (e == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    if (e.isNotFound()) {
+      return NOT_FOUND;
+    }
+    boolean stale = now >= e.staleAtMillis;
+    if (stale) staleHits.incrementAndGet();
+    return new Hit(e.offHeap >= 0 ? offHeap.get(e.offHeap) : e.value.copy(), stale);
+  }
+
+  synchronized void put(String key, SecretValue value, long ttlMillis) {
+    put(key, value, ttlMillis, ttlMillis);
+  }
+
+  /** Stores {@code value}, fresh for {@code softTtlMillis} and served as stale until {@code hardTtlMillis}. */
+  synchronized void put(String key, SecretValue value, long softTtlMillis, long hardTtlMillis) {
+    long now = clock.getAsLong();
+    putUntil(key, value, now + softTtlMillis, now + Math.max(softTtlMillis, hardTtlMillis));
+  }
+
+  /** Like {@link #put(String, SecretValue, long, long)} with absolute times, e.g. for entries restored from disk. */
+  synchronized void putUntil(String key, SecretValue value, long staleAtMillis, long expiresAtMillis) {
+    expiresAtMillis = Math.max(staleAtMillis, expiresAtMillis);
+    if (offHeap == null) {
+      store(key, new Entry(value.copy(), -1, staleAtMillis, expiresAtMillis));
+      return;
+    }
+    if (!offHeap.fits(value.compactSize())) {
+      // Keeping it on the heap would break the budget; drop any older value instead of serving it
+      Entry old = entries.remove(key);
+      if (old != null) release(old);
+      tooLarge.incrementAndGet();
+      return;
+    }
+    long handle;
+    while ((handle = offHeap.put(value)) < 0) {
+      evictEldest();
+    }
+    store(key, new Entry(null, handle, staleAtMillis, expiresAtMillis));
+  }
+
+  /**
+   * Moves the stale and expiry times of a cached value, e.g. once its version was found
+   * unchanged. Returns false when no value is cached for {@code key}.
+   */
+  synchronized boolean extend(String key, long staleAtMillis, long expiresAtMillis) {
+    Entry e = entries.get(key);
+    if (e == null || e.isNotFound() || clock.getAsLong() >= e.expiresAtMillis) {
+      return false;
+    }
+    entries.put(key, new Entry(e.value, e.offHeap, staleAtMillis, Math.max(staleAtMillis, expiresAtMillis)));
+    return true;
+  }
+
+  synchronized void putNotFound(String key, long ttlMillis) {
+    long expiresAt = clock.getAsLong() + ttlMillis;
+    store(key, new Entry(null, -1, expiresAt, expiresAt));
+  }
+
+  /**
+   * Keeps values in an off-heap store of {@code maxBytes}, or on the heap for 0. Changing the
+   * budget empties the cache.
+   */
+  synchronized void setOffHeapBytes(long maxBytes) {
+    maxBytes = Math.max(0L, maxBytes);
+    if (maxBytes == offHeapBytes) {
+      return;
+    }
+    for (Entry e : entries.values()) release(e);
+    entries.clear();
+    if (offHeap != null) offHeap.clear();
+    offHeap = maxBytes > 0 ? new OffHeapSecretStore(maxBytes) : null;
+    offHeapBytes = maxBytes;
+  }
+
+  synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(1, maxEntries);
+    evictOverflow();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /** Wipes and drops all entries and resets the counters. */
+  synchronized void clear() {
+    for (Entry e : entries.values()) release(e);
+    entries.clear();
+    hits.set(0);
+    staleHits.set(0);
+    misses.set(0);
+    evictions.set(0);
+    expirations.set(0);
+    tooLarge.set(0);
+  }
+
+  long hits() {
+    return hits.get();
+  }
+
+  long staleHits() {
+    return staleHits.get();
+  }
+
+  long misses() {
+    return misses.get();
+  }
+
+  long evictions() {
+    return evictions.get();
+  }
+
+  long expirations() {
+    return expirations.get();
+  }
+
+  /** Values not cached because they exceed the whole off-heap budget. */
+  long tooLarge() {
+    return tooLarge.get();
+  }
+
+  synchronized long offHeapUsedBytes() {
+    return offHeap == null ? 0L : offHeap.usedBytes();
+  }
+
+  synchronized long offHeapCapacityBytes() {
+    return offHeap == null ? 0L : offHeap.capacityBytes();
+  }
+
+  private void store(String key, Entry e) {
+    Entry old = entries.put(key, e);
+    if (old != null) release(old);
+    evictOverflow();
+  }
+
+  private void evictOverflow() {
+    while (entries.size() > maxEntries) {
+      evictEldest();
+    }
+  }
+
+  private void evictEldest() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    Entry eldest = it.next().getValue();
+    it.remove();
+    release(eldest);
+    evictions.incrementAndGet();
+  }
+
+  // Wipes the entry's value wherever it is kept
+  private void release(Entry e) {
+    if (e.offHeap >= 0) {
+      offHeap.free(e.offHeap);
+    } else if (e.value != null) {
+      e.value.wipe();
+    }
+  }
+}
@@ -0,0 +1,424 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.jr.ob.JSON;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A fetched secret, either a plain string or a JSON object's top-level fields.
+ *
+ * JSON is parsed once, when the value comes from the gateway, with the streaming parser: field
+ * values are copied straight from the parser's buffer into {@code char[]}s, without building a
+ * generic Map tree or intermediate Strings. Strings are only created by {@link MappingPlan} for
+ * the fields a credential type needs. {@link #wipe()} zeroes every value.
+ */
+final class SecretValue {
+  private static final JsonFactory JSON_FACTORY = JSON.std.getStreamingFactory();
+  private static final String[] NO_NAMES = new String[0];
+  private static final char[][] NO_VALUES = new char[0][];
+
+  private final char[] text;      // plain secret; null when structured
+  private final String[] names;   // structured: top-level field names
+  private final char[][] values;  // structured: field values, nested containers as JSON text
+
+  private SecretValue(char[] text, String[] names, char[][] values) {
+    this.text = text;
+    this.names = names;
+    this.values = values;
+  }
+
+  static SecretValue plain(String s) {
+    return new SecretValue(s.toCharArray(), null, null);
+  }
+
+  /** Converts a value from a get-secret-value response: a JSON object, a string holding JSON, or a scalar. */
+  static SecretValue fromGateway(Object value) {
+    if (value instanceof SecretValue) {
+      return (SecretValue) value;
+    }
+    if (value instanceof Map) {
+      return fromMap((Map<?, ?>) value);
+    }
+    if (value instanceof String) {
+      return parse((String) value);
+    }
+    String s = CredentialResolver.asString(value);
+    return plain(s != null ? s : "");
+  }
+
+  /** Parses {@code raw} as a JSON object when it is one, otherwise keeps it as a plain secret. */
+  static SecretValue parse(String raw) {
+    if (!startsLikeObject(raw)) {
+      return plain(raw);
+    }
+    try (JsonParser p = JSON_FACTORY.createParser(raw)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) {
+        return plain(raw);
+      }
+      SecretValue v = readObject(p);
+      return v != null ? v : plain(raw);
+    } catch (IOException e) {
+      // Not valid JSON: treat it as a single secret, like any other string
+      return plain(raw);
+    }
+  }
+
+  /**
+   * Converts the value at the parser's current token, as {@link #fromGateway} does, without a
+   * Map or String in between for plain strings. Returns null for a JSON null.
+   */
+  static SecretValue fromParser(JsonParser p) throws IOException {
+    JsonToken t = p.currentToken();
+    if (t == JsonToken.VALUE_STRING) {
+      char[] chars = Arrays.copyOfRange(p.getTextCharacters(), p.getTextOffset(), p.getTextOffset() + p.getTextLength());
+      if (!startsLikeObject(CharBuffer.wrap(chars))) {
+        return new SecretValue(chars, null, null);
+      }
+      String raw = new String(chars);
+      Arrays.fill(chars, '\0');
+      return parse(raw);
+    }
+    if (t == JsonToken.START_OBJECT) {
+      SecretValue v = readObject(p);
+      if (v == null) {
+        throw new IOException("Unexpected " + p.currentToken() + " in secret value");
+      }
+      return v;
+    }
+    if (t == JsonToken.START_ARRAY) {
+      StringWriter w = new StringWriter();
+      try (JsonGenerator g = JSON_FACTORY.createGenerator(w)) {
+        g.copyCurrentStructure(p);
+      }
+      return plain(w.toString());
+    }
+    if (t == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    return plain(p.getValueAsString(""));
+  }
+
+  // Reads the fields of the object the parser is at; null for a field value it cannot take
+  private static SecretValue readObject(JsonParser p) throws IOException {
+    Builder b = new Builder();
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String name = p.currentName();
+      JsonToken t = p.nextToken();
+      if (t == JsonToken.VALUE_STRING) {
+        b.put(name, Arrays.copyOfRange(p.getTextCharacters(), p.getTextOffset(), p.getTextOffset() + p.getTextLength()));
+      } else if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT) {
+        b.put(name, String.valueOf(p.getNumberValue()).toCharArray());
+      } else if (t == JsonToken.VALUE_TRUE || t == JsonToken.VALUE_FALSE) {
+        b.put(name, String.valueOf(t == JsonToken.VALUE_TRUE).toCharArray());
+      } else if (t == JsonToken.START_OBJECT || t == JsonToken.START_ARRAY) {
+        StringWriter w = new StringWriter();
+        try (JsonGenerator g = JSON_FACTORY.createGenerator(w)) {
+          g.copyCurrentStructure(p);
+        }
+        b.put(name, w.toString().toCharArray());
+      } else if (t == JsonToken.VALUE_NULL) {
+        b.remove(name);
+      } else {
+        return null;
+      }
+    }
+    return b.build();
+  }
+
+  private static SecretValue fromMap(Map<?, ?> map) {
+    Builder b = new Builder();
+    for (Map.Entry<?, ?> e : map.entrySet()) {
+      String v = CredentialResolver.asString(e.getValue());
+      if (v != null) b.put(String.valueOf(e.getKey()), v.toCharArray());
+    }
+    return b.build();
+  }
+
+  private static boolean startsLikeObject(CharSequence raw) {
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (!Character.isWhitespace(c)) return c == '{';
+    }
+    return false;
+  }
+
+  boolean isStructured() {
+    return names != null;
+  }
+
+  boolean isEmpty() {
+    return text != null && text.length == 0;
+  }
+
+  /** The plain secret, for a value that is not structured. */
+  String text() {
+    return new String(text);
+  }
+
+  /** The value of a top-level field as a String, or null when absent. */
+  String field(String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) return new String(values[i]);
+    }
+    return null;
+  }
+
+  SecretValue copy() {
+    if (names == null) {
+      return new SecretValue(text.clone(), null, null);
+    }
+    char[][] v = new char[values.length][];
+    for (int i = 0; i < values.length; i++) v[i] = values[i].clone();
+    return new SecretValue(null, names, v);
+  }
+
+  /** Bytes {@link #writeTo} needs. */
+  int serializedSize() {
+    if (names == null) {
+      return 1 + 4 + 2 * text.length;
+    }
+    int size = 1 + 4;
+    for (int i = 0; i < names.length; i++) {
+      size += 4 + 2 * names[i].length() + 4 + 2 * values[i].length;
+    }
+    return size;
+  }
+
+  /** Writes the value in a compact binary form, char by char so no intermediate String is created. */
+  void writeTo(ByteBuffer out) {
+    if (names == null) {
+      out.put((byte) 0);
+      putChars(out, text);
+      return;
+    }
+    out.put((byte) 1);
+    out.putInt(names.length);
+    for (int i = 0; i < names.length; i++) {
+      putChars(out, names[i].toCharArray());
+      putChars(out, values[i]);
+    }
+  }
+
+  /** Reads a value written by {@link #writeTo}. */
+  static SecretValue readFrom(ByteBuffer in) {
+    if (in.get() == 0) {
+      return new SecretValue(getChars(in), null, null);
+    }
+    int n = in.getInt();
+    if (n < 0 || n > in.remaining()) {
+      throw new IllegalArgumentException("Corrupt secret value");
+    }
+    String[] names = new String[n];
+    char[][] values = new char[n][];
+    for (int i = 0; i < n; i++) {
+      names[i] = new String(getChars(in));
+      values[i] = getChars(in);
+    }
+    return new SecretValue(null, names, values);
+  }
+
+  /** Bytes {@link #writeCompactTo} needs. */
+  int compactSize() {
+    if (names == null) {
+      return 1 + compactSize(text);
+    }
+    int size = 1 + varintSize(names.length);
+    for (int i = 0; i < names.length; i++) {
+      size += compactSize(names[i]) + compactSize(values[i]);
+    }
+    return size;
+  }
+
+  /**
+   * Writes the value with variable-length counts and one to three bytes per char, as UTF-8 does
+   * for the Basic Multilingual Plane, so ASCII secrets such as PEM keys take one byte per char.
+   * Surrogates are encoded one by one, so any char[] round-trips.
+   */
+  void writeCompactTo(ByteBuffer out) {
+    if (names == null) {
+      out.put((byte) 0);
+      putCompact(out, text);
+      return;
+    }
+    out.put((byte) 1);
+    putVarint(out, names.length);
+    for (int i = 0; i < names.length; i++) {
+      putCompact(out, names[i]);
+      putCompact(out, values[i]);
+    }
+  }
+
+  /** Reads a value written by {@link #writeCompactTo}. */
+  static SecretValue readCompactFrom(ByteBuffer in) {
+    if (in.get() == 0) {
+      return new SecretValue(getCompact(in), null, null);
+    }
+    int n = getVarint(in);
+    if (n > in.remaining()) {
+      throw new IllegalArgumentException("Corrupt secret value");
+    }
+    String[] names = new String[n];
+    char[][] values = new char[n][];
+    for (int i = 0; i < n; i++) {
+      names[i] = new String(getCompact(in));
+      values[i] = getCompact(in);
+    }
+    return new SecretValue(null, names, values);
+  }
+
+  private static int compactSize(CharSequence chars) {
+    int size = varintSize(chars.length());
+    for (int i = 0; i < chars.length(); i++) {
+      char c = chars.charAt(i);
+      size += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+    }
+    return size;
+  }
+
+  private static int compactSize(char[] chars) {
+    return compactSize(CharBuffer.wrap(chars));
+  }
+
+  private static void putCompact(ByteBuffer out, CharSequence chars) {
+    putVarint(out, chars.length());
+    for (int i = 0; i < chars.length(); i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xC0 | (c >> 6)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      } else {
+        out.put((byte) (0xE0 | (c >> 12)));
+        out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        out.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static void putCompact(ByteBuffer out, char[] chars) {
+    putCompact(out, CharBuffer.wrap(chars));
+  }
+
+  private static char[] getCompact(ByteBuffer in) {
+    int len = getVarint(in);
+    if (len > in.remaining()) {
+      throw new IllegalArgumentException("Corrupt secret value");
+    }
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) {
+      int b = in.get() & 0xFF;
+      if (b < 0x80) {
+        chars[i] = (char) b;
+      } else if (b < 0xE0) {
+        chars[i] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+      } else {
+        chars[i] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+      }
+    }
+    return chars;
+  }
+
+  private static int varintSize(int v) {
+    int size = 1;
+    while ((v >>>= 7) != 0) size++;
+    return size;
+  }
+
+  private static void putVarint(ByteBuffer out, int v) {
+    while ((v & ~0x7F) != 0) {
+      out.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.put((byte) v);
+  }
+
+  private static int getVarint(ByteBuffer in) {
+    int v = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.get();
+      v |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (v < 0) break;
+        return v;
+      }
+    }
+    throw new IllegalArgumentException("Corrupt secret value");
+  }
+
+  private static void putChars(ByteBuffer out, char[] chars) {
+    out.putInt(chars.length);
+    for (char c : chars) out.putChar(c);
+  }
+
+  private static char[] getChars(ByteBuffer in) {
+    int len = in.getInt();
+    if (len < 0 || len * 2L > in.remaining()) {
+      throw new IllegalArgumentException("Corrupt secret value");
+    }
+    char[] chars = new char[len];
+    for (int i = 0; i < len; i++) chars[i] = in.getChar();
+    return chars;
+  }
+
+  void wipe() {
+    if (text != null) Arrays.fill(text, '\0');
+    if (values != null) {
+      for (char[] v : values) Arrays.fill(v, '\0');
+    }
+  }
+
+  private static final class Builder {
+    private String[] names = NO_NAMES;
+    private char[][] values = NO_VALUES;
+    private int size;
+
+    void put(String name, char[] value) {
+      int i = indexOf(name);
+      if (i >= 0) {
+        Arrays.fill(values[i], '\0');
+        values[i] = value;
+        return;
+      }
+      if (size == names.length) {
+        int cap = Math.max(4, size * 2);
+        names = Arrays.copyOf(names, cap);
+        values = Arrays.copyOf(values, cap);
+      }
+      names[size] = name;
+      values[size] = value;
+      size++;
+    }
+
+    void remove(String name) {
+      int i = indexOf(name);
+      if (i < 0) return;
+      Arrays.fill(values[i], '\0');
+      size--;
+      names[i] = names[size];
+      values[i] = values[size];
+      names[size] = null;
+      values[size] = null;
+    }
+
+    SecretValue build() {
+      return new SecretValue(null, Arrays.copyOf(names, size), Arrays.copyOf(values, size));
+    }
+
+    private int indexOf(String name) {
+      for (int i = 0; i < size; i++) {
+        if (names[i].equals(name)) return i;
+      }
+      return -1;
+    }
+  }
+}
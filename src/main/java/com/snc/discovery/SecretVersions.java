@@ -0,0 +1,171 @@
+package com.snc.discovery;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Item versions of cached secrets, so a refresh can skip the values that did not change.
+ *
+ * Each cached path remembers the version and modification time the gateway last listed for it
+ * and how long its value may be served without another check. That time adapts per item: it
+ * doubles every time a check finds the item unchanged, up to {@code maxTtlMillis}, and halves when
+ * it changed, down to {@code minTtlMillis}. The periodic check hands the paths that are due to a
+ * {@link Checker}, which lists their metadata and reports back through {@link #isChanged}.
+ */
+final class SecretVersions {
+  private static final Log LOG = LogFactory.getLog(SecretVersions.class);
+
+  // Listed modification times this close to a fetch may be from before or after it
+  static final long CLOCK_SKEW_MILLIS = 60_000L;
+
+  interface Checker {
+    void check(List<String> secretPaths) throws Exception;
+  }
+
+  private static final class Item {
+    long version = -1;      // -1 until first listed
+    long modifiedMillis;    // 0 when unknown
+    long fetchedAtMillis;
+    long ttlMillis;
+    long nextCheckMillis;
+  }
+
+  private final Map<String, Item> items = new HashMap<>();
+  private final long minTtlMillis;
+  private final long maxTtlMillis;
+  private final LongSupplier clock;
+  private ScheduledExecutorService scheduler;
+
+  SecretVersions(long minTtlMillis, long maxTtlMillis, LongSupplier clock) {
+    this.minTtlMillis = Math.max(1L, minTtlMillis);
+    this.maxTtlMillis = Math.max(this.minTtlMillis, maxTtlMillis);
+    this.clock = clock;
+  }
+
+  /** Checks for due paths every {@code intervalMillis}, including those due within the next interval. */
+  synchronized void start(long intervalMillis, Checker checker) {
+    if (scheduler != null) return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "akeyless-version-check");
+      t.setDaemon(true);
+      return t;
+    });
+    long period = Math.max(1_000L, intervalMillis);
+    scheduler.scheduleWithFixedDelay(() -> tick(checker, period), period, period, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Records that the value of {@code secretPath} was just fetched and returns how long it may be
+   * cached before its version is checked: {@code baseTtlMillis} for a new path, its adapted time
+   * otherwise.
+   */
+  synchronized long fetched(String secretPath, long baseTtlMillis) {
+    long now = clock.getAsLong();
+    Item it = items.get(secretPath);
+    if (it == null) {
+      it = new Item();
+      it.ttlMillis = Math.min(maxTtlMillis, Math.max(minTtlMillis, baseTtlMillis));
+      items.put(secretPath, it);
+    }
+    it.fetchedAtMillis = now;
+    it.nextCheckMillis = now + it.ttlMillis;
+    return it.ttlMillis;
+  }
+
+  /** Paths whose check is due within {@code leadMillis}. */
+  synchronized List<String> due(long leadMillis) {
+    long limit = clock.getAsLong() + leadMillis;
+    List<String> out = new ArrayList<>();
+    for (Map.Entry<String, Item> e : items.entrySet()) {
+      if (e.getValue().nextCheckMillis <= limit) out.add(e.getKey());
+    }
+    return out;
+  }
+
+  /**
+   * Takes the version and modification time (0 when unknown) the gateway lists for
+   * {@code secretPath} and adapts its cache time. Returns true when the cached value is or may be
+   * older than the listed item and must be fetched again. The first listing of a path only counts
+   * as a change when the item was modified around or after the value was fetched.
+   */
+  synchronized boolean isChanged(String secretPath, long version, long modifiedMillis) {
+    Item it = items.get(secretPath);
+    if (it == null) {
+      return false;
+    }
+    boolean changed;
+    if (it.version < 0) {
+      changed = modifiedMillis <= 0 || modifiedMillis > it.fetchedAtMillis - CLOCK_SKEW_MILLIS;
+    } else {
+      changed = version != it.version || modifiedMillis != it.modifiedMillis;
+      it.ttlMillis = changed
+          ? Math.max(minTtlMillis, it.ttlMillis / 2)
+          : Math.min(maxTtlMillis, it.ttlMillis * 2);
+    }
+    it.version = version;
+    it.modifiedMillis = modifiedMillis;
+    it.nextCheckMillis = clock.getAsLong() + it.ttlMillis;
+    return changed;
+  }
+
+  /** The current cache time of {@code secretPath}, or -1 when it is not tracked. */
+  synchronized long ttlMillis(String secretPath) {
+    Item it = items.get(secretPath);
+    return it == null ? -1L : it.ttlMillis;
+  }
+
+  /** Stops tracking a path, e.g. once it left the cache or the gateway no longer lists it. */
+  synchronized void forget(String secretPath) {
+    items.remove(secretPath);
+  }
+
+  synchronized int size() {
+    return items.size();
+  }
+
+  synchronized void clear() {
+    items.clear();
+  }
+
+  void tick(Checker checker, long leadMillis) {
+    List<String> paths = due(leadMillis);
+    if (paths.isEmpty()) {
+      return;
+    }
+    try {
+      checker.check(paths);
+    } catch (Exception e) {
+      // Unchecked entries expire at their current TTL and are fetched again on use
+      LOG.warn("Akeyless resolver: version check of " + paths.size() + " secret paths failed: " + e.getMessage());
+    }
+  }
+
+  /** Epoch millis of an RFC 3339 time as the gateway lists it, or 0 when absent or unparsable. */
+  static long parseTime(Object value) {
+    if (!(value instanceof String) || ((String) value).isEmpty()) {
+      return 0L;
+    }
+    try {
+      return OffsetDateTime.parse((String) value).toInstant().toEpochMilli();
+    } catch (RuntimeException e) {
+      return 0L;
+    }
+  }
+}
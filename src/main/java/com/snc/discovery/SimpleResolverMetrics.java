@@ -0,0 +1,124 @@
+package com.snc.discovery;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Built-in {@link ResolverMetrics}: lock-free counters, gauges and fixed-bucket latency
+ * histograms, read through {@link #snapshot()} (and so through {@link JmxMetricsExporter}).
+ */
+final class SimpleResolverMetrics implements ResolverMetrics {
+
+  private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+
+  @Override
+  public void recordLatency(String phase, long nanos) {
+    latencies.computeIfAbsent(phase, p -> new Histogram()).record(nanos);
+  }
+
+  @Override
+  public void increment(String counter) {
+    counters.computeIfAbsent(counter, c -> new LongAdder()).increment();
+  }
+
+  @Override
+  public void gauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  long counter(String name) {
+    LongAdder a = counters.get(name);
+    return a == null ? 0L : a.sum();
+  }
+
+  Histogram latency(String phase) {
+    return latencies.get(phase);
+  }
+
+  /**
+   * Current values by metric name: counters and gauges as-is, and for each phase
+   * {@code latency.<phase>.count}, {@code .mean_us}, {@code .p50_us}, {@code .p95_us},
+   * {@code .p99_us} and {@code .max_us}.
+   */
+  Map<String, Long> snapshot() {
+    Map<String, Long> out = new TreeMap<>();
+    counters.forEach((k, v) -> out.put(k, v.sum()));
+    gauges.forEach((k, v) -> {
+      try {
+        out.put(k, v.getAsLong());
+      } catch (RuntimeException e) {
+        // a broken gauge must not hide the other metrics
+      }
+    });
+    latencies.forEach((phase, h) -> {
+      String p = "latency." + phase + ".";
+      out.put(p + "count", h.count());
+      out.put(p + "mean_us", h.meanMicros());
+      out.put(p + "p50_us", h.percentileMicros(0.50));
+      out.put(p + "p95_us", h.percentileMicros(0.95));
+      out.put(p + "p99_us", h.percentileMicros(0.99));
+      out.put(p + "max_us", h.maxMicros());
+    });
+    return out;
+  }
+
+  /**
+   * Latency histogram with power-of-two microsecond buckets, from under 1 µs up to about 70 s.
+   * Percentiles are reported as the upper bound of the bucket they fall in.
+   */
+  static final class Histogram {
+    private static final int BUCKETS = 28;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private volatile long maxNanos;
+
+    void record(long nanos) {
+      long micros = Math.max(0L, nanos / 1_000L);
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      sumNanos.add(nanos);
+      if (nanos > maxNanos) {
+        synchronized (this) {
+          if (nanos > maxNanos) maxNanos = nanos;
+        }
+      }
+    }
+
+    long count() {
+      return count.sum();
+    }
+
+    long meanMicros() {
+      long n = count.sum();
+      return n == 0 ? 0L : sumNanos.sum() / n / 1_000L;
+    }
+
+    long maxMicros() {
+      return maxNanos / 1_000L;
+    }
+
+    long percentileMicros(double q) {
+      long n = count.sum();
+      if (n == 0) return 0L;
+      long rank = (long) Math.ceil(q * n);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          // bucket i holds values below 2^i µs
+          return Math.min(1L << i, maxMicros());
+        }
+      }
+      return maxMicros();
+    }
+  }
+}
@@ -17,6 +17,9 @@ public class AkeylessCredentialResolverExceptionTest {
         Assert.assertEquals(cause, e3.getCause());
         AkeylessCredentialResolverException e4 = new AkeylessCredentialResolverException("m4", cause, true, true);
         Assert.assertEquals("m4", e4.getMessage());
+        Assert.assertEquals(0, e4.getHttpStatus());
+        AkeylessCredentialResolverException e5 = new AkeylessCredentialResolverException("m5", 404);
+        Assert.assertEquals(404, e5.getHttpStatus());
     }
 }
 
@@ -0,0 +1,160 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AuditLogTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final List<String> lines = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.audit.enabled");
+    }
+
+    private static AuditLog.Trace trace(String path) {
+        AuditLog.Trace t = new AuditLog.Trace(path, "windows", "mid-1");
+        t.add(ResolverMetrics.PHASE_FETCH, 2_000_000L);
+        t.add(ResolverMetrics.PHASE_FETCH, 1_000_000L);
+        t.add(ResolverMetrics.PHASE_MAPPING, 5_000L);
+        return t;
+    }
+
+    @Test
+    public void testEventsAreFormattedWithoutValues() {
+        AuditLog audit = new AuditLog(8, 100, 0, lines::add, now::get);
+        Assert.assertTrue(audit.record(trace("/prod/db"), null));
+        Assert.assertTrue(audit.record(trace("/prod/missing"), new AkeylessCredentialResolverException("Secret value not found", 404)));
+        Assert.assertEquals(2, audit.drain());
+
+        Assert.assertTrue(lines.get(0), lines.get(0).startsWith("Akeyless resolver audit: time=1000000 path=/prod/db type=windows mid=mid-1 outcome=ok total_us="));
+        Assert.assertTrue(lines.get(0), lines.get(0).endsWith(" cloud_id_us=0 auth_us=0 fetch_us=3000 mapping_us=5"));
+        Assert.assertTrue(lines.get(1), lines.get(1).contains(" outcome=error error=AkeylessCredentialResolverException status=404 "));
+        Assert.assertFalse("messages are not logged", lines.get(1).contains("not found"));
+        Assert.assertEquals(0, audit.drain());
+    }
+
+    @Test
+    public void testFullBufferDropsInsteadOfBlocking() {
+        AuditLog audit = new AuditLog(4, 100, 0, lines::add, now::get);
+        for (int i = 0; i < 6; i++) {
+            audit.record(trace("/p" + i), null);
+        }
+        Assert.assertEquals(4, audit.recorded());
+        Assert.assertEquals(2, audit.dropped());
+        Assert.assertEquals(4, audit.drain());
+        Assert.assertTrue(lines.get(3), lines.get(3).contains("path=/p3 "));
+
+        // Drained slots are reused
+        Assert.assertTrue(audit.record(trace("/p6"), null));
+        Assert.assertEquals(1, audit.drain());
+        Assert.assertTrue(lines.get(4), lines.get(4).contains("path=/p6 "));
+    }
+
+    @Test
+    public void testSamplingKeepsFailuresAndRateIsLimited() {
+        AuditLog audit = new AuditLog(64, 0, 3, lines::add, now::get);
+        Assert.assertFalse(audit.record(trace("/ok"), null));
+        Assert.assertEquals(1, audit.sampledOut());
+        for (int i = 0; i < 5; i++) {
+            audit.record(trace("/err"), new IllegalStateException());
+        }
+        Assert.assertEquals(3, audit.recorded());
+        Assert.assertEquals(2, audit.rateLimited());
+
+        now.addAndGet(1_000L);
+        Assert.assertTrue("a new second has a new budget", audit.record(trace("/err"), new IllegalStateException()));
+        audit.configure(100, 3);
+        Assert.assertTrue(audit.record(trace("/ok"), null));
+    }
+
+    @Test
+    public void testConcurrentProducersWithBackgroundWriter() throws Exception {
+        List<String> written = new ArrayList<>();
+        AuditLog audit = new AuditLog(1024, 100, 0, line -> {
+            synchronized (written) {
+                written.add(line);
+            }
+        }, now::get);
+        audit.start(1L);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int t = 0; t < 8; t++) {
+                pool.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 5_000; i++) {
+                        audit.record(trace("/p"), null);
+                    }
+                });
+            }
+            start.countDown();
+            pool.shutdown();
+            Assert.assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        audit.close();
+        Assert.assertEquals(40_000, audit.recorded() + audit.dropped());
+        synchronized (written) {
+            Assert.assertEquals(audit.recorded(), written.size());
+        }
+    }
+
+    @Test
+    public void testResolverRecordsEachResolve() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-audit");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.audit.enabled", "true");
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+            } else {
+                out.put("/audited", "pw");
+            }
+            return out;
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/audited");
+        args.put(CredentialResolver.ARG_TYPE, "windows");
+        Assert.assertEquals("pw", cr.resolve(args).get("password"));
+        args.put(CredentialResolver.ARG_ID, "/missing");
+        try {
+            cr.resolve(args);
+            Assert.fail("expected the missing secret to fail");
+        } catch (AkeylessCredentialResolverException expected) {
+            // recorded as an error event
+        }
+        Assert.assertEquals(Long.valueOf(2), metrics.snapshot().get("audit.recorded"));
+        Assert.assertEquals(Long.valueOf(0), metrics.snapshot().get("audit.dropped"));
+    }
+}
@@ -0,0 +1,201 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AuthTokenCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.token.cache.enabled");
+    }
+
+    @Test
+    public void testTokenReusedUntilExpiry() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        AuthTokenCache cache = new AuthTokenCache(background::add, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        AuthTokenCache.Authenticator auth = () -> new AuthTokenCache.Grant("T" + calls.incrementAndGet(), 0L);
+
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        now.addAndGet(50_000L);
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertTrue(background.isEmpty());
+
+        // Past the expiry skew the token is re-issued inline
+        now.addAndGet(45_000L);
+        Assert.assertEquals("T2", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testRefreshAheadRunsInBackground() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        AuthTokenCache cache = new AuthTokenCache(background::add, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        AuthTokenCache.Authenticator auth = () -> new AuthTokenCache.Grant("T" + calls.incrementAndGet(), 0L);
+
+        cache.getToken("k", 100_000L, auth);
+        now.addAndGet(85_000L);
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals("only one refresh is scheduled", 1, background.size());
+
+        background.get(0).run();
+        Assert.assertEquals("T2", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testGatewayExpiryShortensTheLifetime() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        AuthTokenCache cache = new AuthTokenCache(background::add, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        // The gateway says the token lasts 50s although the configured lifetime is 100s
+        AuthTokenCache.Authenticator auth = () -> new AuthTokenCache.Grant("T" + calls.incrementAndGet(), now.get() + 50_000L);
+
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        now.addAndGet(44_000L);
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        Assert.assertEquals("refresh starts at 80% of the reported lifetime", 1, background.size());
+
+        now.addAndGet(2_000L);
+        Assert.assertEquals("T2", cache.getToken("k", 100_000L, auth));
+    }
+
+    @Test
+    public void testShortLifetimeKeepsMostOfTheToken() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        AuthTokenCache cache = new AuthTokenCache(background::add, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        AuthTokenCache.Authenticator auth = () -> new AuthTokenCache.Grant("T" + calls.incrementAndGet(), 0L);
+
+        // A 5s lifetime is below the 10s skew; the token must still be reused, not re-issued per call
+        Assert.assertEquals("T1", cache.getToken("k", 5_000L, auth));
+        now.addAndGet(3_000L);
+        Assert.assertEquals("T1", cache.getToken("k", 5_000L, auth));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertTrue(background.isEmpty());
+
+        now.addAndGet(1_600L);
+        Assert.assertEquals("T2", cache.getToken("k", 5_000L, auth));
+    }
+
+    @Test
+    public void testTokenExpiryParsesTheAuthResponse() {
+        Assert.assertEquals(0L, CredentialResolver.tokenExpiry(null));
+        Assert.assertEquals(0L, CredentialResolver.tokenExpiry("soon"));
+        Assert.assertEquals(1_700_000_000_000L, CredentialResolver.tokenExpiry("1700000000"));
+        Assert.assertEquals(1_700_000_000_000L, CredentialResolver.tokenExpiry("2023-11-14T22:13:20Z"));
+    }
+
+    @Test
+    public void testInvalidateForcesReauth() throws Exception {
+        AuthTokenCache cache = new AuthTokenCache(Runnable::run, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        AuthTokenCache.Authenticator auth = () -> new AuthTokenCache.Grant("T" + calls.incrementAndGet(), 0L);
+
+        cache.getToken("k", 100_000L, auth);
+        cache.invalidate("k", "stale");
+        Assert.assertEquals("T1", cache.getToken("k", 100_000L, auth));
+        cache.invalidate("k", "T1");
+        Assert.assertEquals("T2", cache.getToken("k", 100_000L, auth));
+    }
+
+    @Test
+    public void testConcurrentCallersAuthenticateOnce() throws Exception {
+        AuthTokenCache cache = new AuthTokenCache(Runnable::run, now::get);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        AuthTokenCache.Authenticator auth = () -> {
+            calls.incrementAndGet();
+            Thread.sleep(50);
+            return new AuthTokenCache.Grant("T", 0L);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return cache.getToken("k", 100_000L, auth);
+                }));
+            }
+            start.countDown();
+            for (Future<String> f : results) {
+                Assert.assertEquals("T", f.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testResolverReusesTokenAndRetriesOnRejectedToken() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-cache");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+
+        AtomicInteger auths = new AtomicInteger();
+        AtomicInteger rejectNext = new AtomicInteger();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> p = (Map<String, Object>) payload;
+            if (url.endsWith("/v2/auth")) {
+                Map<String, Object> out = new HashMap<>();
+                out.put("token", "T" + auths.incrementAndGet());
+                return out;
+            }
+            if (rejectNext.getAndSet(0) == 1) {
+                throw new AkeylessCredentialResolverException("HTTP 401 from " + url + ": {}", 401);
+            }
+            Map<String, Object> secrets = new HashMap<>();
+            secrets.put((String) p.get("name"), "pw-" + p.get("token"));
+            Map<String, Object> out = new HashMap<>();
+            out.put("secrets", secrets);
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+
+        Assert.assertEquals("pw-T1", cr.resolve(args).get("password"));
+        Assert.assertEquals("pw-T1", cr.resolve(args).get("password"));
+        Assert.assertEquals(1, auths.get());
+
+        rejectNext.set(1);
+        Assert.assertEquals("pw-T2", cr.resolve(args).get("password"));
+        Assert.assertEquals(2, auths.get());
+
+        System.setProperty("ext.cred.akeyless.token.cache.enabled", "false");
+        CredentialResolver.reloadConfig();
+        cr.resolve(args);
+        Assert.assertEquals(3, auths.get());
+    }
+}
@@ -0,0 +1,58 @@
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    private static void assertRejected(CircuitBreaker breaker) {
+        try {
+            breaker.acquire("https://gw");
+            Assert.fail("expected the breaker to reject the call");
+        } catch (AkeylessCredentialResolverException expected) {
+            Assert.assertTrue(expected.getMessage().contains("https://gw"));
+            Assert.assertEquals(0, expected.getHttpStatus());
+        }
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, 30_000L, now::get);
+        for (int i = 0; i < 2; i++) {
+            breaker.acquire("https://gw");
+            breaker.onFailure();
+        }
+        breaker.acquire("https://gw");
+        breaker.onSuccess();
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire("https://gw");
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.state());
+        assertRejected(breaker);
+    }
+
+    @Test
+    public void testSingleTrialCallAfterOpenInterval() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 30_000L, now::get);
+        breaker.acquire("https://gw");
+        breaker.onFailure();
+        now.addAndGet(30_000L);
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.state());
+
+        breaker.acquire("https://gw");
+        assertRejected(breaker);
+        breaker.onFailure();
+        Assert.assertEquals("failed trial opens again", CircuitBreaker.OPEN, breaker.state());
+
+        now.addAndGet(30_000L);
+        breaker.acquire("https://gw");
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.CLOSED, breaker.state());
+        breaker.acquire("https://gw");
+    }
+}
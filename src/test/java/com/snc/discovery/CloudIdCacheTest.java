@@ -0,0 +1,137 @@
+package com.snc.discovery;
+
+import io.akeyless.cloudid.CloudIdProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CloudIdCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.token.cache.enabled");
+    }
+
+    @Test
+    public void testCloudIdIsReusedAndRefreshedBeforeExpiry() throws Exception {
+        CloudIdCache cache = new CloudIdCache(Runnable::run, now::get);
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger signed = new AtomicInteger();
+        CloudIdCache.ProviderFactory factory = () -> {
+            created.incrementAndGet();
+            return () -> "CID-" + signed.incrementAndGet();
+        };
+
+        Assert.assertEquals("CID-1", cache.getCloudId("aws_iam", factory, 1_000L, 100L));
+        Assert.assertEquals("CID-1", cache.getCloudId("aws_iam", factory, 1_000L, 100L));
+        Assert.assertEquals(1, signed.get());
+
+        // In the refresh window the current CloudID is returned while the next one is produced
+        now.addAndGet(800L);
+        Assert.assertEquals("CID-1", cache.getCloudId("aws_iam", factory, 1_000L, 100L));
+        Assert.assertEquals("CID-2", cache.getCloudId("aws_iam", factory, 1_000L, 100L));
+
+        cache.invalidate("aws_iam");
+        Assert.assertEquals("CID-3", cache.getCloudId("aws_iam", factory, 1_000L, 100L));
+        Assert.assertEquals("provider is created once", 1, created.get());
+    }
+
+    @Test
+    public void testSlowMetadataCallIsBounded() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CloudIdCache cache = new CloudIdCache(executor, System::currentTimeMillis);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(1);
+            CloudIdProvider slow = () -> {
+                release.await(5, TimeUnit.SECONDS);
+                done.countDown();
+                return "SLOW-CID";
+            };
+            try {
+                cache.getCloudId("gcp", () -> slow, 60_000L, 50L);
+                Assert.fail("expected timeout");
+            } catch (AkeylessCredentialResolverException expected) {
+                Assert.assertTrue(expected.getMessage().contains("50 ms"));
+            }
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            // The late result still lands in the cache
+            for (int i = 0; i < 100 && !"SLOW-CID".equals(tryGet(cache, slow)); i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("SLOW-CID", cache.getCloudId("gcp", () -> slow, 60_000L, 50L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String tryGet(CloudIdCache cache, CloudIdProvider provider) {
+        try {
+            return cache.getCloudId("gcp", () -> provider, 60_000L, 50L);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testResolverSignsCloudIdOncePerLifetime() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "aws_iam");
+        System.setProperty("ext.cred.akeyless.access_id", "id-cloud");
+        System.setProperty("ext.cred.akeyless.token.cache.enabled", "false");
+
+        AtomicInteger auths = new AtomicInteger();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> p = (Map<String, Object>) payload;
+                Assert.assertEquals("CID", p.get("cloud-id"));
+                auths.incrementAndGet();
+                out.put("token", "T");
+                return out;
+            }
+            out.put("secrets", Collections.singletonMap("/s", "pw"));
+            return out;
+        });
+
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicInteger signed = new AtomicInteger();
+        CredentialResolver cr = new CredentialResolver() {
+            @Override
+            protected CloudIdProvider getCloudIdProvider(String type) {
+                lookups.incrementAndGet();
+                return () -> {
+                    signed.incrementAndGet();
+                    return "CID";
+                };
+            }
+        };
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("pw", cr.resolve(args).get("password"));
+        }
+        Assert.assertEquals(3, auths.get());
+        Assert.assertEquals(1, lookups.get());
+        Assert.assertEquals(1, signed.get());
+    }
+}
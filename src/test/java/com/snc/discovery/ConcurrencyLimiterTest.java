@@ -0,0 +1,160 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyLimiterTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.limiter.enabled");
+        System.clearProperty("ext.cred.akeyless.limiter.initial");
+        System.clearProperty("ext.cred.akeyless.limiter.min");
+        System.clearProperty("ext.cred.akeyless.limiter.max");
+        System.clearProperty("ext.cred.akeyless.limiter.fail_fast");
+    }
+
+    @Test
+    public void testLimitGrowsWhenUsedAndShrinksOnCongestion() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 0, 0L, 1_000L, true);
+        for (int i = 0; i < 4; i++) limiter.acquire();
+        try {
+            limiter.acquire();
+            Assert.fail("expected the fifth caller to be rejected");
+        } catch (AkeylessCredentialResolverException expected) {
+            Assert.assertEquals(1, limiter.rejected());
+        }
+        for (int i = 0; i < 4; i++) limiter.release(1_000_000L, false);
+        Assert.assertEquals(4, limiter.limit());
+
+        // Saturated rounds of fast calls keep adding slots
+        for (int round = 0; round < 5; round++) {
+            int n = limiter.limit();
+            for (int i = 0; i < n; i++) limiter.acquire();
+            for (int i = 0; i < n; i++) limiter.release(1_000_000L, false);
+        }
+        int grown = limiter.limit();
+        Assert.assertTrue("limit grew to " + grown, grown > 4 && grown <= 10);
+
+        Assert.assertEquals(0, limiter.inFlight());
+
+        ConcurrencyLimiter full = new ConcurrencyLimiter(10, 1, 10, 0, 0L, 1_000L, false);
+        full.acquire();
+        full.release(TimeUnit.SECONDS.toNanos(2), false);
+        Assert.assertEquals("slow call backs off", 9, full.limit());
+        full.acquire();
+        full.release(1_000_000L, true);
+        Assert.assertEquals("congestion backs off", 8, full.limit());
+    }
+
+    @Test
+    public void testBoundedQueue() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 1, 5_000L, 0L, false);
+        limiter.acquire();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> waiter = pool.submit(() -> {
+                limiter.acquire();
+                limiter.release(0L, false);
+                return null;
+            });
+            for (int i = 0; i < 200 && limiter.queued() == 0; i++) Thread.sleep(5);
+            Assert.assertEquals(1, limiter.queued());
+            try {
+                limiter.acquire();
+                Assert.fail("expected the queue to be full");
+            } catch (AkeylessCredentialResolverException expected) {
+                Assert.assertTrue(expected.getMessage().contains("queued"));
+            }
+            limiter.release(0L, false);
+            waiter.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(0, limiter.inFlight());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        ConcurrencyLimiter strict = new ConcurrencyLimiter(1, 1, 1, 10, 20L, 0L, false);
+        strict.acquire();
+        try {
+            strict.acquire();
+            Assert.fail("expected a queue timeout");
+        } catch (AkeylessCredentialResolverException expected) {
+            Assert.assertTrue(expected.getMessage().contains("Timed out"));
+        }
+    }
+
+    @Test
+    public void testResolverFailsFastAtTheLimit() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-limit");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.limiter.enabled", "true");
+        System.setProperty("ext.cred.akeyless.limiter.initial", "1");
+        System.setProperty("ext.cred.akeyless.limiter.min", "1");
+        System.setProperty("ext.cred.akeyless.limiter.max", "1");
+        System.setProperty("ext.cred.akeyless.limiter.fail_fast", "true");
+
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            @SuppressWarnings("unchecked")
+            String name = (String) ((Map<String, Object>) payload).get("name");
+            if ("/slow".equals(name)) {
+                inside.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            out.put("secrets", Collections.singletonMap(name, "pw"));
+            return out;
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> fast = new HashMap<>();
+        fast.put(CredentialResolver.ARG_ID, "/fast");
+        fast.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        Assert.assertEquals("pw", cr.resolve(fast).get("password"));
+
+        Map<String, String> slow = new HashMap<>(fast);
+        slow.put(CredentialResolver.ARG_ID, "/slow");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Map<String, String>> pending = pool.submit(() -> cr.resolve(slow));
+            Assert.assertTrue(inside.await(5, TimeUnit.SECONDS));
+            try {
+                cr.resolve(fast);
+                Assert.fail("expected fail-fast rejection");
+            } catch (AkeylessCredentialResolverException expected) {
+                Assert.assertTrue(expected.getMessage().contains("concurrency limit"));
+            }
+            release.countDown();
+            Assert.assertEquals("pw", pending.get(5, TimeUnit.SECONDS).get("password"));
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.LIMITER_REJECTED));
+        Assert.assertEquals(Long.valueOf(1), metrics.snapshot().get("limiter.https://fake.limit"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CredentialResolverAsyncTest {
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile CountDownLatch gate;
+
+    @Before
+    public void setUp() {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-async");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.async.virtual_threads", "false");
+        System.setProperty("ext.cred.akeyless.async.max_threads", "4");
+    }
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.async.virtual_threads");
+        System.clearProperty("ext.cred.akeyless.async.max_threads");
+        System.clearProperty("ext.cred.akeyless.async.max_queue");
+    }
+
+    private void install() {
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            int now = active.incrementAndGet();
+            maxActive.accumulateAndGet(now, Math::max);
+            try {
+                CountDownLatch g = gate;
+                if (g != null) {
+                    g.await(5, TimeUnit.SECONDS);
+                } else {
+                    Thread.sleep(10);
+                }
+            } finally {
+                active.decrementAndGet();
+            }
+            @SuppressWarnings("unchecked")
+            String name = (String) ((Map<String, Object>) payload).get("name");
+            out.put("secrets", Collections.singletonMap(name, "pw" + name));
+            return out;
+        });
+    }
+
+    private static Map<String, String> args(String id) {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, id);
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        return args;
+    }
+
+    @Test
+    public void testFanOutIsBoundedByThePool() throws Exception {
+        install();
+        CredentialResolver cr = new CredentialResolver();
+        List<CompletableFuture<Map<String, String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            futures.add(cr.resolveAsync(args("/s" + i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("pw/s" + i, futures.get(i).get().get("password"));
+        }
+        Assert.assertTrue("at most 4 at once, saw " + maxActive.get(), maxActive.get() <= 4);
+    }
+
+    @Test
+    public void testFailuresKeepTheirType() throws Exception {
+        install();
+        Map<String, String> noType = new HashMap<>();
+        noType.put(CredentialResolver.ARG_ID, "/s");
+        try {
+            new CredentialResolver().resolveAsync(noType).get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the missing type to fail the future");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            new CredentialResolver().resolve(noType);
+            Assert.fail("expected the missing type to fail the resolve");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(expected.getMessage().contains("type"));
+        }
+    }
+
+    @Test
+    public void testFullQueueFailsFast() throws Exception {
+        System.setProperty("ext.cred.akeyless.async.max_threads", "1");
+        System.setProperty("ext.cred.akeyless.async.max_queue", "1");
+        gate = new CountDownLatch(1);
+        install();
+        CredentialResolver cr = new CredentialResolver();
+        CompletableFuture<Map<String, String>> running = cr.resolveAsync(args("/a"));
+        for (int i = 0; i < 200 && active.get() == 0; i++) Thread.sleep(5);
+        CompletableFuture<Map<String, String>> queued = cr.resolveAsync(args("/b"));
+        CompletableFuture<Map<String, String>> rejected = cr.resolveAsync(args("/c"));
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        gate.countDown();
+        Assert.assertEquals("pw/a", running.get(5, TimeUnit.SECONDS).get("password"));
+        Assert.assertEquals("pw/b", queued.get(5, TimeUnit.SECONDS).get("password"));
+    }
+}
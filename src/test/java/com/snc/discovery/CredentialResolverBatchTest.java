@@ -0,0 +1,100 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CredentialResolverBatchTest {
+
+    private final List<List<String>> batches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-batch");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+
+        Map<String, Object> store = new HashMap<>();
+        store.put("/a", "pw-a");
+        store.put("/b", "{\"username\":\"ub\",\"password\":\"pb\"}");
+        store.put("/c", "pw-c");
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> p = (Map<String, Object>) payload;
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            @SuppressWarnings("unchecked")
+            List<String> names = (List<String>) p.get("names");
+            batches.add(names);
+            Map<String, Object> secrets = new HashMap<>();
+            for (String n : names) {
+                if (store.containsKey(n)) secrets.put(n, store.get(n));
+            }
+            out.put("secrets", secrets);
+            return out;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.batch.max_names");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+    }
+
+    private static Map<String, String> args(String id, String type) {
+        Map<String, String> a = new HashMap<>();
+        a.put(CredentialResolver.ARG_ID, id);
+        a.put(CredentialResolver.ARG_TYPE, type);
+        return a;
+    }
+
+    @Test
+    public void testFetchesDistinctPathsInChunks() throws Exception {
+        System.setProperty("ext.cred.akeyless.batch.max_names", "2");
+
+        List<Map<String, String>> out = new CredentialResolver().resolveAll(Arrays.asList(
+                args("/a", "ssh_password"),
+                args("/b", "windows"),
+                args("/a", "basic"),
+                args("/missing", "basic"),
+                args("/c", "jdbc")));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList("/a", "/b"), Arrays.asList("/missing", "/c")), batches);
+        Assert.assertEquals(5, out.size());
+        Assert.assertEquals("pw-a", out.get(0).get("password"));
+        Assert.assertEquals("ub", out.get(1).get("username"));
+        Assert.assertEquals("pb", out.get(1).get("password"));
+        Assert.assertEquals("pw-a", out.get(2).get("password"));
+        Assert.assertNull(out.get(3));
+        Assert.assertEquals("pw-c", out.get(4).get("password"));
+    }
+
+    @Test
+    public void testPrewarmsSecretCache() throws Exception {
+        System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+        CredentialResolver cr = new CredentialResolver();
+
+        cr.resolveAll(Arrays.asList(args("/a", "basic"), args("/c", "basic")));
+        Assert.assertEquals(1, batches.size());
+
+        Assert.assertEquals("pw-c", cr.resolve(args("/c", "ssh_password")).get("password"));
+        cr.resolveAll(Arrays.asList(args("/a", "basic"), args("/b", "basic")));
+        Assert.assertEquals(Arrays.asList(Arrays.asList("/a", "/c"), Arrays.asList("/b")), batches);
+    }
+}
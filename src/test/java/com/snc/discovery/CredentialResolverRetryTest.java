@@ -0,0 +1,171 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CredentialResolverRetryTest {
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final Deque<Exception> failures = new ArrayDeque<>();
+    private SimpleResolverMetrics metrics;
+
+    @Before
+    public void setUp() {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-retry");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.retry.base_delay_ms", "5");
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            fetches.incrementAndGet();
+            Exception failure;
+            synchronized (failures) {
+                failure = failures.poll();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            out.put("secrets", Collections.singletonMap("/s", "pw"));
+            return out;
+        });
+        metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setRetryJitter(null);
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.retry.base_delay_ms");
+        System.clearProperty("ext.cred.akeyless.retry.deadline_ms");
+        System.clearProperty("ext.cred.akeyless.http.read_timeout_ms");
+        System.clearProperty("ext.cred.akeyless.breaker.enabled");
+        System.clearProperty("ext.cred.akeyless.breaker.failure_threshold");
+    }
+
+    private static Map<String, String> args() {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        return args;
+    }
+
+    private void failNext(Exception... es) {
+        synchronized (failures) {
+            failures.addAll(Arrays.asList(es));
+        }
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() throws Exception {
+        failNext(new AkeylessCredentialResolverException("HTTP 503", 503), new SocketTimeoutException("Read timed out"));
+        Assert.assertEquals("pw", new CredentialResolver().resolve(args()).get("password"));
+        Assert.assertEquals(3, fetches.get());
+        Assert.assertEquals(2, metrics.counter(ResolverMetrics.RETRIES));
+    }
+
+    @Test
+    public void testRequestErrorsAndExhaustedAttemptsFail() throws Exception {
+        failNext(new AkeylessCredentialResolverException("HTTP 400", 400));
+        try {
+            new CredentialResolver().resolve(args());
+            Assert.fail("expected the 400 to fail the resolve");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertEquals(400, e.getHttpStatus());
+        }
+        Assert.assertEquals(1, fetches.get());
+
+        failNext(new IOException("reset"), new IOException("reset"), new IOException("reset"));
+        try {
+            new CredentialResolver().resolve(args());
+            Assert.fail("expected the third I/O error to fail the resolve");
+        } catch (IOException e) {
+            Assert.assertEquals("reset", e.getMessage());
+        }
+        Assert.assertEquals(4, fetches.get());
+    }
+
+    @Test
+    public void testDeadlineStopsRetries() throws Exception {
+        // The delay is pinned to its bound, which always ends past the deadline
+        System.setProperty("ext.cred.akeyless.retry.base_delay_ms", "10000");
+        System.setProperty("ext.cred.akeyless.retry.deadline_ms", "500");
+        CredentialResolver.reloadConfig();
+        CredentialResolver.setRetryJitter(bound -> bound);
+        failNext(new AkeylessCredentialResolverException("HTTP 502", 502));
+        try {
+            new CredentialResolver().resolve(args());
+            Assert.fail("expected no retry past the deadline");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertEquals(502, e.getHttpStatus());
+        }
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void testDeadlineCapsEachAttempt() throws Exception {
+        try (GatewaySimulator gateway = new GatewaySimulator()) {
+            gateway.latency(GatewaySimulator.Latency.fixed(3_000)).secret("/s", "pw");
+            System.setProperty("ext.cred.akeyless.gw_url", gateway.url());
+            System.setProperty("ext.cred.akeyless.http.read_timeout_ms", "10000");
+            System.setProperty("ext.cred.akeyless.retry.deadline_ms", "500");
+            CredentialResolver.resetHttpTransport();
+
+            long start = System.nanoTime();
+            try {
+                new CredentialResolver().resolve(args());
+                Assert.fail("expected the slow gateway to time out");
+            } catch (IOException expected) {
+                // the read timeout was cut to the time left
+            }
+            long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("took " + tookMillis + " ms", tookMillis < 500 + 300);
+        }
+    }
+
+    @Test
+    public void testBreakerFailsFastOnceOpen() throws Exception {
+        System.setProperty("ext.cred.akeyless.breaker.enabled", "true");
+        System.setProperty("ext.cred.akeyless.breaker.failure_threshold", "3");
+        CredentialResolver.reloadConfig();
+        failNext(new IOException("refused"), new IOException("refused"), new IOException("refused"));
+        try {
+            new CredentialResolver().resolve(args());
+            Assert.fail("expected the I/O errors to fail the resolve");
+        } catch (IOException expected) {
+            // third attempt opened the breaker
+        }
+        try {
+            new CredentialResolver().resolve(args());
+            Assert.fail("expected the open breaker to reject the resolve");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertTrue(e.getMessage().contains("unavailable"));
+        }
+        Assert.assertEquals(3, fetches.get());
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.BREAKER_REJECTED));
+        Assert.assertEquals(Long.valueOf(CircuitBreaker.OPEN), metrics.snapshot().get("breaker.https://fake.state"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DiskSecretCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+        System.clearProperty("ext.cred.akeyless.cache.disk.enabled");
+        System.clearProperty("ext.cred.akeyless.cache.disk.file");
+    }
+
+    private static final String CONTEXT = "access_key\nid-1\nhttps://gw";
+
+    private Map<String, String> load(File file, String secret) throws Exception {
+        return load(file, secret, CONTEXT);
+    }
+
+    private Map<String, String> load(File file, String secret, String context) throws Exception {
+        Map<String, String> out = new LinkedHashMap<>();
+        try (DiskSecretCache disk = DiskSecretCache.open(file, secret.toCharArray(), context, 0, now::get)) {
+            disk.load((path, value, staleAt, expiresAt) ->
+                    out.put(path, (value.isStructured() ? value.field("password") : value.text()) + "@" + staleAt + "/" + expiresAt));
+        }
+        return out;
+    }
+
+    @Test
+    public void testEntriesSurviveReopenWithTheirExpiry() throws Exception {
+        File file = new File(tmp.getRoot(), "work/cache.bin");
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.append("/plain", SecretValue.plain("s3cret"), 1_001_000L, 1_002_000L);
+            disk.append("/json", SecretValue.parse("{\"username\":\"u\",\"password\":\"p\"}"), 1_001_000L, 1_005_000L);
+            disk.append("/plain", SecretValue.plain("newer"), 1_003_000L, 1_004_000L);
+            disk.append("/old", SecretValue.plain("x"), 0L, 999_000L);
+        }
+        Assert.assertFalse("values are encrypted",
+                new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_16BE).contains("s3cret"));
+
+        Map<String, String> restored = load(file, "k");
+        Assert.assertEquals("newer@1003000/1004000", restored.get("/plain"));
+        Assert.assertEquals("p@1001000/1005000", restored.get("/json"));
+        Assert.assertFalse("expired entries are not restored", restored.containsKey("/old"));
+    }
+
+    @Test
+    public void testWrongKeyStartsOver() throws Exception {
+        File file = new File(tmp.getRoot(), "cache.bin");
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k1".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.append("/a", SecretValue.plain("v"), 2_000_000L, 2_000_000L);
+        }
+        Assert.assertTrue(load(file, "k2").isEmpty());
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k2".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.append("/b", SecretValue.plain("w"), 2_000_000L, 2_000_000L);
+        }
+        Assert.assertEquals(Collections.singleton("/b"), load(file, "k2").keySet());
+    }
+
+    @Test
+    public void testRecordsAreBoundToTheirContext() throws Exception {
+        File file = new File(tmp.getRoot(), "cache.bin");
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.append("/a", SecretValue.plain("v"), 2_000_000L, 2_000_000L);
+        }
+        Assert.assertTrue("another access id", load(file, "k", "access_key\nid-2\nhttps://gw").isEmpty());
+        Assert.assertTrue("the mismatched records were dropped", load(file, "k").isEmpty());
+    }
+
+    @Test
+    public void testTombstoneHidesOlderValue() throws Exception {
+        File file = new File(tmp.getRoot(), "cache.bin");
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.append("/gone", SecretValue.plain("v"), 2_000_000L, 2_000_000L);
+            disk.append("/kept", SecretValue.plain("w"), 2_000_000L, 2_000_000L);
+            disk.remove("/gone");
+            int withTombstone = disk.logBytes();
+            disk.remove("/gone");
+            disk.remove("/never");
+            Assert.assertEquals("only written over a value", withTombstone, disk.logBytes());
+        }
+        Assert.assertEquals(Collections.singleton("/kept"), load(file, "k").keySet());
+
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k".toCharArray(), CONTEXT, 0, now::get)) {
+            disk.compact();
+            disk.append("/gone", SecretValue.plain("back"), 2_000_000L, 2_000_000L);
+        }
+        Assert.assertEquals("back@2000000/2000000", load(file, "k").get("/gone"));
+    }
+
+    @Test
+    public void testLogIsCompacted() throws Exception {
+        File file = new File(tmp.getRoot(), "cache.bin");
+        try (DiskSecretCache disk = DiskSecretCache.open(file, "k".toCharArray(), CONTEXT, 0, now::get)) {
+            char[] big = new char[2_000];
+            Arrays.fill(big, 'x');
+            for (int i = 0; i < 200; i++) {
+                disk.append("/rotating", SecretValue.plain(new String(big) + i), 2_000_000L, 2_000_000L);
+            }
+            Assert.assertTrue(disk.logBytes() < 64 * 1024);
+        }
+        Assert.assertTrue(load(file, "k").get("/rotating").startsWith("xxx"));
+        Assert.assertTrue(load(file, "k").get("/rotating").contains("199@"));
+    }
+
+    @Test
+    public void testRestartedResolverStartsWarm() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-disk");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+        System.setProperty("ext.cred.akeyless.cache.disk.enabled", "true");
+        System.setProperty("ext.cred.akeyless.cache.disk.file", new File(tmp.getRoot(), "cache.bin").getPath());
+
+        AtomicInteger fetches = new AtomicInteger();
+        CredentialResolver.HttpTransport http = (url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            fetches.incrementAndGet();
+            out.put("secrets", Collections.singletonMap("/s", "{\"username\":\"u\",\"password\":\"p\"}"));
+            return out;
+        };
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "basic");
+
+        CredentialResolver.setHttpTransport(http);
+        Assert.assertEquals("p", new CredentialResolver().resolve(args).get("password"));
+
+        // Resetting drops the in-memory cache and closes the file, as a restart would
+        CredentialResolver.setHttpTransport(http);
+        Assert.assertEquals("u", new CredentialResolver().resolve(args).get("username"));
+        Assert.assertEquals(1, fetches.get());
+    }
+}
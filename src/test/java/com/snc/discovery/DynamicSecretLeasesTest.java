@@ -0,0 +1,233 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DynamicSecretLeasesTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final AtomicInteger issued = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.dynamic.path_prefixes");
+        System.clearProperty("ext.cred.akeyless.http.read_timeout_ms");
+        System.clearProperty("ext.cred.akeyless.retry.base_delay_ms");
+    }
+
+    private SecretValue issue(String ttlMinutes) {
+        int n = issued.incrementAndGet();
+        return SecretValue.parse("{\"user\":\"tmp-" + n + "\",\"password\":\"p\",\"ttl_in_minutes\":\"" + ttlMinutes + "\"}");
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneLease() throws Exception {
+        DynamicSecretLeases leases = new DynamicSecretLeases(Runnable::run, now::get);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> users = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Callable<String> probe = () -> {
+                    start.await();
+                    return leases.get("k", HOUR, MINUTE, () -> {
+                        Thread.sleep(50);
+                        return issue("60");
+                    }).field("user");
+                };
+                users.add(pool.submit(probe));
+            }
+            start.countDown();
+            Set<String> distinct = new HashSet<>();
+            for (Future<String> f : users) distinct.add(f.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, issued.get());
+            Assert.assertEquals(1, distinct.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReissuedBeforeExpiry() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        DynamicSecretLeases leases = new DynamicSecretLeases(background::add, now::get);
+        DynamicSecretLeases.Issuer issuer = () -> issue("10");
+
+        Assert.assertEquals("tmp-1", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+        now.addAndGet(7 * MINUTE);
+        Assert.assertEquals("tmp-1", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+        Assert.assertTrue(background.isEmpty());
+
+        // Past 80% of the lease: still served while its successor is issued in the background
+        now.addAndGet(MINUTE + 1);
+        Assert.assertEquals("tmp-1", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+        Assert.assertEquals(1, background.size());
+        background.remove(0).run();
+        Assert.assertEquals("tmp-2", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+
+        // Too little time left for a probe: re-issued inline
+        now.addAndGet(9 * MINUTE + 1);
+        Assert.assertEquals("tmp-3", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+    }
+
+    @Test
+    public void testShortLeaseIsSharedAndRenewedAhead() throws Exception {
+        List<Runnable> background = new ArrayList<>();
+        DynamicSecretLeases leases = new DynamicSecretLeases(background::add, now::get);
+        DynamicSecretLeases.Issuer issuer = () -> issue("1");
+
+        // A one-minute lease with the default one-minute minimum: usable for 48 s, renewed from 36 s
+        for (int probe = 0; probe < 5; probe++) {
+            Assert.assertEquals("tmp-1", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+            now.addAndGet(7_000L);
+        }
+        Assert.assertEquals(1, issued.get());
+        Assert.assertTrue(background.isEmpty());
+
+        now.addAndGet(2_000L);
+        Assert.assertEquals("tmp-1", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+        Assert.assertEquals(1, background.size());
+        background.remove(0).run();
+        Assert.assertEquals("tmp-2", leases.get("k", HOUR, MINUTE, issuer).field("user"));
+        Assert.assertEquals(2, issued.get());
+    }
+
+    @Test
+    public void testLeaseDefaultsWithoutTtl() {
+        Assert.assertEquals(10 * MINUTE, DynamicSecretLeases.leaseMillis(issue("10"), HOUR));
+        Assert.assertEquals(HOUR, DynamicSecretLeases.leaseMillis(issue("soon"), HOUR));
+        Assert.assertEquals(HOUR, DynamicSecretLeases.leaseMillis(SecretValue.plain("pw"), HOUR));
+    }
+
+    @Test
+    public void testResolverReusesIssuedCredential() throws Exception {
+        try (GatewaySimulator gateway = new GatewaySimulator()) {
+            gateway.dynamicSecret("/dynamic/mysql", 60).secret("/static/db", "{\"username\":\"svc\",\"password\":\"pw\"}");
+            System.setProperty("ext.cred.akeyless.gw_url", gateway.url());
+            System.setProperty("ext.cred.akeyless.access_type", "access_key");
+            System.setProperty("ext.cred.akeyless.access_id", "id-dynamic");
+            System.setProperty("ext.cred.akeyless.access_key", "k");
+            System.setProperty("ext.cred.akeyless.dynamic.path_prefixes", "/dynamic/");
+            CredentialResolver.resetHttpTransport();
+            SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+            CredentialResolver.setMetrics(metrics);
+
+            CredentialResolver cr = new CredentialResolver();
+            Map<String, String> args = new HashMap<>();
+            args.put(CredentialResolver.ARG_ID, "/dynamic/mysql");
+            args.put(CredentialResolver.ARG_TYPE, "jdbc");
+            Map<String, String> first = cr.resolve(args);
+            Assert.assertEquals("tmp-1", first.get("username"));
+            Assert.assertEquals(first, cr.resolve(args));
+
+            Map<String, String> staticArgs = new HashMap<>();
+            staticArgs.put(CredentialResolver.ARG_ID, "/static/db");
+            staticArgs.put(CredentialResolver.ARG_TYPE, "jdbc");
+            List<Map<String, String>> all = cr.resolveAll(Arrays.asList(args, staticArgs));
+            Assert.assertEquals(first, all.get(0));
+            Assert.assertEquals("svc", all.get(1).get("username"));
+
+            Assert.assertEquals(1, gateway.leasesIssued());
+            Assert.assertEquals(1, metrics.counter(ResolverMetrics.DYNAMIC_LEASES_ISSUED));
+            Assert.assertEquals("static secrets are not asked for dynamic paths", 1, gateway.requests("/v2/get-secret-value"));
+        }
+    }
+
+    private static void useGateways(String gwUrls) {
+        System.setProperty("ext.cred.akeyless.gw_url", gwUrls);
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-dynamic");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.dynamic.path_prefixes", "/dynamic/");
+        System.setProperty("ext.cred.akeyless.retry.base_delay_ms", "1");
+        CredentialResolver.resetHttpTransport();
+    }
+
+    private static Map<String, String> args(String id) {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, id);
+        args.put(CredentialResolver.ARG_TYPE, "jdbc");
+        return args;
+    }
+
+    @Test
+    public void testGatewayErrorIsNotRetriedWhenIssuing() throws Exception {
+        try (GatewaySimulator gateway = new GatewaySimulator()) {
+            gateway.dynamicSecret("/dynamic/mysql", 60).secret("/static/db", "pw");
+            useGateways(gateway.url());
+            CredentialResolver cr = new CredentialResolver();
+            cr.resolve(args("/static/db")); // caches the token, so the next request is the issue call
+
+            gateway.failNext(1, 503);
+            try {
+                cr.resolve(args("/dynamic/mysql"));
+                Assert.fail("expected the gateway error");
+            } catch (AkeylessCredentialResolverException e) {
+                Assert.assertEquals(503, e.getHttpStatus());
+            }
+            Assert.assertEquals("the gateway may have created the account", 1, gateway.requests("/v2/get-dynamic-secret-value"));
+
+            Assert.assertEquals("tmp-1", cr.resolve(args("/dynamic/mysql")).get("username"));
+            Assert.assertEquals(1, gateway.leasesIssued());
+        }
+    }
+
+    @Test
+    public void testTimedOutIssueIsNotRepeatedOnAnyGateway() throws Exception {
+        try (GatewaySimulator first = new GatewaySimulator(); GatewaySimulator second = new GatewaySimulator()) {
+            first.dynamicSecret("/dynamic/mysql", 60).issueDelay(2_000L);
+            second.dynamicSecret("/dynamic/mysql", 60).issueDelay(2_000L);
+            System.setProperty("ext.cred.akeyless.http.read_timeout_ms", "300");
+            useGateways(first.url() + "," + second.url());
+            try {
+                new CredentialResolver().resolve(args("/dynamic/mysql"));
+                Assert.fail("expected a read timeout");
+            } catch (Exception expected) {
+                // the account was created, but its credentials never arrived
+            }
+            Assert.assertEquals(1, first.leasesIssued() + second.leasesIssued());
+        }
+    }
+
+    @Test
+    public void testIssueFailsOverWhenTheConnectTimesOut() throws Exception {
+        // Accepts connections but never answers the TLS handshake, so connecting times out
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             GatewaySimulator gateway = new GatewaySimulator()) {
+            gateway.dynamicSecret("/dynamic/mysql", 60);
+            System.setProperty("ext.cred.akeyless.http.read_timeout_ms", "300");
+            useGateways("https://127.0.0.1:" + silent.getLocalPort() + "," + gateway.url());
+
+            Assert.assertEquals("tmp-1", new CredentialResolver().resolve(args("/dynamic/mysql")).get("username"));
+            Assert.assertEquals(1, gateway.leasesIssued());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GatewayApiVersionsTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.token.cache.enabled");
+    }
+
+    @Test
+    public void testLegacyEndpointIsRememberedUntilReprobe() {
+        AtomicLong now = new AtomicLong(1_000L);
+        GatewayApiVersions versions = new GatewayApiVersions(now::get);
+        Assert.assertFalse(versions.useLegacy("https://gw/auth"));
+
+        versions.record("https://gw/auth", true, 500L);
+        Assert.assertTrue(versions.useLegacy("https://gw/auth"));
+        Assert.assertFalse(versions.useLegacy("https://other/auth"));
+
+        now.addAndGet(500L);
+        Assert.assertFalse("due for a re-probe", versions.useLegacy("https://gw/auth"));
+
+        versions.record("https://gw/auth", true, 500L);
+        Assert.assertTrue(versions.useLegacy("https://gw/auth"));
+        versions.forget("https://gw/auth");
+        Assert.assertFalse(versions.useLegacy("https://gw/auth"));
+    }
+
+    @Test
+    public void testLegacyGatewayIsProbedOnce() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://legacy");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-legacy");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.token.cache.enabled", "false");
+
+        AtomicBoolean upgraded = new AtomicBoolean();
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            calls.add(url.substring("https://legacy".length()));
+            boolean v2 = url.contains("/v2/");
+            if (v2 != upgraded.get()) {
+                throw new AkeylessCredentialResolverException("HTTP 404 from " + url + ": {}", 404);
+            }
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            out.put("secrets", Collections.singletonMap("/s", "pw"));
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("pw", cr.resolve(args).get("password"));
+        }
+        Assert.assertEquals(List.of(
+                "/v2/auth", "/auth", "/v2/get-secret-value", "/get-secret-value",
+                "/auth", "/get-secret-value",
+                "/auth", "/get-secret-value"), calls);
+
+        // Once the legacy path answers 404, /v2 is probed again in the same call
+        calls.clear();
+        upgraded.set(true);
+        Assert.assertEquals("pw", cr.resolve(args).get("password"));
+        Assert.assertEquals(List.of("/auth", "/v2/auth", "/get-secret-value", "/v2/get-secret-value"), calls);
+    }
+
+    @Test
+    public void testFallbackUsesStatusNotMessage() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-status");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            if (url.endsWith("/v2/auth")) {
+                throw new AkeylessCredentialResolverException("HTTP 400 from " + url + ": {\"error\":\"HTTP 404 upstream\"}", 400);
+            }
+            throw new AssertionError("Unexpected URL: " + url);
+        });
+
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        try {
+            new CredentialResolver().resolve(args);
+            Assert.fail("expected HTTP 400");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertEquals(400, e.getHttpStatus());
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local Akeyless gateway for tests and load runs: an in-process HTTP server on 127.0.0.1 that
+ * answers {@code /v2/auth}, {@code /auth}, {@code /v2/get-secret-value},
+ * {@code /get-secret-value}, {@code /list-items} and their get-dynamic-secret-value counterparts
+ * like the real gateway, so the resolver is exercised through its real HTTP transports.
+ *
+ * Each request waits for a delay drawn from the configured {@link Latency}, then may fail with an
+ * injected error. In legacy mode the /v2 endpoints answer 404. Tokens expire after the configured
+ * TTL and are then rejected with 401, as a revoked token would be.
+ */
+final class GatewaySimulator implements AutoCloseable {
+
+    /** Per-request delay, in nanoseconds. */
+    interface Latency {
+        long nextNanos(ThreadLocalRandom random);
+
+        static Latency none() {
+            return random -> 0L;
+        }
+
+        static Latency fixed(long millis) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            return random -> nanos;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            long min = TimeUnit.MILLISECONDS.toNanos(minMillis);
+            long max = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            return random -> min + (long) (random.nextDouble() * (max - min));
+        }
+
+        /** Long-tailed network latency: a median plus the spread of its logarithm (0.5 is typical). */
+        static Latency logNormal(double medianMillis, double sigma) {
+            return random -> (long) (medianMillis * 1_000_000d * Math.exp(sigma * random.nextGaussian()));
+        }
+
+        /**
+         * Parses {@code none}, {@code fixed:<ms>}, {@code uniform:<min ms>:<max ms>} or
+         * {@code lognormal:<median ms>:<sigma>}, for the load driver.
+         */
+        static Latency parse(String spec) {
+            String[] p = spec.trim().split(":");
+            switch (p[0]) {
+                case "none":
+                    return none();
+                case "fixed":
+                    return fixed(Long.parseLong(p[1]));
+                case "uniform":
+                    return uniform(Long.parseLong(p[1]), Long.parseLong(p[2]));
+                case "lognormal":
+                    return logNormal(Double.parseDouble(p[1]), Double.parseDouble(p[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            }
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final Map<String, Object> secrets = new ConcurrentHashMap<>();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final Map<String, Long> modified = new ConcurrentHashMap<>();
+    private final Map<String, Long> dynamicSecrets = new ConcurrentHashMap<>();
+    private final AtomicLong leaseCounter = new AtomicLong();
+    private final Map<String, Long> tokenExpiry = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final AtomicLong tokenCounter = new AtomicLong();
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    private volatile Latency latency = Latency.none();
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile boolean legacyOnly;
+    private volatile long tokenTtlMillis = TimeUnit.HOURS.toMillis(1);
+    private volatile int listPageSize = 100;
+    private volatile long issueDelayMillis;
+
+    GatewaySimulator() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        AtomicInteger threads = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "gateway-sim-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    GatewaySimulator latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /** Fails this share of requests (0 to 1) with {@code status}, after the simulated delay. */
+    GatewaySimulator errors(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /** Fails the next {@code count} requests with {@code status}, for deterministic tests. */
+    GatewaySimulator failNext(int count, int status) {
+        this.errorStatus = status;
+        failNext.set(count);
+        return this;
+    }
+
+    /** Answers 404 on the /v2 endpoints, like a gateway that predates them. */
+    GatewaySimulator legacyOnly(boolean legacyOnly) {
+        this.legacyOnly = legacyOnly;
+        return this;
+    }
+
+    GatewaySimulator tokenTtl(long millis) {
+        this.tokenTtlMillis = millis;
+        return this;
+    }
+
+    /**
+     * Stores a secret, or a new version of it; a String is returned as is, any other value as a
+     * JSON object.
+     */
+    GatewaySimulator secret(String path, Object value) {
+        return secret(path, value, System.currentTimeMillis());
+    }
+
+    /** Like {@link #secret(String, Object)}, listed as modified at {@code modifiedMillis}. */
+    GatewaySimulator secret(String path, Object value, long modifiedMillis) {
+        secrets.put(path, value);
+        versions.merge(path, 1L, Long::sum);
+        modified.put(path, modifiedMillis);
+        return this;
+    }
+
+    /** Items per list-items page; later pages are asked for with the returned next_page token. */
+    GatewaySimulator listPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+        return this;
+    }
+
+    /**
+     * Declares a dynamic secret: each get-dynamic-secret-value call issues a new temporary
+     * account, as a database producer does, with the given lease.
+     */
+    GatewaySimulator dynamicSecret(String path, long ttlMinutes) {
+        dynamicSecrets.put(path, ttlMinutes);
+        return this;
+    }
+
+    /**
+     * Delays the answer to get-dynamic-secret-value after the account was created, as a gateway
+     * that issues the credential but answers too late would.
+     */
+    GatewaySimulator issueDelay(long millis) {
+        this.issueDelayMillis = millis;
+        return this;
+    }
+
+    /** Expires every token issued so far, as a gateway restart would. */
+    void expireTokens() {
+        tokenExpiry.clear();
+    }
+
+    /** Requests received on {@code path}, e.g. "/v2/auth", including failed ones. */
+    long requests(String path) {
+        LongAdder n = requests.get(path);
+        return n == null ? 0 : n.sum();
+    }
+
+    long injectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    long tokensIssued() {
+        return tokenCounter.get();
+    }
+
+    long leasesIssued() {
+        return leaseCounter.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, p -> new LongAdder()).increment();
+            Map<String, Object> req;
+            try (InputStream is = exchange.getRequestBody()) {
+                req = JSON.std.mapFrom(is);
+            }
+            long delay = latency.nextNanos(ThreadLocalRandom.current());
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            boolean v2 = path.startsWith("/v2/");
+            String endpoint = v2 ? path.substring(3) : path;
+            if ((v2 && legacyOnly) || !(endpoint.equals("/auth") || endpoint.equals("/get-secret-value")
+                    || endpoint.equals("/get-dynamic-secret-value") || endpoint.equals("/list-items"))) {
+                send(exchange, 404, error("Not Found"));
+            } else if (shouldFail()) {
+                injectedErrors.increment();
+                send(exchange, errorStatus, error("Injected failure"));
+            } else if (endpoint.equals("/auth")) {
+                send(exchange, 200, auth(req));
+            } else if (!isTokenValid(req)) {
+                send(exchange, 401, error("Unauthorized: token is expired or invalid"));
+            } else if (endpoint.equals("/get-secret-value")) {
+                send(exchange, 200, getSecretValue(req));
+            } else if (endpoint.equals("/list-items")) {
+                send(exchange, 200, listItems(req));
+            } else {
+                getDynamicSecretValue(exchange, req);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean shouldFail() {
+        for (int n; (n = failNext.get()) > 0; ) {
+            if (failNext.compareAndSet(n, n - 1)) {
+                return true;
+            }
+        }
+        double rate = errorRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private Map<String, Object> auth(Map<String, Object> req) {
+        String token = "t-" + req.get("access-id") + "-" + tokenCounter.incrementAndGet();
+        tokenExpiry.put(token, System.currentTimeMillis() + tokenTtlMillis);
+        return Collections.singletonMap("token", token);
+    }
+
+    private boolean isTokenValid(Map<String, Object> req) {
+        Long expiry = tokenExpiry.get(String.valueOf(req.get("token")));
+        return expiry != null && expiry > System.currentTimeMillis();
+    }
+
+    private Map<String, Object> getSecretValue(Map<String, Object> req) {
+        Object names = req.get("names");
+        Collection<?> wanted = names instanceof Collection
+                ? (Collection<?>) names
+                : Collections.singleton(req.get("name"));
+        Map<String, Object> out = new HashMap<>();
+        for (Object name : wanted) {
+            Object value = secrets.get(String.valueOf(name));
+            if (value != null) {
+                out.put(String.valueOf(name), value);
+            }
+        }
+        return out;
+    }
+
+    // Items under the folder, by name, with their version and modification time
+    private Map<String, Object> listItems(Map<String, Object> req) {
+        String folder = String.valueOf(req.get("path"));
+        String prefix = folder.endsWith("/") ? folder : folder + "/";
+        List<Map<String, Object>> all = new ArrayList<>();
+        for (String name : new TreeMap<>(secrets).keySet()) {
+            if (!name.startsWith(prefix)) continue;
+            Map<String, Object> item = new HashMap<>();
+            item.put("item_name", name);
+            item.put("item_type", "STATIC_SECRET");
+            item.put("last_version", versions.get(name));
+            item.put("modification_date", Instant.ofEpochMilli(modified.get(name)).toString());
+            all.add(item);
+        }
+        Object token = req.get("pagination-token");
+        int from = token == null ? 0 : Integer.parseInt(token.toString());
+        int to = Math.min(all.size(), from + listPageSize);
+        Map<String, Object> out = new HashMap<>();
+        out.put("items", new ArrayList<>(all.subList(from, to)));
+        if (to < all.size()) {
+            out.put("next_page", String.valueOf(to));
+        }
+        return out;
+    }
+
+    private void getDynamicSecretValue(HttpExchange exchange, Map<String, Object> req) throws IOException {
+        Long ttlMinutes = dynamicSecrets.get(String.valueOf(req.get("name")));
+        if (ttlMinutes == null) {
+            send(exchange, 404, error("Item not found: " + req.get("name")));
+            return;
+        }
+        String account = "tmp-" + leaseCounter.incrementAndGet();
+        if (issueDelayMillis > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(issueDelayMillis));
+        }
+        Map<String, Object> out = new HashMap<>();
+        out.put("id", account);
+        out.put("user", account);
+        out.put("password", "pw-" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        out.put("ttl_in_minutes", String.valueOf(ttlMinutes));
+        send(exchange, 200, out);
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    private static void send(HttpExchange exchange, int code, Map<String, Object> body) throws IOException {
+        byte[] bytes = JSON.std.asBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
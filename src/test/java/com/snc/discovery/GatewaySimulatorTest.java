@@ -0,0 +1,94 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class GatewaySimulatorTest {
+
+    private GatewaySimulator gateway;
+    private SimpleResolverMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        gateway = new GatewaySimulator().secret("/sim/db", "{\"username\":\"svc\",\"password\":\"pw\"}");
+        System.setProperty("ext.cred.akeyless.gw_url", gateway.url());
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-sim");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.retry.base_delay_ms", "1");
+        CredentialResolver.resetHttpTransport();
+        metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        gateway.close();
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.retry.base_delay_ms");
+    }
+
+    private static Map<String, String> args() {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/sim/db");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        return args;
+    }
+
+    @Test
+    public void testLegacyGatewayIsUsedAfterV2NotFound() throws Exception {
+        gateway.legacyOnly(true);
+        CredentialResolver cr = new CredentialResolver();
+        Assert.assertEquals("pw", cr.resolve(args()).get("password"));
+        Assert.assertEquals("pw", cr.resolve(args()).get("password"));
+
+        Assert.assertEquals(1, gateway.requests("/v2/auth"));
+        Assert.assertEquals(1, gateway.requests("/auth"));
+        Assert.assertEquals("the 404 is remembered", 1, gateway.requests("/v2/get-secret-value"));
+        Assert.assertEquals(2, gateway.requests("/get-secret-value"));
+    }
+
+    @Test
+    public void testExpiredTokenIsReplaced() throws Exception {
+        CredentialResolver cr = new CredentialResolver();
+        Assert.assertEquals("svc", cr.resolve(args()).get("username"));
+        gateway.expireTokens();
+        Assert.assertEquals("svc", cr.resolve(args()).get("username"));
+
+        Assert.assertEquals(2, gateway.tokensIssued());
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.TOKEN_REJECTED));
+    }
+
+    @Test
+    public void testInjectedErrorsAreRetried() throws Exception {
+        gateway.failNext(2, 503);
+        Assert.assertEquals("pw", new CredentialResolver().resolve(args()).get("password"));
+        Assert.assertEquals(2, gateway.injectedErrors());
+        Assert.assertEquals(2, metrics.counter(ResolverMetrics.RETRIES));
+    }
+
+    @Test
+    public void testLoadDriverReportsPercentiles() throws Exception {
+        ResolverLoadDriver.Options o = ResolverLoadDriver.Options.parse(new String[] {
+                "requests=400", "concurrency=40", "secrets=8", "latency=fixed:1"});
+        ResolverLoadDriver.Report report = ResolverLoadDriver.run(o);
+
+        Assert.assertEquals(report.toString(), 0, report.failed);
+        Assert.assertEquals(400, report.succeeded());
+        Assert.assertTrue(report.percentileMicros(0.5) >= 1_000);
+        Assert.assertTrue(report.percentileMicros(0.99) >= report.percentileMicros(0.5));
+        long fetches = report.gatewayRequests.get("/v2/get-secret-value");
+        Assert.assertTrue("concurrent fetches of one secret are coalesced", fetches > 0 && fetches <= 400);
+        Assert.assertTrue(report.throughputPerSecond() > 0);
+    }
+}
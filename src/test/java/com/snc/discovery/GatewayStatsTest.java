@@ -0,0 +1,193 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GatewayStatsTest {
+
+    private static final List<String> GATEWAYS = Arrays.asList("https://gw-a", "https://gw-b", "https://gw-c");
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.retry.max_attempts");
+        System.clearProperty("ext.cred.akeyless.gateway.hedge.min_delay_ms");
+    }
+
+    @Test
+    public void testRanksHealthyGatewaysByLatency() {
+        GatewayStats stats = new GatewayStats(now::get);
+        Assert.assertEquals("unmeasured gateways keep their order", GATEWAYS, stats.rank(GATEWAYS, gw -> false));
+
+        stats.record("https://gw-a", 30_000_000L, false);
+        stats.record("https://gw-b", 10_000_000L, false);
+        stats.record("https://gw-c", 20_000_000L, false);
+        Assert.assertEquals(Arrays.asList("https://gw-b", "https://gw-c", "https://gw-a"), stats.rank(GATEWAYS, gw -> false));
+        Assert.assertEquals(Arrays.asList("https://gw-c", "https://gw-a", "https://gw-b"),
+                stats.rank(GATEWAYS, "https://gw-b"::equals));
+
+        for (int i = 0; i < 4; i++) stats.record("https://gw-b", 10_000_000L, true);
+        Assert.assertFalse(stats.isHealthy("https://gw-b"));
+        Assert.assertEquals(Arrays.asList("https://gw-c", "https://gw-a", "https://gw-b"), stats.rank(GATEWAYS, gw -> false));
+
+        now.addAndGet(30_000L);
+        Assert.assertTrue("tried again after the probation period", stats.isHealthy("https://gw-b"));
+    }
+
+    @Test
+    public void testCallsFromBeforeClearAreIgnored() {
+        GatewayStats stats = new GatewayStats(now::get);
+        long before = stats.generation();
+        stats.clear();
+        Assert.assertFalse(stats.record("https://gw-a", 10_000_000_000L, true, before));
+        Assert.assertTrue(stats.gateways().isEmpty());
+        Assert.assertTrue(stats.record("https://gw-a", 10_000_000L, false, stats.generation()));
+        Assert.assertEquals(10_000_000d, stats.latencyNanos("https://gw-a"), 0d);
+    }
+
+    @Test
+    public void testP95NeedsEnoughCalls() {
+        GatewayStats stats = new GatewayStats(now::get);
+        for (int i = 1; i <= 19; i++) stats.record("https://gw-a", i * 1_000_000L, false);
+        Assert.assertEquals(-1, stats.p95Nanos("https://gw-a"));
+        stats.record("https://gw-a", 20_000_000L, false);
+        Assert.assertEquals(19_000_000L, stats.p95Nanos("https://gw-a"));
+        Assert.assertEquals(-1, stats.p95Nanos("https://gw-b"));
+    }
+
+    private void configure(String gwUrls) {
+        System.setProperty("ext.cred.akeyless.gw_url", gwUrls);
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-gateways");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+    }
+
+    private static Map<String, String> args() {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        return args;
+    }
+
+    private static Map<String, Object> answer(String url) {
+        Map<String, Object> out = new HashMap<>();
+        if (url.endsWith("/v2/auth")) {
+            out.put("token", url.startsWith("https://gw-a") ? "TA" : "TB");
+        } else {
+            out.put("secrets", Collections.singletonMap("/s", url.startsWith("https://gw-a") ? "pa" : "pb"));
+        }
+        return out;
+    }
+
+    @Test
+    public void testFailsOverToTheNextGateway() throws Exception {
+        configure("https://gw-a, https://gw-b");
+        System.setProperty("ext.cred.akeyless.retry.max_attempts", "1");
+        Set<String> tokensUsed = ConcurrentHashMap.newKeySet();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            if (url.endsWith("/get-secret-value")) {
+                @SuppressWarnings("unchecked")
+                String token = (String) ((Map<String, Object>) payload).get("token");
+                tokensUsed.add(token);
+                if (url.startsWith("https://gw-a")) {
+                    throw new IOException("Connection refused");
+                }
+            }
+            return answer(url);
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        Assert.assertEquals("pb", new CredentialResolver().resolve(args()).get("password"));
+        Assert.assertEquals("each gateway gets its own token", new HashSet<>(Arrays.asList("TA", "TB")), tokensUsed);
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.GATEWAY_FAILOVER));
+    }
+
+    @Test
+    public void testSlowGatewayIsHedged() throws Exception {
+        configure("https://gw-a,https://gw-b");
+        System.setProperty("ext.cred.akeyless.gateway.hedge.min_delay_ms", "20");
+        AtomicBoolean stall = new AtomicBoolean();
+        CountDownLatch release = new CountDownLatch(1);
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            if (url.startsWith("https://gw-b")) {
+                Thread.sleep(5);
+            } else if (stall.get() && url.endsWith("/get-secret-value")) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return answer(url);
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        CredentialResolver cr = new CredentialResolver();
+        try {
+            // Enough fast calls to gw-a for a p95; gw-b is measured once and found slower
+            for (int i = 0; i < 25; i++) cr.resolve(args());
+            Assert.assertEquals(0, metrics.counter(ResolverMetrics.GATEWAY_HEDGED));
+
+            stall.set(true);
+            long start = System.nanoTime();
+            Assert.assertEquals("pb", cr.resolve(args()).get("password"));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            Assert.assertEquals(1, metrics.counter(ResolverMetrics.GATEWAY_HEDGED));
+            Assert.assertTrue("the losing call is interrupted", CredentialResolver.awaitHedges(1_000L));
+        } finally {
+            release.countDown();
+            CredentialResolver.awaitHedges(5_000L);
+        }
+    }
+
+    @Test
+    public void testLosingHedgeOverUrlConnectionIsAborted() throws Exception {
+        AtomicBoolean stall = new AtomicBoolean();
+        long stallNanos = TimeUnit.SECONDS.toNanos(5);
+        try (GatewaySimulator slow = new GatewaySimulator(); GatewaySimulator fast = new GatewaySimulator()) {
+            slow.latency(random -> stall.get() ? stallNanos : 0L).secret("/s", "pa");
+            // Slower than the first gateway while it is healthy, so the first one stays primary
+            fast.latency(GatewaySimulator.Latency.fixed(300)).secret("/s", "pb");
+            configure(slow.url() + "," + fast.url());
+            System.setProperty("ext.cred.akeyless.gateway.hedge.min_delay_ms", "20");
+            CredentialResolver.resetHttpTransport();
+            SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+            CredentialResolver.setMetrics(metrics);
+
+            CredentialResolver cr = new CredentialResolver();
+            try {
+                for (int i = 0; i < 25; i++) cr.resolve(args());
+                CredentialResolver.awaitHedges(1_000L);
+                long hedged = metrics.counter(ResolverMetrics.GATEWAY_HEDGED);
+                stall.set(true);
+                Assert.assertEquals("pb", cr.resolve(args()).get("password"));
+                Assert.assertEquals(hedged + 1, metrics.counter(ResolverMetrics.GATEWAY_HEDGED));
+                // A blocking socket read ignores the interrupt; closing the connection ends it
+                Assert.assertTrue("the losing call's connection is closed", CredentialResolver.awaitHedges(1_000L));
+            } finally {
+                stall.set(false);
+                CredentialResolver.awaitHedges(10_000L);
+            }
+        }
+    }
+}
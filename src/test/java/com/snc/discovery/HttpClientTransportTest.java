@@ -0,0 +1,177 @@
+package com.snc.discovery;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClientTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+    private final CountDownLatch stalled = new CountDownLatch(1);
+    private final CountDownLatch slowArrived = new CountDownLatch(3);
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            Map<String, Object> req;
+            try (InputStream is = exchange.getRequestBody()) {
+                req = JSON.std.mapFrom(is);
+            }
+            String path = exchange.getRequestURI().getPath();
+            Map<String, Object> resp = new HashMap<>();
+            int code = 200;
+            if (path.equals("/v2/auth")) {
+                resp.put("token", "T-" + req.get("access-id"));
+            } else if (path.equals("/v2/get-secret-value")) {
+                resp.put((String) req.get("name"), "pw-" + req.get("token"));
+            } else {
+                code = 404;
+                resp.put("error", "not found");
+            }
+            byte[] body = JSON.std.asBytes(resp);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 100);
+            OutputStream os = exchange.getResponseBody();
+            os.write("{\"token\":".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            try {
+                stalled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            slowArrived.countDown();
+            try {
+                slowArrived.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"token\":\"slow\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.setExecutor(serverThreads);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        stalled.countDown();
+        server.stop(0);
+        serverThreads.shutdownNow();
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.http.transport");
+    }
+
+    @Test
+    public void testPostsJsonAndReusesConnection() throws Exception {
+        try (HttpClientTransport http = new HttpClientTransport(5_000, 5_000, 4, 1024 * 1024)) {
+            for (int i = 0; i < 5; i++) {
+                Map<String, Object> out = http.postJson(baseUrl + "/v2/auth", Collections.singletonMap("access-id", "a" + i));
+                Assert.assertEquals("T-a" + i, out.get("token"));
+            }
+        }
+        Assert.assertEquals("sequential calls should share one keep-alive connection", 1, clientPorts.size());
+    }
+
+    @Test
+    public void testNon2xxThrowsWithStatus() throws Exception {
+        try (HttpClientTransport http = new HttpClientTransport(5_000, 5_000, 4, 1024 * 1024)) {
+            http.postJson(baseUrl + "/missing", Collections.emptyMap());
+            Assert.fail("expected HTTP 404");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("HTTP 404 from " + baseUrl + "/missing"));
+            Assert.assertEquals(404, e.getHttpStatus());
+        }
+    }
+
+    @Test
+    public void testSelectedByMidProperty() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", baseUrl);
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-hc");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.http.transport", "httpclient");
+        CredentialResolver.resetHttpTransport();
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        Assert.assertEquals("pw-T-id-hc", cr.resolve(args).get("password"));
+        Assert.assertEquals("pw-T-id-hc", cr.resolve(args).get("password"));
+        Assert.assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void testReadTimeoutCoversStalledBody() throws Exception {
+        try (HttpClientTransport http = new HttpClientTransport(5_000, 300, 4, 1024 * 1024)) {
+            long start = System.nanoTime();
+            try {
+                http.postJson(baseUrl + "/stall", Collections.emptyMap());
+                Assert.fail("expected the stalled body to time out");
+            } catch (java.net.http.HttpTimeoutException expected) {
+                // headers arrived, the body never finished
+            }
+            long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("took " + tookMillis + " ms", tookMillis < 3_000);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsRunInParallel() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try (HttpClientTransport http = new HttpClientTransport(5_000, 5_000, 4, 1024 * 1024)) {
+            Future<?>[] calls = new Future<?>[3];
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] = callers.submit(() -> http.postJson(baseUrl + "/slow", Collections.emptyMap()));
+            }
+            // Each request is only answered once all three have reached the server
+            for (Future<?> call : calls) {
+                Assert.assertEquals("slow", ((Map<?, ?>) call.get(10, TimeUnit.SECONDS)).get("token"));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+}
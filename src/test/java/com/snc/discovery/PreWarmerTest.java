@@ -0,0 +1,140 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PreWarmerTest {
+
+    private static final long HOUR = 3_600_000L;
+    private static final long MINUTE = 60_000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(10 * HOUR);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+        System.clearProperty("ext.cred.akeyless.prewarm.enabled");
+        System.clearProperty("ext.cred.akeyless.prewarm.file");
+    }
+
+    private void run(PreWarmer warmer, String... ids) {
+        for (String id : ids) {
+            warmer.record(id, "ssh_password");
+            now.addAndGet(MINUTE);
+        }
+    }
+
+    @Test
+    public void testWarmsShortlyBeforeNextRun() {
+        PreWarmer warmer = new PreWarmer(100, 5 * MINUTE, null, now::get);
+        long firstRun = now.get();
+        run(warmer, "/a", "/b", "/a");
+        Assert.assertTrue("period unknown after one run", warmer.due().isEmpty());
+
+        now.set(firstRun + HOUR);
+        run(warmer, "/a", "/b");
+
+        now.set(firstRun + 2 * HOUR - 10 * MINUTE);
+        Assert.assertTrue(warmer.due().isEmpty());
+        now.set(firstRun + 2 * HOUR - 4 * MINUTE);
+        Assert.assertEquals(Arrays.asList("/a", "/b"), warmer.due());
+        Assert.assertTrue("warmed once per run", warmer.due().isEmpty());
+    }
+
+    @Test
+    public void testHistoryIsBoundedAndPersisted() throws Exception {
+        File file = new File(tmp.getRoot(), "work/prewarm.json");
+        PreWarmer warmer = new PreWarmer(2, 5 * MINUTE, file, now::get);
+        long firstRun = now.get();
+        run(warmer, "/a", "/b", "/c");
+        now.set(firstRun + HOUR);
+        run(warmer, "/b", "/c");
+        Assert.assertEquals(2, warmer.size());
+        warmer.save();
+        Assert.assertTrue(file.isFile());
+        Assert.assertFalse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).contains("/a"));
+
+        PreWarmer restarted = new PreWarmer(2, 5 * MINUTE, file, now::get);
+        restarted.load();
+        now.set(firstRun + 2 * HOUR - 3 * MINUTE);
+        Assert.assertEquals(Arrays.asList("/b", "/c"), restarted.due());
+    }
+
+    @Test
+    public void testFileIsRewrittenOnlyWhenRunsChange() throws Exception {
+        File file = new File(tmp.getRoot(), "prewarm.json");
+        PreWarmer warmer = new PreWarmer(10, 5 * MINUTE, file, now::get);
+        long firstRun = now.get();
+        run(warmer, "/a");
+        warmer.save();
+        Assert.assertTrue(file.delete());
+
+        run(warmer, "/a", "/a");
+        warmer.save();
+        Assert.assertFalse("accesses within a run are not persisted", file.exists());
+
+        now.set(firstRun + HOUR);
+        run(warmer, "/a");
+        warmer.save();
+        Assert.assertTrue("a new run is", file.isFile());
+    }
+
+    @Test
+    public void testPrefetchFillsCacheInOneBatch() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-prewarm");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+        System.setProperty("ext.cred.akeyless.prewarm.enabled", "true");
+        System.setProperty("ext.cred.akeyless.prewarm.file", new File(tmp.getRoot(), "prewarm.json").getPath());
+
+        AtomicInteger fetches = new AtomicInteger();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            fetches.incrementAndGet();
+            @SuppressWarnings("unchecked")
+            List<String> names = (List<String>) ((Map<String, Object>) payload).get("names");
+            Map<String, Object> secrets = new HashMap<>();
+            for (String name : names) secrets.put(name, "pw" + name);
+            out.put("secrets", secrets);
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        cr.prefetch(ResolverConfig.current(), Arrays.asList("/a", "/b"));
+        Assert.assertEquals(1, fetches.get());
+
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/b");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        Assert.assertEquals("pw/b", cr.resolve(args).get("password"));
+        Assert.assertEquals(1, fetches.get());
+        Assert.assertEquals(Long.valueOf(1), CredentialResolver.getSecretCacheStats().get("hits"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResolverConfigTest {
+
+    @After
+    public void tearDown() {
+        ResolverConfig.invalidate();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.map.username");
+        System.clearProperty("ext.cred.akeyless.config.refresh_seconds");
+        System.clearProperty("ext.cred.akeyless.cache.max_entries");
+    }
+
+    @Test
+    public void testSnapshotIsReusedWithinRefreshInterval() {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://gw1");
+        ResolverConfig.invalidate();
+        ResolverConfig first = ResolverConfig.current();
+        Assert.assertEquals("https://gw1", first.gwUrl);
+        Assert.assertEquals("username", first.fieldUser);
+
+        System.setProperty("ext.cred.akeyless.gw_url", "https://gw2");
+        Assert.assertSame(first, ResolverConfig.current());
+
+        ResolverConfig.invalidate();
+        Assert.assertEquals("https://gw2", ResolverConfig.current().gwUrl);
+    }
+
+    @Test
+    public void testZeroRefreshIntervalReadsEveryCall() {
+        System.setProperty("ext.cred.akeyless.config.refresh_seconds", "0");
+        System.setProperty("ext.cred.akeyless.map.username", "login");
+        ResolverConfig.invalidate();
+        Assert.assertEquals("login", ResolverConfig.current().fieldUser);
+
+        System.setProperty("ext.cred.akeyless.map.username", "user_name");
+        Assert.assertEquals("user_name", ResolverConfig.current().fieldUser);
+    }
+
+    @Test
+    public void testInvalidNumbersFallBackToDefaults() {
+        System.setProperty("ext.cred.akeyless.cache.max_entries", "lots");
+        Assert.assertEquals(1000L, MidProperties.getLong("ext.cred.akeyless.cache.max_entries", 1000L));
+        Assert.assertEquals("dflt", MidProperties.get("ext.cred.akeyless.not_set", "dflt"));
+    }
+}
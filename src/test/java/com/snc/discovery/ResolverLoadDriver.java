@@ -0,0 +1,240 @@
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test of resolve() against local {@link GatewaySimulator}s: runs many concurrent resolves,
+ * as MID worker threads would, and reports throughput and latency percentiles.
+ *
+ * Run with the load-test profile, passing options as key=value pairs:
+ * <pre>
+ * mvn -Pload-test -Drevision=1.0.0-LOAD test-compile exec:exec@run-load-test \
+ *     -Dload.args="requests=50000 concurrency=2000 latency=lognormal:20:0.6 error_rate=0.01"
+ * </pre>
+ * Any {@code ext.cred.akeyless.*} pair is set as a resolver property, e.g.
+ * {@code ext.cred.akeyless.http.transport=httpclient}.
+ */
+final class ResolverLoadDriver {
+
+    static final class Options {
+        int requests = 20_000;
+        int concurrency = 1_000;
+        int secrets = 100;
+        int gateways = 1;
+        String latency = "lognormal:5:0.5";
+        double errorRate;
+        int errorStatus = 503;
+        boolean legacy;
+        long tokenTtlMillis = TimeUnit.HOURS.toMillis(1);
+        final Map<String, String> properties = new LinkedHashMap<>();
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Expected key=value, got: " + arg);
+                }
+                String key = arg.substring(0, eq);
+                String value = arg.substring(eq + 1);
+                if (key.startsWith("ext.cred.akeyless.")) {
+                    o.properties.put(key, value);
+                    continue;
+                }
+                switch (key) {
+                    case "requests": o.requests = Integer.parseInt(value); break;
+                    case "concurrency": o.concurrency = Integer.parseInt(value); break;
+                    case "secrets": o.secrets = Integer.parseInt(value); break;
+                    case "gateways": o.gateways = Integer.parseInt(value); break;
+                    case "latency": o.latency = value; break;
+                    case "error_rate": o.errorRate = Double.parseDouble(value); break;
+                    case "error_status": o.errorStatus = Integer.parseInt(value); break;
+                    case "legacy": o.legacy = Boolean.parseBoolean(value); break;
+                    case "token_ttl_ms": o.tokenTtlMillis = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + key);
+                }
+            }
+            return o;
+        }
+    }
+
+    static final class Report {
+        final int requests;
+        final long failed;
+        final long elapsedNanos;
+        final Map<String, Long> errors;
+        final Map<String, Long> counters;
+        final Map<String, Long> gatewayRequests;
+        // latencies of successful resolves, sorted
+        private final long[] latencies;
+
+        Report(int requests, long failed, long elapsedNanos, long[] latencies, Map<String, Long> errors,
+               Map<String, Long> counters, Map<String, Long> gatewayRequests) {
+            this.requests = requests;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.counters = counters;
+            this.gatewayRequests = gatewayRequests;
+        }
+
+        double throughputPerSecond() {
+            return requests * 1e9 / Math.max(1L, elapsedNanos);
+        }
+
+        long succeeded() {
+            return latencies.length;
+        }
+
+        /** Latency at quantile {@code q} (0 to 1) of successful resolves, in microseconds. */
+        long percentileMicros(double q) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(q * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)] / 1_000L;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("requests      %d (%d ok, %d failed) in %.2f s%n",
+                    requests, succeeded(), failed, elapsedNanos / 1e9));
+            sb.append(String.format("throughput    %.1f resolves/s%n", throughputPerSecond()));
+            sb.append(String.format("latency ms    p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                    percentileMicros(0.50) / 1e3, percentileMicros(0.90) / 1e3, percentileMicros(0.99) / 1e3,
+                    percentileMicros(0.999) / 1e3, percentileMicros(1.0) / 1e3));
+            sb.append("gateway calls ").append(gatewayRequests).append(System.lineSeparator());
+            sb.append("counters      ").append(counters).append(System.lineSeparator());
+            if (!errors.isEmpty()) {
+                sb.append("errors        ").append(errors).append(System.lineSeparator());
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final List<String> ENDPOINTS =
+            Arrays.asList("/v2/auth", "/auth", "/v2/get-secret-value", "/get-secret-value");
+    private static final List<String> COUNTERS = Arrays.asList(
+            ResolverMetrics.RETRIES, ResolverMetrics.TOKEN_REJECTED, ResolverMetrics.FALLBACK_AUTH,
+            ResolverMetrics.FALLBACK_GET_SECRET_VALUE, ResolverMetrics.GATEWAY_FAILOVER, ResolverMetrics.GATEWAY_HEDGED,
+            ResolverMetrics.LIMITER_REJECTED, ResolverMetrics.BREAKER_REJECTED);
+
+    private ResolverLoadDriver() {
+    }
+
+    static Report run(Options o) throws Exception {
+        List<GatewaySimulator> gateways = new ArrayList<>();
+        Map<String, String> properties = new LinkedHashMap<>();
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService callers = Executors.newFixedThreadPool(o.concurrency, r -> {
+            Thread t = new Thread(r, "load-caller-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<String> urls = new ArrayList<>();
+            for (int g = 0; g < o.gateways; g++) {
+                GatewaySimulator gw = new GatewaySimulator()
+                        .latency(GatewaySimulator.Latency.parse(o.latency))
+                        .errors(o.errorRate, o.errorStatus)
+                        .legacyOnly(o.legacy)
+                        .tokenTtl(o.tokenTtlMillis);
+                for (int i = 0; i < o.secrets; i++) {
+                    gw.secret(path(i), "{\"username\":\"svc-" + i + "\",\"password\":\"pw-" + i + "\"}");
+                }
+                gateways.add(gw);
+                urls.add(gw.url());
+            }
+            properties.put("ext.cred.akeyless.gw_url", String.join(",", urls));
+            properties.put("ext.cred.akeyless.access_type", "access_key");
+            properties.put("ext.cred.akeyless.access_id", "p-load");
+            properties.put("ext.cred.akeyless.access_key", "k");
+            properties.putAll(o.properties);
+            properties.forEach(System::setProperty);
+            CredentialResolver.resetHttpTransport();
+            SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+            CredentialResolver.setMetrics(metrics);
+
+            CredentialResolver resolver = new CredentialResolver();
+            long[] latencies = new long[o.requests];
+            AtomicInteger succeeded = new AtomicInteger();
+            Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(o.requests);
+            long start = System.nanoTime();
+            for (int n = 0; n < o.requests; n++) {
+                Map<String, String> args = new HashMap<>();
+                args.put(CredentialResolver.ARG_ID, path(n % o.secrets));
+                args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+                callers.execute(() -> {
+                    try {
+                        long t0 = System.nanoTime();
+                        resolver.resolve(args);
+                        latencies[succeeded.getAndIncrement()] = System.nanoTime() - t0;
+                    } catch (Exception e) {
+                        errors.computeIfAbsent(describe(e), k -> new LongAdder()).increment();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+
+            long[] ok = Arrays.copyOf(latencies, succeeded.get());
+            Arrays.sort(ok);
+            Map<String, Long> errorCounts = new LinkedHashMap<>();
+            errors.forEach((k, v) -> errorCounts.put(k, v.sum()));
+            Map<String, Long> counters = new LinkedHashMap<>();
+            for (String c : COUNTERS) {
+                if (metrics.counter(c) > 0) counters.put(c, metrics.counter(c));
+            }
+            Map<String, Long> gatewayRequests = new LinkedHashMap<>();
+            for (String endpoint : ENDPOINTS) {
+                long calls = 0;
+                for (GatewaySimulator gw : gateways) calls += gw.requests(endpoint);
+                if (calls > 0) gatewayRequests.put(endpoint, calls);
+            }
+            return new Report(o.requests, o.requests - ok.length, elapsed, ok, errorCounts, counters, gatewayRequests);
+        } finally {
+            callers.shutdownNow();
+            CredentialResolver.setMetrics(null);
+            CredentialResolver.resetHttpTransport();
+            properties.keySet().forEach(System::clearProperty);
+            gateways.forEach(GatewaySimulator::close);
+        }
+    }
+
+    private static String path(int i) {
+        return "/load/secret-" + i;
+    }
+
+    private static String describe(Exception e) {
+        if (e instanceof AkeylessCredentialResolverException && ((AkeylessCredentialResolverException) e).getHttpStatus() > 0) {
+            return "HTTP " + ((AkeylessCredentialResolverException) e).getHttpStatus();
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // resolve() logs every call at INFO; keep console output out of the measurement
+        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.NoOpLog");
+        Options o = Options.parse(args);
+        System.out.printf("%d resolves from %d callers, %d secrets, %d gateway(s), latency %s, error rate %s%n",
+                o.requests, o.concurrency, o.secrets, o.gateways, o.latency, o.errorRate);
+        System.out.print(run(o));
+    }
+}
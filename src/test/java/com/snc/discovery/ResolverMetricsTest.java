@@ -0,0 +1,125 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class ResolverMetricsTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.metrics.enabled");
+        CredentialResolver.setMetrics(null);
+    }
+
+    @Test
+    public void testPhasesAndFallbacksAreRecorded() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-metrics");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            if (url.endsWith("/v2/get-secret-value")) {
+                throw new AkeylessCredentialResolverException("HTTP 404 from " + url + ": {}", 404);
+            }
+            Map<String, Object> secrets = new HashMap<>();
+            secrets.put("/s", "{\"username\":\"u\",\"password\":\"p\"}");
+            out.put("secrets", secrets);
+            return out;
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "basic");
+        Assert.assertEquals("p", new CredentialResolver().resolve(args).get("password"));
+        Assert.assertEquals("u", new CredentialResolver().resolve(args).get("username"));
+
+        Assert.assertEquals(2, metrics.latency(ResolverMetrics.PHASE_RESOLVE).count());
+        Assert.assertEquals(1, metrics.latency(ResolverMetrics.PHASE_AUTH).count());
+        Assert.assertEquals(2, metrics.latency(ResolverMetrics.PHASE_FETCH).count());
+        Assert.assertEquals(2, metrics.latency(ResolverMetrics.PHASE_MAPPING).count());
+        Assert.assertNull(metrics.latency(ResolverMetrics.PHASE_CLOUD_ID));
+        // the second fetch goes straight to the legacy endpoint
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.FALLBACK_GET_SECRET_VALUE));
+        Assert.assertEquals(0, metrics.counter(ResolverMetrics.RESOLVE_ERRORS));
+
+        args.remove(CredentialResolver.ARG_ID);
+        try {
+            new CredentialResolver().resolve(args);
+            Assert.fail("expected missing id");
+        } catch (IllegalArgumentException expected) {
+            // counted below
+        }
+        Assert.assertEquals(1, metrics.counter(ResolverMetrics.RESOLVE_ERRORS));
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        Assert.assertEquals(Long.valueOf(3), snapshot.get("latency.resolve.count"));
+        Assert.assertTrue(snapshot.containsKey("cache.size"));
+        Assert.assertEquals(Long.valueOf(0), snapshot.get("http.pool.in_flight"));
+    }
+
+    @Test
+    public void testStatusCountersAndHistogram() throws Exception {
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+        CredentialResolver.readJsonResponse("u", 200,
+                new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)));
+        try {
+            CredentialResolver.readJsonResponse("u", 503,
+                    new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("expected HTTP 503");
+        } catch (AkeylessCredentialResolverException expected) {
+            // counted
+        }
+        Assert.assertEquals(1, metrics.counter("http.status.200"));
+        Assert.assertEquals(1, metrics.counter("http.status.503"));
+
+        SimpleResolverMetrics.Histogram h = new SimpleResolverMetrics.Histogram();
+        for (int i = 0; i < 99; i++) h.record(100_000L);   // 100 µs
+        h.record(50_000_000L);                             // 50 ms
+        Assert.assertEquals(100, h.count());
+        Assert.assertEquals(128, h.percentileMicros(0.50));
+        Assert.assertEquals(128, h.percentileMicros(0.95));
+        Assert.assertEquals(50_000, h.percentileMicros(1.0));
+        Assert.assertEquals(50_000, h.maxMicros());
+    }
+
+    @Test
+    public void testBuiltInMetricsAreExportedOverJmx() throws Exception {
+        System.setProperty("ext.cred.akeyless.metrics.enabled", "true");
+        CredentialResolver.reloadConfig();
+        CredentialResolver.setMetrics(null);
+        ResolverMetrics metrics = CredentialResolver.metrics();
+        Assert.assertTrue(metrics instanceof SimpleResolverMetrics);
+        metrics.increment(ResolverMetrics.TOKEN_REJECTED);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JmxMetricsExporter.OBJECT_NAME);
+        Assert.assertEquals(1L, server.getAttribute(name, ResolverMetrics.TOKEN_REJECTED));
+
+        CredentialResolver.setMetrics(ResolverMetrics.NOOP);
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,78 @@
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class ResponseReaderTest {
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTokenReaderSkipsEverythingElse() throws Exception {
+        Map<String, Object> out = ResponseReader.TOKEN.read(body(
+                "{\"creds\":{\"expiry\":1,\"nested\":[1,{\"a\":\"b\"}]},\"token\":\"t-123\",\"other\":\"x\"}"));
+        Assert.assertEquals(Collections.singletonMap("token", "t-123"), out);
+        Assert.assertNull(ResponseReader.TOKEN.read(body("[\"token\"]")));
+    }
+
+    @Test
+    public void testSecretsReaderKeepsRequestedNames() throws Exception {
+        ResponseReader reader = ResponseReader.secrets(Arrays.asList("/plain", "/json", "/object", "/absent"));
+        Map<String, Object> out = reader.read(body("{"
+                + "\"/plain\":\"s3cret\","
+                + "\"/other\":{\"username\":\"skip\"},"
+                + "\"secrets\":{\"/json\":\"{\\\"username\\\":\\\"u\\\",\\\"password\\\":\\\"p\\\"}\","
+                + "\"/object\":{\"password\":\"op\",\"port\":22},\"/unwanted\":\"x\"},"
+                + "\"/absent\":null}"));
+        @SuppressWarnings("unchecked")
+        Map<String, SecretValue> secrets = (Map<String, SecretValue>) out.get("secrets");
+        Assert.assertEquals(3, secrets.size());
+        Assert.assertFalse(secrets.get("/plain").isStructured());
+        Assert.assertEquals("s3cret", secrets.get("/plain").text());
+        Assert.assertEquals("p", secrets.get("/json").field("password"));
+        Assert.assertEquals("op", secrets.get("/object").field("password"));
+        Assert.assertEquals("22", secrets.get("/object").field("port"));
+        Assert.assertSame(secrets.get("/plain"), SecretValue.fromGateway(secrets.get("/plain")));
+    }
+
+    @Test
+    public void testResponseSizeIsCapped() throws Exception {
+        char[] big = new char[5_000];
+        Arrays.fill(big, 'x');
+        try {
+            CredentialResolver.readJsonResponse("https://gw/v2/get-secret-value", 200,
+                    body("{\"/s\":\"" + new String(big) + "\"}"), ResponseReader.secrets(Collections.singleton("/s")), 1_024);
+            Assert.fail("expected the size limit to be enforced");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Response is larger than 1024 bytes"));
+        }
+        Map<String, Object> ok = CredentialResolver.readJsonResponse("https://gw/v2/auth", 200,
+                body("{\"token\":\"t\"}"), ResponseReader.TOKEN, 13);
+        Assert.assertEquals("t", ok.get("token"));
+    }
+
+    @Test
+    public void testErrorBodyIsKeptAsText() throws Exception {
+        char[] big = new char[5_000];
+        Arrays.fill(big, 'e');
+        try {
+            CredentialResolver.readJsonResponse("https://gw/v2/auth", 502,
+                    body("<html>" + new String(big) + "</html>"), ResponseReader.TOKEN, 1_000_000);
+            Assert.fail("expected HTTP 502");
+        } catch (AkeylessCredentialResolverException e) {
+            Assert.assertEquals(502, e.getHttpStatus());
+            Assert.assertTrue(e.getMessage().startsWith("HTTP 502 from https://gw/v2/auth: <html>eee"));
+            Assert.assertTrue(e.getMessage().endsWith("..."));
+            Assert.assertTrue(e.getMessage().length() < 2_200);
+        }
+    }
+}
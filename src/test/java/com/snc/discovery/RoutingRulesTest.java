@@ -0,0 +1,130 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RoutingRulesTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.routing.rules");
+    }
+
+    @Test
+    public void testLongestPrefixAndMidWin() {
+        RoutingRules rules = RoutingRules.compile(String.join("\n",
+                "# comments and blank lines are skipped",
+                "",
+                "10.0.0.0/8 /corp/{type}",
+                "10.22.0.0/16 /prod/dc1/{type}",
+                "10.22.0.0/16 mid=mid-dr /dr/dc1/{type}",
+                "10.22.5.7 /prod/dc1/special",
+                "2001:db8::/32 /v6{id}",
+                "* mid=mid-lab /lab{id}"));
+        Assert.assertEquals(6, rules.size());
+
+        Assert.assertEquals("/prod/dc1/windows", rules.route("/cred", "windows", "10.22.231.12", "mid-1"));
+        Assert.assertEquals("/dr/dc1/windows", rules.route("/cred", "windows", "10.22.231.12", "mid-dr"));
+        Assert.assertEquals("/prod/dc1/special", rules.route("/cred", "windows", "10.22.5.7", "mid-dr"));
+        Assert.assertEquals("/corp/ssh_password", rules.route("/cred", "ssh_password", "10.1.2.3", null));
+        Assert.assertEquals("/v6/cred", rules.route("/cred", "jdbc", "2001:db8:0:1::5", "mid-1"));
+        Assert.assertEquals("/lab/cred", rules.route("/cred", "jdbc", "192.168.1.1", "mid-lab"));
+        Assert.assertEquals("/lab/cred", rules.route("/cred", "jdbc", null, "mid-lab"));
+        Assert.assertNull(rules.route("/cred", "jdbc", "192.168.1.1", "mid-1"));
+        Assert.assertNull("host names are not resolved", rules.route("/cred", "jdbc", "db.example.com", "mid-1"));
+    }
+
+    @Test
+    public void testAddressLiteralsAreParsedWithoutLookup() throws Exception {
+        String[] valid = {"::", "::1", "1::", "2001:db8:0:1::5", "[2001:DB8::a:b]", "1:2:3:4:5:6:7:8",
+                "::1.2.3.4", "64:ff9b::10.0.0.1", "::ffff:10.22.5.7", "fe80::1%eth0", "10.22.5.7"};
+        for (String literal : valid) {
+            String expected = literal.replaceAll("%.*", "");
+            Assert.assertArrayEquals(literal, java.net.InetAddress.getByName(expected).getAddress(), RoutingRules.parseAddress(literal));
+        }
+        String[] invalid = {"gw:80", "db.example.com:443", "a::b::c", ":1", "1:", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7::8",
+                "12345::", "::1.2.3", "1.2.3.4::", "::g", ""};
+        for (String literal : invalid) {
+            Assert.assertNull(literal, RoutingRules.parseAddress(literal));
+        }
+    }
+
+    @Test
+    public void testInvalidRulesAreRejected() {
+        String[] invalid = {"10.0.0.0/33 /p", "10.0.0/8 /p", "10.0.0.0/8", "10.0.0.0/8 team=x /p", "10.0.0.0/8 /p/{host}", "* p"};
+        for (String rule : invalid) {
+            try {
+                RoutingRules.compile("10.1.0.0/16 /ok\n" + rule);
+                Assert.fail("expected '" + rule + "' to be rejected");
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(rule));
+            }
+        }
+    }
+
+    @Test
+    public void testThousandsOfRules() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 4096; i++) {
+            text.append("10.").append(i >> 8).append('.').append(i & 255).append(".0/24 /seg/").append(i).append(";");
+        }
+        RoutingRules rules = RoutingRules.compile(text.toString());
+        Assert.assertEquals(4096, rules.size());
+        Assert.assertEquals("/seg/0", rules.route("/c", "t", "10.0.0.1", null));
+        Assert.assertEquals("/seg/4095", rules.route("/c", "t", "10.15.255.254", null));
+        Assert.assertEquals("/seg/1234", rules.route("/c", "t", "10.4.210.77", null));
+        Assert.assertNull(rules.route("/c", "t", "10.16.0.1", null));
+    }
+
+    @Test
+    public void testResolverRoutesByTargetAndPicksUpRuleChanges() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-routing");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.routing.rules", "10.22.0.0/16 /prod/dc1/{type}");
+        List<String> fetched = new ArrayList<>();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            @SuppressWarnings("unchecked")
+            String name = (String) ((Map<String, Object>) payload).get("name");
+            fetched.add(name);
+            out.put(name, "pw-for-" + name);
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/shared");
+        args.put(CredentialResolver.ARG_TYPE, "windows");
+        args.put(CredentialResolver.ARG_IP, "10.22.231.12");
+        args.put(CredentialResolver.ARG_MID, "mid-1");
+        Assert.assertEquals("pw-for-/prod/dc1/windows", cr.resolve(args).get("password"));
+
+        args.put(CredentialResolver.ARG_IP, "172.16.0.1");
+        Assert.assertEquals("unmatched targets keep the credential id", "pw-for-/shared", cr.resolve(args).get("password"));
+
+        System.setProperty("ext.cred.akeyless.routing.rules", "172.16.0.0/12 /prod/dc2/{type}");
+        CredentialResolver.reloadConfig();
+        Assert.assertEquals("pw-for-/prod/dc2/windows", cr.resolve(args).get("password"));
+
+        System.setProperty("ext.cred.akeyless.routing.rules", "172.16.0.0/12 /prod/{nope}");
+        CredentialResolver.reloadConfig();
+        Assert.assertEquals("invalid rules keep the previous ones", "pw-for-/prod/dc2/windows", cr.resolve(args).get("password"));
+    }
+}
@@ -0,0 +1,228 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SecretCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+        System.clearProperty("ext.cred.akeyless.cache.ttl_seconds");
+        System.clearProperty("ext.cred.akeyless.cache.stale_ttl_seconds");
+        System.clearProperty("ext.cred.akeyless.breaker.enabled");
+        CredentialResolver.setMetrics(null);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        SecretCache cache = new SecretCache(10, now::get);
+        cache.put("/a", SecretValue.plain("v"), 1_000L);
+        Assert.assertEquals("v", cache.get("/a").value().text());
+        now.addAndGet(1_000L);
+        Assert.assertNull(cache.get("/a"));
+        Assert.assertEquals(1, cache.hits());
+        Assert.assertEquals(1, cache.misses());
+        Assert.assertEquals(1, cache.expirations());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        SecretCache cache = new SecretCache(2, now::get);
+        cache.put("/a", SecretValue.plain("1"), 60_000L);
+        cache.put("/b", SecretValue.plain("2"), 60_000L);
+        cache.get("/a");
+        cache.put("/c", SecretValue.plain("3"), 60_000L);
+
+        Assert.assertNull(cache.get("/b"));
+        Assert.assertEquals("1", cache.get("/a").value().text());
+        Assert.assertEquals("3", cache.get("/c").value().text());
+        Assert.assertEquals(1, cache.evictions());
+
+        cache.setMaxEntries(1);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(2, cache.evictions());
+    }
+
+    @Test
+    public void testStaleUntilHardTtl() {
+        SecretCache cache = new SecretCache(10, now::get);
+        cache.put("/a", SecretValue.plain("v"), 1_000L, 5_000L);
+        Assert.assertFalse(cache.get("/a").isStale());
+        now.addAndGet(1_000L);
+        SecretCache.Hit stale = cache.get("/a");
+        Assert.assertTrue(stale.isStale());
+        Assert.assertEquals("v", stale.value().text());
+        Assert.assertEquals(1, cache.staleHits());
+        now.addAndGet(4_000L);
+        Assert.assertNull(cache.get("/a"));
+    }
+
+    @Test
+    public void testNegativeEntries() {
+        SecretCache cache = new SecretCache(10, now::get);
+        cache.putNotFound("/missing", 500L);
+        Assert.assertTrue(cache.get("/missing").isNotFound());
+        now.addAndGet(500L);
+        Assert.assertNull(cache.get("/missing"));
+    }
+
+    @Test
+    public void testOffHeapEntriesStayWithinBudget() {
+        String pem = "-----BEGIN KEY-----\n" + new String(new char[150]).replace('\0', 'k') + "\n-----END KEY-----";
+        SecretValue key = SecretValue.parse("{\"username\":\"ünïcødé\",\"private_key\":\"" + pem.replace("\n", "\\n") + "\"}");
+        int keyBlocks = (key.compactSize() + OffHeapSecretStore.BLOCK - 1) / OffHeapSecretStore.BLOCK;
+        SecretCache cache = new SecretCache(100, now::get);
+        cache.setOffHeapBytes((keyBlocks + 1) * OffHeapSecretStore.BLOCK);
+        cache.put("/key", key, 60_000L);
+        cache.put("/a", SecretValue.plain("1"), 60_000L);
+        Assert.assertEquals(pem, cache.get("/key").value().field("private_key"));
+        Assert.assertEquals("ünïcødé", cache.get("/key").value().field("username"));
+        Assert.assertEquals((keyBlocks + 1) * OffHeapSecretStore.BLOCK, cache.offHeapUsedBytes());
+
+        // No room left: the least recently used entry makes way
+        cache.put("/b", SecretValue.plain("2"), 60_000L);
+        Assert.assertNull(cache.get("/a"));
+        Assert.assertEquals("2", cache.get("/b").value().text());
+        Assert.assertEquals(1, cache.evictions());
+
+        // Larger than the whole budget: not cached, and the older value is dropped
+        cache.put("/b", SecretValue.plain(new String(new char[2000])), 60_000L);
+        Assert.assertNull(cache.get("/b"));
+        Assert.assertEquals(1, cache.tooLarge());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.offHeapUsedBytes());
+        cache.setOffHeapBytes(0);
+        Assert.assertEquals(0, cache.offHeapCapacityBytes());
+    }
+
+    @Test
+    public void testResolverServesRepeatedLookupsFromCache() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-secret-cache");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+
+        AtomicInteger fetches = new AtomicInteger();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> p = (Map<String, Object>) payload;
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            fetches.incrementAndGet();
+            Map<String, Object> secrets = new HashMap<>();
+            if ("/s".equals(p.get("name"))) {
+                secrets.put("/s", "{\"username\":\"u\",\"password\":\"p\"}");
+            }
+            out.put("secrets", secrets);
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "basic");
+        Assert.assertEquals("p", cr.resolve(args).get("password"));
+        Assert.assertEquals("u", cr.resolve(args).get("username"));
+        Assert.assertEquals(1, fetches.get());
+
+        Map<String, String> missing = new HashMap<>();
+        missing.put(CredentialResolver.ARG_ID, "/nope");
+        missing.put(CredentialResolver.ARG_TYPE, "basic");
+        for (int i = 0; i < 2; i++) {
+            try {
+                cr.resolve(missing);
+                Assert.fail("expected not found");
+            } catch (AkeylessCredentialResolverException expected) {
+                Assert.assertTrue(expected.getMessage().contains("/nope"));
+            }
+        }
+        Assert.assertEquals(2, fetches.get());
+
+        Map<String, Long> stats = CredentialResolver.getSecretCacheStats();
+        Assert.assertEquals(Long.valueOf(2), stats.get("hits"));
+        Assert.assertEquals(Long.valueOf(2), stats.get("misses"));
+    }
+
+    @Test
+    public void testStaleValueServedWhileGatewayFails() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-stale");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+        // Every value is stale right away and can be served for another minute
+        System.setProperty("ext.cred.akeyless.cache.ttl_seconds", "0");
+        System.setProperty("ext.cred.akeyless.cache.stale_ttl_seconds", "60");
+        // The outage would otherwise open the circuit breaker and hold off the final refresh
+        System.setProperty("ext.cred.akeyless.breaker.enabled", "false");
+
+        AtomicBoolean down = new AtomicBoolean();
+        AtomicInteger version = new AtomicInteger(1);
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            if (down.get()) {
+                throw new AkeylessCredentialResolverException("HTTP 503 from " + url + ": {}", 503);
+            }
+            out.put("secrets", Collections.singletonMap("/s", "p" + version.get()));
+            return out;
+        });
+        SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+        CredentialResolver.setMetrics(metrics);
+
+        CredentialResolver cr = new CredentialResolver();
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/s");
+        args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+        Assert.assertEquals("p1", cr.resolve(args).get("password"));
+
+        down.set(true);
+        Assert.assertEquals("p1", cr.resolve(args).get("password"));
+        awaitCounter(metrics, ResolverMetrics.CACHE_REFRESH_ERRORS, 1);
+        List<Map<String, String>> batch = cr.resolveAll(Collections.singletonList(args));
+        Assert.assertEquals("p1", batch.get(0).get("password"));
+
+        down.set(false);
+        version.set(2);
+        Assert.assertEquals("p1", cr.resolve(args).get("password"));
+        String refreshed = null;
+        for (int i = 0; i < 200 && !"p2".equals(refreshed); i++) {
+            Thread.sleep(10);
+            refreshed = cr.resolve(args).get("password");
+        }
+        Assert.assertEquals("p2", refreshed);
+        Assert.assertTrue(metrics.counter(ResolverMetrics.CACHE_STALE_SERVED) >= 3);
+    }
+
+    private static void awaitCounter(SimpleResolverMetrics metrics, String name, long expected) throws InterruptedException {
+        for (int i = 0; i < 200 && metrics.counter(name) < expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, metrics.counter(name));
+    }
+}
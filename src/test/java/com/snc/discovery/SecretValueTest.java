@@ -0,0 +1,119 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SecretValueTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.map.private_key");
+    }
+
+    @Test
+    public void testParsesTopLevelFields() {
+        SecretValue v = SecretValue.parse(" {\"username\":\"u\",\"port\":22,\"ratio\":1.5,\"on\":true,"
+                + "\"gone\":null,\"nested\":{\"a\":[1,\"b\"]}}");
+        Assert.assertTrue(v.isStructured());
+        Assert.assertEquals("u", v.field("username"));
+        Assert.assertEquals("22", v.field("port"));
+        Assert.assertEquals("1.5", v.field("ratio"));
+        Assert.assertEquals("true", v.field("on"));
+        Assert.assertNull(v.field("gone"));
+        Assert.assertEquals("{\"a\":[1,\"b\"]}", v.field("nested"));
+    }
+
+    @Test
+    public void testNonObjectsStayPlain() {
+        for (String raw : Arrays.asList("t0ken", "[1,2]", "{not json", "42")) {
+            SecretValue v = SecretValue.parse(raw);
+            Assert.assertFalse(raw, v.isStructured());
+            Assert.assertEquals(raw, v.text());
+        }
+        Assert.assertTrue(SecretValue.parse("").isEmpty());
+    }
+
+    @Test
+    public void testFromGatewayMapAndWipe() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("username", "u");
+        m.put("private_key", "---KEY---");
+        m.put("list", Arrays.asList("x", 1));
+        SecretValue v = SecretValue.fromGateway(m);
+        Assert.assertEquals("---KEY---", v.field("private_key"));
+        Assert.assertEquals("[\"x\",1]", v.field("list"));
+
+        SecretValue copy = v.copy();
+        v.wipe();
+        Assert.assertEquals("\0\0\0\0\0\0\0\0\0", v.field("private_key"));
+        Assert.assertEquals("---KEY---", copy.field("private_key"));
+    }
+
+    @Test
+    public void testCompactEncodingRoundTrips() {
+        SecretValue[] values = {
+                SecretValue.plain("plain ascii"),
+                SecretValue.plain("pässwörd \u20ac \ud83d\udd11"),
+                SecretValue.parse("{\"user\":\"svc\",\"pem\":\"-----BEGIN KEY-----\\nabc\\n-----END KEY-----\",\"empty\":\"\"}"),
+        };
+        for (SecretValue v : values) {
+            ByteBuffer buf = ByteBuffer.allocate(v.compactSize());
+            v.writeCompactTo(buf);
+            Assert.assertFalse(buf.hasRemaining());
+            buf.flip();
+            SecretValue back = SecretValue.readCompactFrom(buf);
+            Assert.assertEquals(v.isStructured(), back.isStructured());
+            if (v.isStructured()) {
+                Assert.assertEquals(v.field("pem"), back.field("pem"));
+                Assert.assertEquals(v.field("empty"), back.field("empty"));
+            } else {
+                Assert.assertEquals(v.text(), back.text());
+            }
+        }
+        Assert.assertTrue("one byte per ASCII char", values[0].compactSize() < values[0].serializedSize());
+    }
+
+    @Test
+    public void testStructuredGatewayValueMapsWithOverrides() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-structured");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+        System.setProperty("ext.cred.akeyless.map.private_key", "key");
+
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            Map<String, Object> value = new HashMap<>();
+            value.put("username", "ssh-user");
+            value.put("key", "---KEY---");
+            Map<String, Object> secrets = new HashMap<>();
+            secrets.put("/ssh", value);
+            out.put("secrets", secrets);
+            return out;
+        });
+
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, "/ssh");
+        args.put(CredentialResolver.ARG_TYPE, "SSH_Private_Key");
+        Map<String, String> out = new CredentialResolver().resolve(args);
+        Assert.assertEquals("ssh-user", out.get("username"));
+        Assert.assertEquals("---KEY---", out.get("private_key"));
+        Assert.assertEquals(2, out.size());
+    }
+}
@@ -0,0 +1,120 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SecretVersionsTest {
+
+    private static final long MINUTE = 60_000L;
+
+    private final AtomicLong now = new AtomicLong(10_000_000L);
+
+    @After
+    public void tearDown() {
+        CredentialResolver.setMetrics(null);
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+        System.clearProperty("ext.cred.akeyless.cache.enabled");
+        System.clearProperty("ext.cred.akeyless.cache.refresh.mode");
+    }
+
+    @Test
+    public void testTtlAdaptsToChangeFrequency() {
+        SecretVersions versions = new SecretVersions(MINUTE, 16 * MINUTE, now::get);
+        Assert.assertEquals(5 * MINUTE, versions.fetched("/a", 5 * MINUTE));
+        Assert.assertTrue(versions.due(0).isEmpty());
+        Assert.assertEquals(Collections.singletonList("/a"), versions.due(5 * MINUTE));
+
+        // First listing: modified long before the fetch, so the cached value is current
+        Assert.assertFalse(versions.isChanged("/a", 3, now.get() - 10 * MINUTE));
+        Assert.assertEquals(5 * MINUTE, versions.ttlMillis("/a"));
+        Assert.assertFalse(versions.isChanged("/a", 3, now.get() - 10 * MINUTE));
+        Assert.assertFalse(versions.isChanged("/a", 3, now.get() - 10 * MINUTE));
+        Assert.assertEquals("doubled up to the maximum", 16 * MINUTE, versions.ttlMillis("/a"));
+
+        Assert.assertTrue(versions.isChanged("/a", 4, now.get()));
+        Assert.assertEquals(8 * MINUTE, versions.ttlMillis("/a"));
+        Assert.assertTrue("a new modification time alone is a change", versions.isChanged("/a", 4, now.get() + 1));
+        Assert.assertTrue(versions.isChanged("/a", 5, now.get() + 2));
+        Assert.assertTrue(versions.isChanged("/a", 6, now.get() + 3));
+        Assert.assertTrue(versions.isChanged("/a", 7, now.get() + 4));
+        Assert.assertEquals("halved down to the minimum", MINUTE, versions.ttlMillis("/a"));
+    }
+
+    @Test
+    public void testFirstListingOfRecentOrUnknownChangeRefetches() {
+        SecretVersions versions = new SecretVersions(MINUTE, 60 * MINUTE, now::get);
+        versions.fetched("/recent", 5 * MINUTE);
+        versions.fetched("/unknown", 5 * MINUTE);
+        Assert.assertTrue(versions.isChanged("/recent", 1, now.get() + MINUTE));
+        Assert.assertTrue(versions.isChanged("/unknown", 1, 0L));
+        Assert.assertEquals("not counted as a change for the TTL", 5 * MINUTE, versions.ttlMillis("/recent"));
+        Assert.assertFalse("untracked paths never change", versions.isChanged("/other", 1, 0L));
+
+        versions.forget("/recent");
+        Assert.assertEquals(-1L, versions.ttlMillis("/recent"));
+        Assert.assertEquals(1, versions.size());
+        Assert.assertEquals(0L, SecretVersions.parseTime("yesterday"));
+        Assert.assertEquals(1_700_000_000_000L, SecretVersions.parseTime("2023-11-14T22:13:20Z"));
+    }
+
+    @Test
+    public void testResolverRefetchesOnlyChangedSecrets() throws Exception {
+        long longAgo = System.currentTimeMillis() - 3_600_000L;
+        try (GatewaySimulator gateway = new GatewaySimulator()) {
+            gateway.listPageSize(2)
+                    .secret("/team/db1", "pw1", longAgo)
+                    .secret("/team/db2", "pw2", longAgo)
+                    .secret("/team/db3", "pw3")
+                    .secret("/other/db4", "pw4", longAgo);
+            System.setProperty("ext.cred.akeyless.gw_url", gateway.url());
+            System.setProperty("ext.cred.akeyless.access_type", "access_key");
+            System.setProperty("ext.cred.akeyless.access_id", "id-versions");
+            System.setProperty("ext.cred.akeyless.access_key", "k");
+            System.setProperty("ext.cred.akeyless.cache.enabled", "true");
+            System.setProperty("ext.cred.akeyless.cache.refresh.mode", "version");
+            CredentialResolver.resetHttpTransport();
+            SimpleResolverMetrics metrics = new SimpleResolverMetrics();
+            CredentialResolver.setMetrics(metrics);
+
+            CredentialResolver cr = new CredentialResolver();
+            List<String> paths = Arrays.asList("/team/db1", "/team/db2", "/team/db3", "/other/db4");
+            for (String path : paths) {
+                Assert.assertEquals(path, "pw" + path.charAt(path.length() - 1), resolve(cr, path));
+            }
+            Assert.assertEquals(4, gateway.requests("/v2/get-secret-value"));
+
+            // Only db3 was modified around its fetch, so only it is fetched again
+            cr.checkVersions(ResolverConfig.current(), paths);
+            Assert.assertEquals("one call per folder and page", 3, gateway.requests("/v2/list-items"));
+            Assert.assertEquals(5, gateway.requests("/v2/get-secret-value"));
+
+            gateway.secret("/team/db2", "pw2-rotated");
+            cr.checkVersions(ResolverConfig.current(), paths);
+            Assert.assertEquals(6, gateway.requests("/v2/get-secret-value"));
+            Assert.assertEquals("pw2-rotated", resolve(cr, "/team/db2"));
+            Assert.assertEquals("pw1", resolve(cr, "/team/db1"));
+            Assert.assertEquals("served from the cache", 6, gateway.requests("/v2/get-secret-value"));
+            Assert.assertEquals(8, metrics.counter(ResolverMetrics.VERSION_CHECKED));
+            Assert.assertEquals(2, metrics.counter(ResolverMetrics.VERSION_CHANGED));
+        }
+    }
+
+    private static String resolve(CredentialResolver cr, String path) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, path);
+        args.put(CredentialResolver.ARG_TYPE, "windows");
+        return cr.resolve(args).get("password");
+    }
+}
@@ -0,0 +1,109 @@
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+    @After
+    public void tearDown() {
+        CredentialResolver.resetHttpTransport();
+        System.clearProperty("ext.cred.akeyless.gw_url");
+        System.clearProperty("ext.cred.akeyless.access_type");
+        System.clearProperty("ext.cred.akeyless.access_id");
+        System.clearProperty("ext.cred.akeyless.access_key");
+    }
+
+    @Test
+    public void testWaitersShareLeaderException() throws Exception {
+        SingleFlight<String, String> sf = new SingleFlight<>();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> sf.execute("k", () -> {
+                entered.countDown();
+                release.await();
+                throw new AkeylessCredentialResolverException("boom");
+            }));
+            entered.await();
+            Future<String> waiter = pool.submit(() -> sf.execute("k", () -> "not called"));
+            // Give the waiter time to join the in-flight call before the leader fails
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> f : List.of(leader, waiter)) {
+                try {
+                    f.get(5, TimeUnit.SECONDS);
+                    Assert.fail("expected exception");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof AkeylessCredentialResolverException);
+                    Assert.assertEquals("boom", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(0, sf.inFlight());
+        Assert.assertEquals("next", sf.execute("k", () -> "next"));
+    }
+
+    @Test
+    public void testConcurrentResolvesShareOneFetch() throws Exception {
+        System.setProperty("ext.cred.akeyless.gw_url", "https://fake");
+        System.setProperty("ext.cred.akeyless.access_type", "access_key");
+        System.setProperty("ext.cred.akeyless.access_id", "id-coalesce");
+        System.setProperty("ext.cred.akeyless.access_key", "k");
+
+        AtomicInteger fetches = new AtomicInteger();
+        CredentialResolver.setHttpTransport((url, payload) -> {
+            Map<String, Object> out = new HashMap<>();
+            if (url.endsWith("/v2/auth")) {
+                out.put("token", "T");
+                return out;
+            }
+            fetches.incrementAndGet();
+            Thread.sleep(200);
+            Map<String, Object> secrets = new HashMap<>();
+            secrets.put("/shared", "pw");
+            out.put("secrets", secrets);
+            return out;
+        });
+
+        CredentialResolver cr = new CredentialResolver();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<String, String>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    Map<String, String> args = new HashMap<>();
+                    args.put(CredentialResolver.ARG_ID, "/shared");
+                    args.put(CredentialResolver.ARG_TYPE, "ssh_password");
+                    start.await();
+                    return cr.resolve(args);
+                }));
+            }
+            start.countDown();
+            for (Future<Map<String, String>> f : results) {
+                Assert.assertEquals("pw", f.get(10, TimeUnit.SECONDS).get("password"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertTrue("expected coalesced fetches, got " + fetches.get(), fetches.get() < threads);
+    }
+}